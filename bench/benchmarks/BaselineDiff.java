@@ -0,0 +1,110 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files written with -rf csv, typically a stored
+ * baseline and a new run. Each row is identified by its benchmark name,
+ * including any profiler suffix such as gc.alloc.rate.norm, and its
+ * parameters. Only the primary scores and the bytes allocated per operation,
+ * gc.alloc.rate.norm, are compared, and lower is better for both. The other
+ * profiler rows aren't: the allocation rate rises when the code gets faster,
+ * and the collection counts and times are often 0.
+ *
+ * Usage: BaselineDiff baseline.csv results.csv [tolerance]. The exit status
+ * is 1 if any score grew by more than the tolerance, 0.1 by default.
+ *
+ * @author Dov Neimand
+ */
+public class BaselineDiff {
+
+    /**
+     * Splits a line of a JMH csv file. Fields are quoted and contain no
+     * quotes.
+     */
+    private static List<String> fields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (char c : line.toCharArray())
+            if (c == '"') quoted = !quoted;
+            else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else field.append(c);
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Is a benchmark row one that is compared? Profiler rows are named after
+     * the benchmark, a colon, and the profiler's metric.
+     */
+    private static boolean compared(String benchmark) {
+        int colon = benchmark.indexOf(':');
+        return colon < 0 || benchmark.substring(colon + 1).equals("gc.alloc.rate.norm");
+    }
+
+    /**
+     * The compared scores in a result file.
+     *
+     * @param file A JMH csv result file.
+     * @return The score and unit of each row, keyed by the benchmark and its
+     * parameters.
+     */
+    private static Map<String, String[]> scores(String file) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+        List<String> header = fields(lines.get(0));
+        int score = header.indexOf("Score"), unit = header.indexOf("Unit");
+
+        Map<String, String[]> scores = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) continue;
+            List<String> row = fields(line);
+            //Older versions of JMH put a middle dot before the profiler's metric.
+            String benchmark = row.get(0).replace("\u00b7", "");
+            if (!compared(benchmark)) continue;
+            StringBuilder key = new StringBuilder(benchmark);
+            for (int i = unit + 1; i < row.size(); i++)
+                if (!row.get(i).isEmpty())
+                    key.append(' ').append(header.get(i).replace("Param: ", ""))
+                            .append('=').append(row.get(i));
+            scores.put(key.toString(), new String[]{row.get(score), row.get(unit)});
+        }
+        return scores;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String[]> baseline = scores(args[0]), results = scores(args[1]);
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 0.1;
+
+        int regressions = 0;
+        for (Map.Entry<String, String[]> e : results.entrySet()) {
+            String[] before = baseline.get(e.getKey());
+            double now = Double.parseDouble(e.getValue()[0]);
+            if (before == null) {
+                System.out.printf("%-90s %14.3f %-10s new%n", e.getKey(), now, e.getValue()[1]);
+                continue;
+            }
+            double was = Double.parseDouble(before[0]);
+            double change = was == 0 ? (now == 0 ? 0 : Double.POSITIVE_INFINITY) : now / was - 1;
+            boolean worse = change > tolerance;
+            if (worse) regressions++;
+            System.out.printf("%-90s %14.3f %-10s %+8.1f%%%s%n", e.getKey(), now,
+                    e.getValue()[1], 100 * change, worse ? "  REGRESSION" : "");
+        }
+        for (String key : baseline.keySet())
+            if (!results.containsKey(key)) System.out.printf("%-90s missing%n", key);
+
+        System.out.println(regressions + " regressions beyond " + 100 * tolerance + "%");
+        if (regressions > 0) System.exit(1);
+    }
+
+}
@@ -0,0 +1,103 @@
+package benchmarks;
+
+import data.Datum;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import neuralnetwork.ActivationFunctions.Sigmoid;
+import neuralnetwork.Architecture;
+import neuralnetwork.CompiledNetwork;
+import neuralnetwork.InferenceSession;
+import neuralnetwork.NeuralNetwork;
+import optimization.FuncAt;
+import org.jblas.DoubleMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A small network compiled with {@link CompiledNetwork} against the general
+ * code, for one datum at a time. 12-14-8 is near the largest network whose
+ * generated methods are within {@link CompiledNetwork#HUGE_METHOD_LIMIT}.
+ *
+ * @author Dov Neimand
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompiledNetworkBenchmark {
+
+    /**
+     * A small network, compiled, and a datum.
+     */
+    @State(Scope.Benchmark)
+    public static class Small {
+
+        @Param({"2-3-3", "8-8-4", "12-14-8"})
+        public String arch;
+
+        public NeuralNetwork nn;
+        public InferenceSession session;
+        public CompiledNetwork compiled;
+        public Datum datum;
+        public double[] out, grad;
+        public FuncAt sum;
+
+        @Setup
+        public void setup() {
+            String[] dims = arch.split("-");
+            int[] nodes = new int[dims.length - 1];
+            for (int i = 1; i < dims.length; i++) nodes[i - 1] = Integer.parseInt(dims[i]);
+            Architecture architecture = new Architecture(new Sigmoid(), Integer.parseInt(dims[0]), nodes);
+
+            Random rand = new Random(1);
+            nn = new NeuralNetwork(rand.doubles(architecture.numVariables(), -1, 1).toArray(), architecture);
+            session = nn.session();
+            compiled = CompiledNetwork.compile(nn);
+            datum = new Datum(rand.doubles(architecture.inputDim()).toArray(), 0, architecture.outputDim());
+            out = new double[architecture.outputDim()];
+            grad = new double[architecture.numVariables()];
+            sum = new FuncAt(new DoubleMatrix(1, grad.length), 0);
+        }
+    }
+
+    @Benchmark
+    public double[] generalPredict(Small s) {
+        return s.session.predict(s.datum.data, s.out);
+    }
+
+    @Benchmark
+    public double[] compiledPredict(Small s) {
+        return s.compiled.predict(s.datum.data, s.out);
+    }
+
+    @Benchmark
+    public DoubleMatrix generalApply(Small s) {
+        return s.nn.apply(s.datum);
+    }
+
+    @Benchmark
+    public DoubleMatrix compiledApply(Small s) {
+        return s.compiled.apply(s.datum);
+    }
+
+    @Benchmark
+    public FuncAt generalGradCost(Small s) {
+        return s.nn.addGradCost(s.datum, s.sum);
+    }
+
+    @Benchmark
+    public double compiledGradCost(Small s) {
+        return s.compiled.addGradCost(s.datum.data, s.datum.type, s.grad);
+    }
+
+}
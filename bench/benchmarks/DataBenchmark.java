@@ -0,0 +1,40 @@
+package benchmarks;
+
+import data.IdxCache;
+import data.MNISTData;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading the MNIST data. The first load of each set builds the cache in
+ * {@link IdxCache#DEFAULT_DIR}, so the measured loads read from the cache.
+ * Run from the project directory so MNISTData can be found.
+ *
+ * @author Dov Neimand
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DataBenchmark {
+
+    @Param({"false", "true"})
+    public boolean bigSet;
+
+    @Benchmark
+    public MNISTData load() {
+        return new MNISTData(bigSet, true);
+    }
+
+}
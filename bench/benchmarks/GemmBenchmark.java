@@ -0,0 +1,105 @@
+package benchmarks;
+
+import compute.Backend;
+import compute.Backends;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The matrix products of each backend, over the shapes the layers of the
+ * benchmark networks use, so it's clear where each backend wins. A shape is
+ * m-n-k: a layer with m outputs and k inputs applied to a batch of n. The
+ * whole network benchmarks can be run with a given backend by passing
+ * -jvmArgsAppend -Dneuralnetwork.backend=java.
+ *
+ * @author Dov Neimand
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GemmBenchmark {
+
+    /**
+     * Random matrices of the benchmarked shape.
+     */
+    @State(Scope.Benchmark)
+    public static class Shapes {
+
+        @Param({"jblas", "java"})
+        public String backend;
+
+        @Param({"3-1-2", "3-32-2", "50-1-100", "50-32-100", "10-1-50", "10-256-50",
+            "100-256-784", "512-256-784"})
+        public String shape;
+
+        public Backend blas;
+        public int m, n, k;
+        public double[] a, b, c, x, y;
+
+        @Setup
+        public void setup() {
+            blas = Backends.byName(backend);
+            int[] dims = Arrays.stream(shape.split("-")).mapToInt(Integer::parseInt).toArray();
+            m = dims[0];
+            n = dims[1];
+            k = dims[2];
+            Random rand = new Random(1);
+            a = rand.doubles(m * k, -1, 1).toArray();
+            b = rand.doubles(k * n, -1, 1).toArray();
+            c = new double[m * n];
+            x = rand.doubles(Math.max(m, k), -1, 1).toArray();
+            y = new double[Math.max(m, k)];
+        }
+    }
+
+    /**
+     * The weights times a batch, as in a layer's forward pass.
+     */
+    @Benchmark
+    public double[] gemm(Shapes s) {
+        s.blas.gemm(false, false, s.m, s.n, s.k, 1, s.a, 0, s.m, s.b, 0, s.k, 0, s.c, 0, s.m);
+        return s.c;
+    }
+
+    /**
+     * The transposed weights times a batch, as in a layer's backward pass.
+     */
+    @Benchmark
+    public double[] gemmTransposed(Shapes s) {
+        s.blas.gemm(true, false, s.k, s.n, s.m, 1, s.a, 0, s.m, s.c, 0, s.m, 0, s.b, 0, s.k);
+        return s.b;
+    }
+
+    /**
+     * The weights times a single vector.
+     */
+    @Benchmark
+    public double[] gemv(Shapes s) {
+        s.blas.gemv(false, s.m, s.k, 1, s.a, 0, s.m, s.x, 0, 0, s.y, 0);
+        return s.y;
+    }
+
+    /**
+     * The transposed weights times a single vector.
+     */
+    @Benchmark
+    public double[] gemvTransposed(Shapes s) {
+        s.blas.gemv(true, s.m, s.k, 1, s.a, 0, s.m, s.x, 0, 0, s.y, 0);
+        return s.y;
+    }
+
+}
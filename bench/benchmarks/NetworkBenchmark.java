@@ -0,0 +1,83 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import neuralnetwork.ActivationFunctions.ActivationFunction;
+import neuralnetwork.ActivationFunctions.Sigmoid;
+import neuralnetwork.Layer;
+import optimization.FuncAt;
+import org.jblas.DoubleMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The forward pass, the gradient and the activation function.
+ *
+ * @author Dov Neimand
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetworkBenchmark {
+
+    private final Sigmoid sigmoid = new Sigmoid();
+
+    /**
+     * The bottom layer applied to a batch.
+     */
+    @Benchmark
+    public DoubleMatrix layerApply(Networks n) {
+        Layer bottom = n.nn.layers()[0];
+        return bottom.actFunc.applyi(bottom.affineTransf(n.batchMatrix));
+    }
+
+    /**
+     * The whole network applied to a batch.
+     */
+    @Benchmark
+    public DoubleMatrix networkApply(Networks n) {
+        return n.nn.apply(n.batchMatrix);
+    }
+
+    /**
+     * The gradient of the cost at one datum, summed into a reused array in a
+     * reused workspace, as the builder computes it.
+     */
+    @Benchmark
+    public double layerGrad(Networks n) {
+        return n.nn.plan().addGradCost(n.datum, n.workspace, n.grad);
+    }
+
+    /**
+     * The gradient of the cost at one datum.
+     */
+    @Benchmark
+    public FuncAt gradCost(Networks n) {
+        return n.nn.gradCost(n.datum);
+    }
+
+    /**
+     * The cost and its gradient over a batch of data, as seen by the
+     * optimizer.
+     */
+    @Benchmark
+    public FuncAt builderFuncAt(Networks n) {
+        return n.builder.funcAt(n.x);
+    }
+
+    /**
+     * The sigmoid and its derivative over a batch. ati overwrites its
+     * argument, so repeated calls see values in (0, 1), which costs the same.
+     */
+    @Benchmark
+    public ActivationFunction.AtVector sigmoidAti(Networks n) {
+        return sigmoid.ati(n.batchMatrix);
+    }
+
+}
@@ -0,0 +1,88 @@
+package benchmarks;
+
+import data.ClassifiedData;
+import data.Datum;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+import neuralnetwork.ActivationFunctions.Sigmoid;
+import neuralnetwork.Architecture;
+import neuralnetwork.ExecutionPlan;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.NeuralNetworkBuilder;
+import org.jblas.DoubleMatrix;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A network with random weights and random data for it, shared by the
+ * benchmarks. The architecture is given as the number of nodes in each layer
+ * separated by dashes, starting with the input dimension.
+ *
+ * @author Dov Neimand
+ */
+@State(Scope.Benchmark)
+public class Networks {
+
+    @Param({"2-3-3", "784-100-50-10", "784-512-256-10"})
+    public String arch;
+
+    @Param({"1", "32", "256"})
+    public int batch;
+
+    public Architecture architecture;
+    public NeuralNetwork nn;
+    public double[] x;
+    public NeuralNetworkBuilder builder;
+    /**
+     * batch data, one per column.
+     */
+    public DoubleMatrix batchMatrix;
+    public Datum datum;
+    /**
+     * A workspace for the network's plan, and a gradient to sum into.
+     */
+    public ExecutionPlan.Workspace workspace;
+    public double[] grad;
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(1);
+        int[] dims = Arrays.stream(arch.split("-")).mapToInt(Integer::parseInt).toArray();
+        architecture = new Architecture(new Sigmoid(), dims[0], Arrays.copyOfRange(dims, 1, dims.length));
+
+        x = rand.doubles(architecture.numVariables(), -1, 1).toArray();
+        nn = new NeuralNetwork(x, architecture);
+
+        Datum[] data = new Datum[batch];
+        Arrays.setAll(data, i -> new Datum(rand.doubles(dims[0]).toArray(),
+                i % architecture.outputDim(), architecture.outputDim()));
+        datum = data[0];
+        workspace = nn.plan().workspace();
+        grad = new double[architecture.numVariables()];
+
+        batchMatrix = new DoubleMatrix(dims[0], batch);
+        for (int i = 0; i < batch; i++)
+            System.arraycopy(data[i].data, 0, batchMatrix.data, i * dims[0], dims[0]);
+
+        builder = new NeuralNetworkBuilder(new ClassifiedData() {
+            @Override
+            public Stream<Datum> stream() {
+                return Arrays.stream(data);
+            }
+
+            @Override
+            public int numTypes() {
+                return architecture.outputDim();
+            }
+
+            @Override
+            public int size() {
+                return data.length;
+            }
+        }, architecture);
+    }
+
+}
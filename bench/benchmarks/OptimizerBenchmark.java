@@ -0,0 +1,65 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import optimization.FuncAt;
+import optimization.GradDescentBackTrack;
+import org.jblas.DoubleMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One backtracking line search of gradient descent.
+ *
+ * @author Dov Neimand
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptimizerBenchmark {
+
+    /**
+     * Gradient descent with its jump exposed.
+     */
+    private static class Descent extends GradDescentBackTrack {
+
+        public Descent(Networks n) {
+            super(n.builder, 1e-6, new DoubleMatrix(n.x));
+        }
+
+        @Override
+        public DoubleMatrix jump(DoubleMatrix from, FuncAt atX) {
+            return super.jump(from, atX);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Start {
+
+        Descent descent;
+        DoubleMatrix from;
+        FuncAt atFrom;
+
+        @Setup
+        public void setup(Networks n) {
+            descent = new Descent(n);
+            from = new DoubleMatrix(n.x);
+            atFrom = n.builder.funcAt(n.x);
+        }
+    }
+
+    @Benchmark
+    public DoubleMatrix jump(Start s) {
+        return s.descent.jump(s.from, s.atFrom);
+    }
+
+}
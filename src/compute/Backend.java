@@ -0,0 +1,211 @@
+package compute;
+
+import java.util.Arrays;
+import java.util.function.DoubleUnaryOperator;
+import org.jblas.DoubleMatrix;
+
+/**
+ * The linear algebra the network and optimizers are built on. Matrices are
+ * column major arrays with an offset and a leading dimension, as in BLAS.
+ * Implementations only need to provide the array methods; the DoubleMatrix
+ * methods are written in terms of them. See {@link Backends} for choosing one.
+ *
+ * @author Dov Neimand
+ */
+public interface Backend {
+
+    /**
+     * The name used to select this backend.
+     *
+     * @return The name of this backend.
+     */
+    public String name();
+
+    /**
+     * C = alpha op(A) op(B) + beta C, where op(A) is m x k and op(B) is k x n.
+     *
+     * @param transA True if op(A) is A transposed.
+     * @param transB True if op(B) is B transposed.
+     * @param m The rows of C.
+     * @param n The columns of C.
+     * @param k The columns of op(A) and rows of op(B).
+     * @param alpha Multiplies the product.
+     * @param a A.
+     * @param aOff The index of the first element of A.
+     * @param lda The distance between columns of A.
+     * @param b B.
+     * @param bOff The index of the first element of B.
+     * @param ldb The distance between columns of B.
+     * @param beta Multiplies C before the product is added. If it is 0, C
+     * is overwritten without being read.
+     * @param c C.
+     * @param cOff The index of the first element of C.
+     * @param ldc The distance between columns of C.
+     */
+    public void gemm(boolean transA, boolean transB, int m, int n, int k,
+            double alpha, double[] a, int aOff, int lda, double[] b, int bOff, int ldb,
+            double beta, double[] c, int cOff, int ldc);
+
+    /**
+     * y = alpha op(A) x + beta y, where A is m x n.
+     *
+     * @param trans True if op(A) is A transposed.
+     * @param m The rows of A.
+     * @param n The columns of A.
+     * @param alpha Multiplies the product.
+     * @param a A.
+     * @param aOff The index of the first element of A.
+     * @param lda The distance between columns of A.
+     * @param x x, of length n, or m if trans.
+     * @param xOff The index of the first element of x.
+     * @param beta Multiplies y before the product is added. If it is 0, y is
+     * overwritten without being read.
+     * @param y y, of length m, or n if trans.
+     * @param yOff The index of the first element of y.
+     */
+    public void gemv(boolean trans, int m, int n, double alpha, double[] a, int aOff, int lda,
+            double[] x, int xOff, double beta, double[] y, int yOff);
+
+    /**
+     * y = alpha x + y.
+     *
+     * @param n The number of elements.
+     * @param alpha Multiplies x.
+     * @param x x.
+     * @param xOff The index of the first element of x.
+     * @param y y.
+     * @param yOff The index of the first element of y.
+     */
+    public void axpy(int n, double alpha, double[] x, int xOff, double[] y, int yOff);
+
+    /**
+     * The dot product of x and y.
+     *
+     * @param n The number of elements.
+     * @param x x.
+     * @param xOff The index of the first element of x.
+     * @param y y.
+     * @param yOff The index of the first element of y.
+     * @return The dot product of x and y.
+     */
+    public double dot(int n, double[] x, int xOff, double[] y, int yOff);
+
+    /**
+     * y = f(x) elementwise. x and y may be the same array.
+     *
+     * @param n The number of elements.
+     * @param f The function applied to each element.
+     * @param x x.
+     * @param xOff The index of the first element of x.
+     * @param y y.
+     * @param yOff The index of the first element of y.
+     */
+    public default void map(int n, DoubleUnaryOperator f, double[] x, int xOff, double[] y, int yOff) {
+        for (int i = 0; i < n; i++) y[yOff + i] = f.applyAsDouble(x[xOff + i]);
+    }
+
+    /**
+     * The sum of the elements of x.
+     *
+     * @param n The number of elements.
+     * @param x x.
+     * @param xOff The index of the first element of x.
+     * @return The sum of the elements.
+     */
+    public default double sum(int n, double[] x, int xOff) {
+        double sum = 0;
+        for (int i = 0; i < n; i++) sum += x[xOff + i];
+        return sum;
+    }
+
+    /**
+     * The product of two matrices.
+     *
+     * @param a An n x k matrix.
+     * @param b A k x m matrix.
+     * @return A new n x m matrix.
+     */
+    public default DoubleMatrix mmul(DoubleMatrix a, DoubleMatrix b) {
+        DoubleMatrix c = new DoubleMatrix(a.rows, b.columns);
+        gemm(a, b, c, 0);
+        return c;
+    }
+
+    /**
+     * Adds the product of a and b to the leading columns of c.
+     *
+     * @param a An n x k matrix.
+     * @param b A k x m matrix.
+     * @param c An n x p matrix, p >= m.
+     */
+    public default void addProduct(DoubleMatrix a, DoubleMatrix b, DoubleMatrix c) {
+        gemm(a, b, c, 1);
+    }
+
+    private void gemm(DoubleMatrix a, DoubleMatrix b, DoubleMatrix c, double beta) {
+        if (a.columns != b.rows || c.rows != a.rows || c.columns < b.columns)
+            throw new IllegalArgumentException("Can't multiply " + a.rows + "x"
+                    + a.columns + " by " + b.rows + "x" + b.columns + " into "
+                    + c.rows + "x" + c.columns);
+        if (a.rows == 0 || b.columns == 0) return;
+        if (a.columns == 0) {
+            if (beta == 0) Arrays.fill(c.data, 0, c.rows * b.columns, 0);
+            return;
+        }
+        gemm(false, false, a.rows, b.columns, a.columns, 1, a.data, 0, a.rows,
+                b.data, 0, b.rows, beta, c.data, 0, c.rows);
+    }
+
+    /**
+     * The transpose of a matrix times a vector.
+     *
+     * @param a An m x n matrix.
+     * @param x A vector of length m.
+     * @return A new 1 x n matrix, x^T a.
+     */
+    public default DoubleMatrix transposeMul(DoubleMatrix a, DoubleMatrix x) {
+        DoubleMatrix y = new DoubleMatrix(1, a.columns);
+        if (a.rows > 0 && a.columns > 0)
+            gemv(true, a.rows, a.columns, 1, a.data, 0, a.rows, x.data, 0, 0, y.data, 0);
+        return y;
+    }
+
+    /**
+     * y += alpha x.
+     *
+     * @param alpha Multiplies x.
+     * @param x A matrix.
+     * @param y A matrix with as many elements as x.
+     * @return y.
+     */
+    public default DoubleMatrix axpy(double alpha, DoubleMatrix x, DoubleMatrix y) {
+        if (x.length != y.length)
+            throw new IllegalArgumentException("Lengths " + x.length + " and " + y.length + " differ.");
+        axpy(x.length, alpha, x.data, 0, y.data, 0);
+        return y;
+    }
+
+    /**
+     * The dot product of two matrices treated as vectors.
+     *
+     * @param x A matrix.
+     * @param y A matrix with as many elements as x.
+     * @return The sum of the products of their elements.
+     */
+    public default double dot(DoubleMatrix x, DoubleMatrix y) {
+        if (x.length != y.length)
+            throw new IllegalArgumentException("Lengths " + x.length + " and " + y.length + " differ.");
+        return dot(x.length, x.data, 0, y.data, 0);
+    }
+
+    /**
+     * The Euclidean norm of a matrix treated as a vector.
+     *
+     * @param x A matrix.
+     * @return The square root of the sum of the squares of its elements.
+     */
+    public default double norm2(DoubleMatrix x) {
+        return Math.sqrt(dot(x, x));
+    }
+
+}
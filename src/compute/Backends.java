@@ -0,0 +1,116 @@
+package compute;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jblas.NativeBlas;
+
+/**
+ * Chooses the backend everything computes with. The system property
+ * neuralnetwork.backend may be "jblas", "java", or the name of a class
+ * implementing {@link Backend} with a public no argument constructor. If it is
+ * not set, jblas is used when its native library loads and plain Java
+ * otherwise.
+ *
+ * @author Dov Neimand
+ */
+public class Backends {
+
+    /**
+     * The system property that selects the backend.
+     */
+    public static final String PROPERTY = "neuralnetwork.backend";
+
+    private static volatile Backend current = fromProperty();
+    /**
+     * True if the backend was chosen with the system property or
+     * {@link #use(compute.Backend)}, rather than by default.
+     */
+    private static volatile boolean chosen = System.getProperty(PROPERTY) != null;
+
+    /**
+     * The backend in use.
+     *
+     * @return The backend in use.
+     */
+    public static Backend get() {
+        return current;
+    }
+
+    /**
+     * Changes the backend. This is meant for startup and tests; matrices
+     * already being worked on are not affected.
+     *
+     * @param backend The new backend.
+     */
+    public static void use(Backend backend) {
+        current = backend;
+        chosen = true;
+    }
+
+    /**
+     * Was the backend chosen explicitly, with the system property or
+     * {@link #use(compute.Backend)}? If not, tools such as the auto tuner
+     * may change it.
+     *
+     * @return True if the backend was chosen explicitly.
+     */
+    public static boolean isChosen() {
+        return chosen;
+    }
+
+    /**
+     * Changes the backend without marking it as chosen explicitly. This is
+     * for tools that pick a backend on the user's behalf.
+     *
+     * @param backend The new backend.
+     */
+    public static void suggest(Backend backend) {
+        current = backend;
+    }
+
+    /**
+     * The backend with the given name.
+     *
+     * @param name "jblas", "java", or the name of a class implementing
+     * Backend.
+     * @return A new instance of the backend.
+     */
+    public static Backend byName(String name) {
+        switch (name) {
+            case "jblas":
+                return new JblasBackend();
+            case "java":
+                return new JavaBackend();
+            default:
+                try {
+                    return (Backend) Class.forName(name).getConstructor().newInstance();
+                } catch (ReflectiveOperationException | ClassCastException ex) {
+                    throw new IllegalArgumentException("No backend " + name, ex);
+                }
+        }
+    }
+
+    /**
+     * True if the jblas native library can be loaded.
+     *
+     * @return True if the jblas native library can be loaded.
+     */
+    public static boolean nativeAvailable() {
+        try {
+            NativeBlas.ddot(1, new double[1], 0, 1, new double[1], 0, 1);
+            return true;
+        } catch (LinkageError ex) {
+            return false;
+        }
+    }
+
+    private static Backend fromProperty() {
+        String name = System.getProperty(PROPERTY);
+        if (name != null) return byName(name);
+        if (nativeAvailable()) return new JblasBackend();
+        Logger.getLogger(Backends.class.getName()).log(Level.INFO,
+                "The jblas native library is not available, using the java backend.");
+        return new JavaBackend();
+    }
+
+}
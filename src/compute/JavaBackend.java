@@ -0,0 +1,42 @@
+package compute;
+
+/**
+ * Plain Java, for machines without a native BLAS. Matrix products are
+ * blocked for cache and registers and, when large, split over threads; see
+ * {@link JavaGemm}.
+ *
+ * @author Dov Neimand
+ */
+public class JavaBackend implements Backend {
+
+    @Override
+    public String name() {
+        return "java";
+    }
+
+    @Override
+    public void gemm(boolean transA, boolean transB, int m, int n, int k,
+            double alpha, double[] a, int aOff, int lda, double[] b, int bOff, int ldb,
+            double beta, double[] c, int cOff, int ldc) {
+        JavaGemm.gemm(transA, transB, m, n, k, alpha, a, aOff, lda, b, bOff, ldb, beta, c, cOff, ldc);
+    }
+
+    @Override
+    public void gemv(boolean trans, int m, int n, double alpha, double[] a, int aOff, int lda,
+            double[] x, int xOff, double beta, double[] y, int yOff) {
+        JavaGemm.gemv(trans, m, n, alpha, a, aOff, lda, x, xOff, beta, y, yOff);
+    }
+
+    @Override
+    public void axpy(int n, double alpha, double[] x, int xOff, double[] y, int yOff) {
+        for (int i = 0; i < n; i++) y[yOff + i] += alpha * x[xOff + i];
+    }
+
+    @Override
+    public double dot(int n, double[] x, int xOff, double[] y, int yOff) {
+        double sum = 0;
+        for (int i = 0; i < n; i++) sum += x[xOff + i] * y[yOff + i];
+        return sum;
+    }
+
+}
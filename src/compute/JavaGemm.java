@@ -0,0 +1,276 @@
+package compute;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Matrix products in plain Java. Large products are blocked so that a block
+ * of A and a panel of B stay in cache while they are used; both are copied
+ * into contiguous micro panels, and a 4 x 4 block of C is accumulated in
+ * local variables, which the JIT keeps in registers. Products with enough
+ * work are split over row panels of C and run on the fork join pool. Small
+ * products, where copying would cost more than it saves, use direct loops.
+ *
+ * The Vector API would let the micro kernel use explicit SIMD, but it needs
+ * Java 16 and this project targets Java 11, so the kernel is scalar and
+ * relies on the JIT.
+ *
+ * @author Dov Neimand
+ */
+class JavaGemm {
+
+    /**
+     * The rows and columns of the block of C held in registers.
+     */
+    static final int MR = 4, NR = 4;
+    /**
+     * The rows of A, the depth, and the columns of B in each cache block.
+     */
+    static final int MC = 64, KC = 256, NC = 1024;
+    /**
+     * Products with fewer multiplications than this use direct loops.
+     */
+    static final long BLOCKED_FLOPS = 16 * 16 * 16;
+    /**
+     * Products with more multiplications than this are split over threads.
+     */
+    static final long PARALLEL_FLOPS = 1L << 21;
+
+    private static final ThreadLocal<double[]> A_PACK = ThreadLocal.withInitial(() -> new double[MC * KC]),
+            B_PACK = ThreadLocal.withInitial(() -> new double[KC * NC]),
+            EDGE = ThreadLocal.withInitial(() -> new double[MR * NR]);
+
+    /**
+     * C = alpha op(A) op(B) + beta C. See
+     * {@link Backend#gemm(boolean, boolean, int, int, int, double, double[], int, int, double[], int, int, double, double[], int, int)}.
+     */
+    static void gemm(boolean transA, boolean transB, int m, int n, int k,
+            double alpha, double[] a, int aOff, int lda, double[] b, int bOff, int ldb,
+            double beta, double[] c, int cOff, int ldc) {
+        scale(m, n, beta, c, cOff, ldc);
+        if (alpha == 0 || k == 0 || m == 0 || n == 0) return;
+
+        long flops = (long) m * n * k;
+        if (flops < BLOCKED_FLOPS) {
+            direct(transA, transB, m, n, k, alpha, a, aOff, lda, b, bOff, ldb, c, cOff, ldc);
+            return;
+        }
+        if (flops < PARALLEL_FLOPS || m <= MC) {
+            blocked(transA, transB, 0, m, n, k, alpha, a, aOff, lda, b, bOff, ldb, c, cOff, ldc);
+            return;
+        }
+
+        List<ForkJoinTask<?>> panels = new ArrayList<>();
+        for (int i = 0; i < m; i += MC) {
+            int from = i, to = Math.min(m, i + MC);
+            panels.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    blocked(transA, transB, from, to, n, k, alpha, a, aOff, lda, b, bOff, ldb, c, cOff, ldc);
+                }
+            });
+        }
+        ForkJoinTask.invokeAll(panels);
+    }
+
+    /**
+     * C = beta C.
+     */
+    private static void scale(int m, int n, double beta, double[] c, int cOff, int ldc) {
+        if (beta == 1) return;
+        for (int j = 0; j < n; j++) {
+            int col = cOff + j * ldc;
+            if (beta == 0) for (int i = 0; i < m; i++) c[col + i] = 0;
+            else for (int i = 0; i < m; i++) c[col + i] *= beta;
+        }
+    }
+
+    /**
+     * C += alpha op(A) op(B) with plain loops, for small products.
+     */
+    private static void direct(boolean transA, boolean transB, int m, int n, int k,
+            double alpha, double[] a, int aOff, int lda, double[] b, int bOff, int ldb,
+            double[] c, int cOff, int ldc) {
+        for (int j = 0; j < n; j++) {
+            int cCol = cOff + j * ldc;
+            for (int p = 0; p < k; p++) {
+                double bpj = alpha * (transB ? b[bOff + j + p * ldb] : b[bOff + p + j * ldb]);
+                if (bpj == 0) continue;
+                if (transA) for (int i = 0; i < m; i++) c[cCol + i] += a[aOff + p + i * lda] * bpj;
+                else {
+                    int aCol = aOff + p * lda;
+                    for (int i = 0; i < m; i++) c[cCol + i] += a[aCol + i] * bpj;
+                }
+            }
+        }
+    }
+
+    /**
+     * C[from:to, :] += alpha op(A)[from:to, :] op(B), blocked for cache and
+     * registers.
+     */
+    private static void blocked(boolean transA, boolean transB, int from, int to, int n, int k,
+            double alpha, double[] a, int aOff, int lda, double[] b, int bOff, int ldb,
+            double[] c, int cOff, int ldc) {
+        double[] aPack = A_PACK.get(), bPack = B_PACK.get(), edge = EDGE.get();
+        for (int jc = 0; jc < n; jc += NC) {
+            int nc = Math.min(NC, n - jc);
+            for (int pc = 0; pc < k; pc += KC) {
+                int kc = Math.min(KC, k - pc);
+                packB(transB, kc, nc, alpha, b, bOff, ldb, pc, jc, bPack);
+                for (int ic = from; ic < to; ic += MC) {
+                    int mc = Math.min(MC, to - ic);
+                    packA(transA, mc, kc, a, aOff, lda, ic, pc, aPack);
+                    macro(mc, nc, kc, aPack, bPack, c, cOff + ic + jc * ldc, ldc, edge);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies op(A)[i0:i0+mc, p0:p0+kc] into micro panels of MR rows. Within a
+     * panel the MR elements of each column are contiguous. The last panel is
+     * padded with zeros.
+     */
+    private static void packA(boolean trans, int mc, int kc, double[] a, int aOff, int lda,
+            int i0, int p0, double[] pack) {
+        int w = 0;
+        for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR, mc - ir);
+            for (int p = 0; p < kc; p++) {
+                for (int i = 0; i < mr; i++) {
+                    int row = i0 + ir + i, col = p0 + p;
+                    pack[w + i] = trans ? a[aOff + col + row * lda] : a[aOff + row + col * lda];
+                }
+                for (int i = mr; i < MR; i++) pack[w + i] = 0;
+                w += MR;
+            }
+        }
+    }
+
+    /**
+     * Copies alpha op(B)[p0:p0+kc, j0:j0+nc] into micro panels of NR
+     * columns. Within a panel the NR elements of each row are contiguous. The
+     * last panel is padded with zeros.
+     */
+    private static void packB(boolean trans, int kc, int nc, double alpha, double[] b, int bOff,
+            int ldb, int p0, int j0, double[] pack) {
+        int w = 0;
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            for (int p = 0; p < kc; p++) {
+                for (int j = 0; j < nr; j++) {
+                    int row = p0 + p, col = j0 + jr + j;
+                    pack[w + j] = alpha * (trans ? b[bOff + col + row * ldb] : b[bOff + row + col * ldb]);
+                }
+                for (int j = nr; j < NR; j++) pack[w + j] = 0;
+                w += NR;
+            }
+        }
+    }
+
+    /**
+     * Multiplies a packed block of A by a packed panel of B into C.
+     */
+    private static void macro(int mc, int nc, int kc, double[] aPack, double[] bPack,
+            double[] c, int cOff, int ldc, double[] edge) {
+        for (int jr = 0; jr < nc; jr += NR)
+            for (int ir = 0; ir < mc; ir += MR)
+                micro(kc, aPack, ir * kc, bPack, jr * kc, c, cOff + ir + jr * ldc, ldc,
+                        Math.min(MR, mc - ir), Math.min(NR, nc - jr), edge);
+    }
+
+    /**
+     * Accumulates a 4 x 4 block of C in registers over the depth kc and adds
+     * the valid mr x nr part of it to C. Partial blocks go through edge, which
+     * has space for a whole block.
+     */
+    private static void micro(int kc, double[] a, int aOff, double[] b, int bOff,
+            double[] c, int cOff, int ldc, int mr, int nr, double[] edge) {
+        double c00 = 0, c10 = 0, c20 = 0, c30 = 0,
+                c01 = 0, c11 = 0, c21 = 0, c31 = 0,
+                c02 = 0, c12 = 0, c22 = 0, c32 = 0,
+                c03 = 0, c13 = 0, c23 = 0, c33 = 0;
+
+        for (int p = 0, ai = aOff, bi = bOff; p < kc; p++, ai += MR, bi += NR) {
+            double a0 = a[ai], a1 = a[ai + 1], a2 = a[ai + 2], a3 = a[ai + 3];
+            double b0 = b[bi], b1 = b[bi + 1], b2 = b[bi + 2], b3 = b[bi + 3];
+            c00 += a0 * b0; c10 += a1 * b0; c20 += a2 * b0; c30 += a3 * b0;
+            c01 += a0 * b1; c11 += a1 * b1; c21 += a2 * b1; c31 += a3 * b1;
+            c02 += a0 * b2; c12 += a1 * b2; c22 += a2 * b2; c32 += a3 * b2;
+            c03 += a0 * b3; c13 += a1 * b3; c23 += a2 * b3; c33 += a3 * b3;
+        }
+
+        if (mr == MR && nr == NR) {
+            int c0 = cOff, c1 = c0 + ldc, c2 = c1 + ldc, c3 = c2 + ldc;
+            c[c0] += c00; c[c0 + 1] += c10; c[c0 + 2] += c20; c[c0 + 3] += c30;
+            c[c1] += c01; c[c1 + 1] += c11; c[c1 + 2] += c21; c[c1 + 3] += c31;
+            c[c2] += c02; c[c2 + 1] += c12; c[c2 + 2] += c22; c[c2 + 3] += c32;
+            c[c3] += c03; c[c3 + 1] += c13; c[c3 + 2] += c23; c[c3 + 3] += c33;
+            return;
+        }
+
+        edge[0] = c00; edge[1] = c10; edge[2] = c20; edge[3] = c30;
+        edge[4] = c01; edge[5] = c11; edge[6] = c21; edge[7] = c31;
+        edge[8] = c02; edge[9] = c12; edge[10] = c22; edge[11] = c32;
+        edge[12] = c03; edge[13] = c13; edge[14] = c23; edge[15] = c33;
+        for (int j = 0; j < nr; j++)
+            for (int i = 0; i < mr; i++)
+                c[cOff + i + j * ldc] += edge[i + j * MR];
+    }
+
+    /**
+     * y = alpha op(A) x + beta y. See
+     * {@link Backend#gemv(boolean, int, int, double, double[], int, int, double[], int, double, double[], int)}.
+     * Four columns are processed at a time so each element of y is loaded
+     * and stored once per four columns, or, transposed, four dot products
+     * share each pass over x.
+     */
+    static void gemv(boolean trans, int m, int n, double alpha, double[] a, int aOff, int lda,
+            double[] x, int xOff, double beta, double[] y, int yOff) {
+        if (trans) {
+            int j = 0;
+            for (; j + 4 <= n; j += 4) {
+                int c0 = aOff + j * lda, c1 = c0 + lda, c2 = c1 + lda, c3 = c2 + lda;
+                double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+                for (int i = 0; i < m; i++) {
+                    double xi = x[xOff + i];
+                    s0 += a[c0 + i] * xi;
+                    s1 += a[c1 + i] * xi;
+                    s2 += a[c2 + i] * xi;
+                    s3 += a[c3 + i] * xi;
+                }
+                y[yOff + j] = alpha * s0 + (beta == 0 ? 0 : beta * y[yOff + j]);
+                y[yOff + j + 1] = alpha * s1 + (beta == 0 ? 0 : beta * y[yOff + j + 1]);
+                y[yOff + j + 2] = alpha * s2 + (beta == 0 ? 0 : beta * y[yOff + j + 2]);
+                y[yOff + j + 3] = alpha * s3 + (beta == 0 ? 0 : beta * y[yOff + j + 3]);
+            }
+            for (; j < n; j++) {
+                int col = aOff + j * lda;
+                double sum = 0;
+                for (int i = 0; i < m; i++) sum += a[col + i] * x[xOff + i];
+                y[yOff + j] = alpha * sum + (beta == 0 ? 0 : beta * y[yOff + j]);
+            }
+            return;
+        }
+
+        if (beta == 0) for (int i = 0; i < m; i++) y[yOff + i] = 0;
+        else if (beta != 1) for (int i = 0; i < m; i++) y[yOff + i] *= beta;
+        int j = 0;
+        for (; j + 4 <= n; j += 4) {
+            int c0 = aOff + j * lda, c1 = c0 + lda, c2 = c1 + lda, c3 = c2 + lda;
+            double x0 = alpha * x[xOff + j], x1 = alpha * x[xOff + j + 1],
+                    x2 = alpha * x[xOff + j + 2], x3 = alpha * x[xOff + j + 3];
+            for (int i = 0; i < m; i++)
+                y[yOff + i] += a[c0 + i] * x0 + a[c1 + i] * x1 + a[c2 + i] * x2 + a[c3 + i] * x3;
+        }
+        for (; j < n; j++) {
+            double xj = alpha * x[xOff + j];
+            int col = aOff + j * lda;
+            for (int i = 0; i < m; i++) y[yOff + i] += a[col + i] * xj;
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package compute;
+
+import org.jblas.NativeBlas;
+
+/**
+ * The native BLAS bundled with jblas.
+ *
+ * @author Dov Neimand
+ */
+public class JblasBackend implements Backend {
+
+    @Override
+    public String name() {
+        return "jblas";
+    }
+
+    @Override
+    public void gemm(boolean transA, boolean transB, int m, int n, int k,
+            double alpha, double[] a, int aOff, int lda, double[] b, int bOff, int ldb,
+            double beta, double[] c, int cOff, int ldc) {
+        NativeBlas.dgemm(transA ? 'T' : 'N', transB ? 'T' : 'N', m, n, k,
+                alpha, a, aOff, lda, b, bOff, ldb, beta, c, cOff, ldc);
+    }
+
+    @Override
+    public void gemv(boolean trans, int m, int n, double alpha, double[] a, int aOff, int lda,
+            double[] x, int xOff, double beta, double[] y, int yOff) {
+        NativeBlas.dgemv(trans ? 'T' : 'N', m, n, alpha, a, aOff, lda, x, xOff, 1, beta, y, yOff, 1);
+    }
+
+    @Override
+    public void axpy(int n, double alpha, double[] x, int xOff, double[] y, int yOff) {
+        NativeBlas.daxpy(n, alpha, x, xOff, 1, y, yOff, 1);
+    }
+
+    @Override
+    public double dot(int n, double[] x, int xOff, double[] y, int yOff) {
+        return NativeBlas.ddot(n, x, xOff, 1, y, yOff, 1);
+    }
+
+}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -74,6 +75,24 @@ public class DiskSampleDataSet extends ArrayList<Datum> implements ClassifiedDat
                 return new Datum(vec.data, id, numDisks);
             }).collect(Collectors.toList());
         }
+
+        /**
+         * Generates the same vectors every time for the same random number
+         * generator state.
+         * @param id The id number of the points in this disk.
+         * @param rand The source of randomness.
+         * @return A list of generated vectors.
+         */
+        public List<Datum> vectors(int id, Random rand) {
+            List<Datum> vectors = new ArrayList<>(numPoints);
+            for (int i = 0; i < numPoints; i++) {
+                DoubleMatrix vec = new DoubleMatrix(center.length);
+                for (int j = 0; j < vec.length; j++) vec.data[j] = rand.nextGaussian();
+                vec = vec.div(vec.norm2()).mul(radius * rand.nextDouble()).add(center);
+                vectors.add(new Datum(vec.data, id, numDisks));
+            }
+            return vectors;
+        }
         
         private int numDisks;
 
@@ -95,4 +114,18 @@ public class DiskSampleDataSet extends ArrayList<Datum> implements ClassifiedDat
         
     }
 
+    /**
+     * Creates a bunch of disk points, each disk having its own id. The same
+     * seed always gives the same points in the same order.
+     * @param disks The disks in which the points are to be created.
+     * @param seed The seed for the random number generator.
+     */
+    public DiskSampleDataSet(Disk[] disks, long seed) {
+        super(Arrays.stream(disks).mapToInt(disk -> disk.numPoints).sum());
+        Random rand = new Random(seed);
+        Arrays.stream(disks).forEach(disk -> disk.numDisks = disks.length);
+        for (int i = 0; i < disks.length; i++) addAll(disks[i].vectors(i, rand));
+        Collections.shuffle(this, rand);
+    }
+
 }
@@ -0,0 +1,127 @@
+package data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.DoubleUnaryOperator;
+import java.util.zip.CRC32;
+import metrics.Counter;
+import metrics.Metrics;
+
+/**
+ * A cache of preprocessed IDX tensors. The preprocessed tensor is stored as a
+ * float or double IDX file whose name carries the checksum of the source file
+ * and the name of the preprocessing, so a changed source or a different
+ * preprocessing never picks up a stale entry. Once a tensor is cached, later
+ * runs map the cached file and skip parsing and preprocessing.
+ *
+ * @author Dov Neimand
+ */
+public class IdxCache {
+
+    private static final Counter HITS = Metrics.counter("data_cache_hits_total",
+            "Preprocessed tensors read from the cache."),
+            MISSES = Metrics.counter("data_cache_misses_total",
+                    "Preprocessed tensors that had to be built.");
+
+    /**
+     * The default directory for cached tensors.
+     */
+    public static final Path DEFAULT_DIR = Paths.get("MNISTData", "cache");
+
+    private final Path dir;
+    private final IdxFile.Type precision;
+
+    /**
+     * The constructor.
+     *
+     * @param dir The directory the cached tensors are kept in. It is created
+     * if it doesn't exist.
+     * @param precision The type the preprocessed tensors are stored as. This
+     * should be {@link IdxFile.Type#FLOAT} or {@link IdxFile.Type#DOUBLE}.
+     */
+    public IdxCache(Path dir, IdxFile.Type precision) {
+        if (precision != IdxFile.Type.FLOAT && precision != IdxFile.Type.DOUBLE)
+            throw new IllegalArgumentException("Preprocessed tensors must be "
+                    + "stored as floats or doubles, not " + precision);
+        this.dir = dir;
+        this.precision = precision;
+    }
+
+    /**
+     * A cache of doubles in the default directory.
+     */
+    public IdxCache() {
+        this(DEFAULT_DIR, IdxFile.Type.DOUBLE);
+    }
+
+    /**
+     * The CRC32 checksum of a file.
+     *
+     * @param file The file to be checked.
+     * @return The checksum of the file's contents.
+     * @throws IOException If the file can't be read.
+     */
+    public static long checksum(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            crc.update(buf);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * The file the preprocessed tensor would be cached in.
+     *
+     * @param source The raw IDX file.
+     * @param name The name of the preprocessing.
+     * @return The path of the cached tensor.
+     * @throws IOException If the source can't be read.
+     */
+    public Path cachedPath(Path source, String name) throws IOException {
+        return dir.resolve(source.getFileName() + "."
+                + Long.toHexString(checksum(source)) + "."
+                + name + "." + precision.name().toLowerCase() + ".idx");
+    }
+
+    /**
+     * The preprocessed tensor. If it has been cached, the cached file is
+     * mapped. Otherwise the source is parsed, each element is preprocessed,
+     * and the result is written to the cache before it is returned.
+     *
+     * @param source The raw IDX file.
+     * @param name A name for the preprocessing. Different preprocessing must
+     * have different names.
+     * @param preprocess Applied to each element of the source.
+     * @return The preprocessed tensor.
+     * @throws IOException If the source can't be read or the cache can't be
+     * written.
+     */
+    public IdxFile load(Path source, String name, DoubleUnaryOperator preprocess)
+            throws IOException {
+        Path cached = cachedPath(source, name);
+        if (Files.exists(cached)) {
+            if (Metrics.ENABLED) HITS.inc();
+            return IdxFile.read(cached);
+        }
+        if (Metrics.ENABLED) MISSES.inc();
+
+        IdxFile raw = IdxFile.read(source);
+        int[] dims = new int[raw.numDims()];
+        for (int i = 0; i < dims.length; i++) dims[i] = raw.dim(i);
+
+        IdxFile processed = new IdxFile(precision, dims);
+        for (int i = 0; i < raw.size(); i++)
+            processed.put(i, preprocess.applyAsDouble(raw.get(i)));
+
+        Files.createDirectories(dir);
+        processed.write(cached);
+        return processed;
+    }
+
+}
@@ -0,0 +1,295 @@
+package data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A tensor stored in the IDX file format. The format is described at the
+ * bottom of {@link MNISTData}. Files are memory mapped when read, so the
+ * elements are only copied out of the file when they are asked for.
+ *
+ * @author Dov Neimand
+ */
+public class IdxFile {
+
+    /**
+     * The element types the IDX format supports.
+     */
+    public enum Type {
+        /**
+         * 0x08: unsigned byte
+         */
+        UNSIGNED_BYTE(0x08, 1),
+        /**
+         * 0x09: signed byte
+         */
+        SIGNED_BYTE(0x09, 1),
+        /**
+         * 0x0B: short (2 bytes)
+         */
+        SHORT(0x0B, 2),
+        /**
+         * 0x0C: int (4 bytes)
+         */
+        INT(0x0C, 4),
+        /**
+         * 0x0D: float (4 bytes)
+         */
+        FLOAT(0x0D, 4),
+        /**
+         * 0x0E: double (8 bytes)
+         */
+        DOUBLE(0x0E, 8);
+
+        /**
+         * The third byte of the magic number.
+         */
+        public final int code,
+                /**
+                 * The number of bytes in a single element.
+                 */
+                bytes;
+
+        private Type(int code, int bytes) {
+            this.code = code;
+            this.bytes = bytes;
+        }
+
+        /**
+         * The type with the given code.
+         *
+         * @param code The third byte of an IDX magic number.
+         * @return The type with the given code.
+         */
+        public static Type of(int code) {
+            for (Type type : values())
+                if (type.code == code) return type;
+            throw new IllegalArgumentException("Unknown IDX type code 0x"
+                    + Integer.toHexString(code));
+        }
+
+        /**
+         * Reads the element at the given index of the buffer.
+         *
+         * @param buf The data, in big endian order.
+         * @param i The index of the element, not the byte.
+         * @return The element, as a double.
+         */
+        public double get(ByteBuffer buf, int i) {
+            switch (this) {
+                case UNSIGNED_BYTE: return buf.get(i) & 0xFF;
+                case SIGNED_BYTE: return buf.get(i);
+                case SHORT: return buf.getShort(i * 2);
+                case INT: return buf.getInt(i * 4);
+                case FLOAT: return buf.getFloat(i * 4);
+                default: return buf.getDouble(i * 8);
+            }
+        }
+
+        /**
+         * Writes an element at the given index of the buffer. Integer types
+         * are rounded.
+         *
+         * @param buf The data, in big endian order.
+         * @param i The index of the element, not the byte.
+         * @param val The value to be written.
+         */
+        public void put(ByteBuffer buf, int i, double val) {
+            switch (this) {
+                case UNSIGNED_BYTE:
+                case SIGNED_BYTE: buf.put(i, (byte) Math.round(val)); break;
+                case SHORT: buf.putShort(i * 2, (short) Math.round(val)); break;
+                case INT: buf.putInt(i * 4, (int) Math.round(val)); break;
+                case FLOAT: buf.putFloat(i * 4, (float) val); break;
+                default: buf.putDouble(i * 8, val);
+            }
+        }
+    }
+
+    /**
+     * The type of each element.
+     */
+    public final Type type;
+    private final int[] dims;
+    private final ByteBuffer data;
+
+    /**
+     * A tensor held in the proffered buffer.
+     *
+     * @param type The type of each element.
+     * @param data The elements, C ordered. The buffer's position should be at
+     * the first element.
+     * @param dims The size of each dimension.
+     */
+    public IdxFile(Type type, ByteBuffer data, int... dims) {
+        this.type = type;
+        this.dims = dims.clone();
+        this.data = data.slice().order(ByteOrder.BIG_ENDIAN);
+        if (this.data.capacity() < (long) size() * type.bytes)
+            throw new IllegalArgumentException("The buffer holds "
+                    + this.data.capacity() + " bytes but the dimensions "
+                    + Arrays.toString(dims) + " call for "
+                    + (long) size() * type.bytes);
+    }
+
+    /**
+     * An empty tensor.
+     *
+     * @param type The type of each element.
+     * @param dims The size of each dimension.
+     */
+    public IdxFile(Type type, int... dims) {
+        this(type, ByteBuffer.allocate(Math.multiplyExact(
+                Arrays.stream(dims).reduce(1, Math::multiplyExact), type.bytes)),
+                dims);
+    }
+
+    /**
+     * Memory maps an IDX file.
+     *
+     * @param file The file to be read.
+     * @return The tensor in the file.
+     * @throws IOException If the file can't be read or is not an IDX file.
+     */
+    public static IdxFile read(Path file) throws IOException {
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            if (buf.get() != 0 || buf.get() != 0)
+                throw new IOException(file + " is not an IDX file.");
+            Type type = Type.of(buf.get() & 0xFF);
+            int[] dims = new int[buf.get() & 0xFF];
+            for (int i = 0; i < dims.length; i++) dims[i] = buf.getInt();
+            return new IdxFile(type, buf, dims);
+        }
+    }
+
+    /**
+     * Writes this tensor to a file. The file is first written to a temporary
+     * file beside it and then moved into place, so a reader never sees a
+     * partial file.
+     *
+     * @param file The destination.
+     * @throws IOException If the file can't be written.
+     */
+    public void write(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4 + 4 * dims.length);
+        header.put((byte) 0).put((byte) 0).put((byte) type.code).put((byte) dims.length);
+        for (int dim : dims) header.putInt(dim);
+        header.flip();
+
+        ByteBuffer body = data.duplicate();
+        body.position(0).limit(size() * type.bytes);
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) fc.write(header);
+            while (body.hasRemaining()) fc.write(body);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * The number of dimensions.
+     *
+     * @return The number of dimensions.
+     */
+    public int numDims() {
+        return dims.length;
+    }
+
+    /**
+     * The size of the given dimension.
+     *
+     * @param i The index of the dimension.
+     * @return The size of the given dimension.
+     */
+    public int dim(int i) {
+        return dims[i];
+    }
+
+    /**
+     * The total number of elements.
+     *
+     * @return The total number of elements.
+     */
+    public final int size() {
+        int size = 1;
+        for (int dim : dims) size = Math.multiplyExact(size, dim);
+        return size;
+    }
+
+    /**
+     * The number of elements in each entry of the first dimension, for
+     * example the number of pixels in an image.
+     *
+     * @return The product of all the dimensions but the first.
+     */
+    public int entrySize() {
+        return dims.length == 0 ? 0 : size() / dims[0];
+    }
+
+    /**
+     * The element at the given index, where the index of the last dimension
+     * changes the fastest.
+     *
+     * @param i The index.
+     * @return The element at the index.
+     */
+    public double get(int i) {
+        return type.get(data, i);
+    }
+
+    /**
+     * Sets the element at the given index.
+     *
+     * @param i The index.
+     * @param val The new value.
+     */
+    public void put(int i, double val) {
+        type.put(data, i, val);
+    }
+
+    /**
+     * Copies a run of elements into an array.
+     *
+     * @param from The index of the first element to be copied.
+     * @param to The array the elements are copied into. Its length is the
+     * number of elements copied.
+     * @return to.
+     */
+    public double[] get(int from, double[] to) {
+        if (type == Type.DOUBLE) {
+            ByteBuffer src = data.duplicate().order(data.order());
+            src.position(from * Double.BYTES);
+            src.asDoubleBuffer().get(to);
+        } else
+            for (int i = 0; i < to.length; i++) to[i] = get(from + i);
+        return to;
+    }
+
+    /**
+     * The entry of the first dimension at the given index.
+     *
+     * @param i The index in the first dimension.
+     * @return A new array with the elements of that entry.
+     */
+    public double[] entry(int i) {
+        int n = entrySize();
+        return get(i * n, new double[n]);
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + Arrays.toString(dims);
+    }
+
+}
@@ -1,11 +1,16 @@
 package data;
 
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.Metrics;
 
 /**
  *
@@ -32,6 +37,11 @@ public class MNISTData implements Iterator<MNISTDatum>, ClassifiedData {
 
     private DataInputStream labelReader, dataReader;
 
+    private static final Histogram LOAD = Metrics.timer("data_load_seconds",
+            "Time to load an MNIST set.");
+    private static final Counter LOADED = Metrics.counter("data_samples_loaded_total",
+            "MNIST images loaded.");
+
     private int rows, cols, size, labelSize;
     /**
      * The data.
@@ -78,12 +88,50 @@ public class MNISTData implements Iterator<MNISTDatum>, ClassifiedData {
      * learning.
      */
     public MNISTData(boolean bigSet) {
+        this(bigSet, false);
+    }
+
+    /**
+     * Loads the data. Raw pixels are mapped straight from the image file.
+     * Normalized pixels are loaded through the {@link IdxCache}, so only the
+     * first run preprocesses the image file.
+     *
+     * @param bigSet True to use the larger of the two data sets, false for the
+     * smaller. The larger should be used for training and the smaller for
+     * learning.
+     * @param normalize True to scale the pixels into [0, 1], false to keep
+     * them in [0, 255].
+     */
+    public MNISTData(boolean bigSet, boolean normalize) {
         this.bigSet = bigSet;
-        resetFileReader();
+        long start = System.nanoTime();
+        try {
+            Path imageFile = Paths.get(bigSet ? dataFilePath : dataTestFilePath);
+            IdxFile images = normalize
+                    ? new IdxCache().load(imageFile, "normalized", pixel -> pixel / 255)
+                    : IdxFile.read(imageFile);
+            IdxFile labels = IdxFile.read(Paths.get(bigSet ? labelFilePath : labelTestFilePath));
+
+            size = images.dim(0);
+            rows = images.dim(1);
+            cols = images.dim(2);
+            labelSize = labels.dim(0);
+            if (labelSize != size)
+                throw new IOException("There are " + size + " images but "
+                        + labelSize + " labels.");
 
-        data = new Datum[size];
-        for (int i = 0; i < data.length; i++)
-            data[i] = next();
+            data = new Datum[size];
+            for (int i = 0; i < data.length; i++)
+                data[i] = new MNISTDatum(images.entry(i), (int) labels.get(i));
+            index = size;
+            if (Metrics.ENABLED) {
+                LOAD.recordSince(start);
+                LOADED.add(size);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(MNISTData.class.getName()).log(Level.SEVERE, null, ex);
+            throw new UncheckedIOException(ex);
+        }
     }
 
     @Override
@@ -170,6 +218,7 @@ public class MNISTData implements Iterator<MNISTDatum>, ClassifiedData {
      * Closes the various streams used by this class.
      */
     public void close() {
+        if (dataReader == null) return;
         try {
             labelReader.close();
             dataReader.close();
@@ -0,0 +1,185 @@
+package inference;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import data.Datum;
+import data.DiskSampleDataSet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import neuralnetwork.Architecture;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.ActivationFunctions.Sigmoid;
+import org.jblas.DoubleMatrix;
+
+/**
+ * A local HTTP server that runs requests through a neural network in
+ * batches.
+ * <p>
+ * {@code POST /predict} takes a body of comma separated values, a single
+ * datum, and responds with the index of the largest output on the first line
+ * and the comma separated outputs on the second. {@code GET /stats} responds
+ * with latency and throughput. A request that isn't run within
+ * {@link #TIMEOUT_MILLIS}, or that the closing batcher cancels, is answered
+ * with 503.
+ *
+ * @author Dov Neimand
+ */
+public class InferenceServer implements AutoCloseable {
+
+    /**
+     * The longest a request waits for its batch to be run, in milliseconds.
+     */
+    public static final long TIMEOUT_MILLIS = 10_000;
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final MicroBatcher batcher;
+
+    /**
+     * Starts a server on the loop back address.
+     *
+     * @param nn The neural network requests are run through.
+     * @param port The port to listen on, 0 for any free port.
+     * @param maxBatch The largest number of requests in a batch.
+     * @param maxWaitMicros The longest a request waits for its batch to fill,
+     * in microseconds.
+     * @throws IOException If the server can't be started.
+     */
+    public InferenceServer(NeuralNetwork nn, int port, int maxBatch, long maxWaitMicros)
+            throws IOException {
+        batcher = new MicroBatcher(nn, maxBatch, maxWaitMicros);
+        handlers = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(handlers);
+        server.createContext("/predict", this::predict);
+        server.createContext("/stats", exchange -> respond(exchange, 200, batcher.stats().toString()));
+        server.start();
+    }
+
+    /**
+     * The port the server is listening on.
+     *
+     * @return The port the server is listening on.
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Latency and throughput of the requests served so far.
+     *
+     * @return Latency and throughput of the requests served so far.
+     */
+    public LatencyStats stats() {
+        return batcher.stats();
+    }
+
+    private void predict(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "Use POST.");
+            return;
+        }
+        try (InputStream in = exchange.getRequestBody()) {
+            double[] x = Arrays.stream(new String(in.readAllBytes(), StandardCharsets.UTF_8)
+                    .trim().split(","))
+                    .mapToDouble(s -> Double.parseDouble(s.trim()))
+                    .toArray();
+
+            double[] y = batcher.submit(x).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+            respond(exchange, 200, new DoubleMatrix(y).argmax() + "\n"
+                    + Arrays.stream(y).mapToObj(Double::toString)
+                            .collect(Collectors.joining(",")));
+        } catch (IllegalArgumentException ex) {
+            respond(exchange, 400, ex.getMessage());
+        } catch (IllegalStateException ex) {
+            //Includes the CancellationException of a request the closing batcher cancelled.
+            respond(exchange, 503, "The server is shutting down.");
+        } catch (TimeoutException ex) {
+            respond(exchange, 503, "The request timed out.");
+        } catch (ExecutionException ex) {
+            respond(exchange, 500, ex.getCause().toString());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "Interrupted.");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Stops the server and the batcher.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        handlers.shutdown();
+        batcher.close();
+    }
+
+    /**
+     * Starts a server on localhost for a small untrained network, sends it
+     * concurrent requests, and prints the latency and throughput.
+     *
+     * @param args Not used.
+     * @throws IOException If the server can't be started.
+     * @throws InterruptedException If interrupted while waiting for
+     * responses.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        DiskSampleDataSet data = new DiskSampleDataSet(new DiskSampleDataSet.Disk[]{
+            new DiskSampleDataSet.Disk(1000, new DoubleMatrix(new double[]{0, 0}), 1),
+            new DiskSampleDataSet.Disk(1000, new DoubleMatrix(new double[]{0, 2}), 1),
+            new DiskSampleDataSet.Disk(1000, new DoubleMatrix(new double[]{2, 0}), 1)
+        });
+        Architecture arch = new Architecture(new Sigmoid(), data.dim(), 3, 3);
+        NeuralNetwork nn = new NeuralNetwork(DoubleMatrix.randn(arch.numVariables()).data, arch);
+
+        ExecutorService clients = Executors.newFixedThreadPool(32);
+        try (InferenceServer server = new InferenceServer(nn, 0, 32, 500)) {
+            HttpClient client = HttpClient.newHttpClient();
+            URI uri = URI.create("http://localhost:" + server.port() + "/predict");
+
+            for (Datum d : data)
+                clients.execute(() -> {
+                    try {
+                        client.send(HttpRequest.newBuilder(uri)
+                                .POST(HttpRequest.BodyPublishers.ofString(d.get(0) + "," + d.get(1)))
+                                .build(), HttpResponse.BodyHandlers.ofString());
+                    } catch (IOException ex) {
+                        System.err.println(ex);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            clients.shutdown();
+            clients.awaitTermination(1, TimeUnit.MINUTES);
+
+            System.out.println(server.stats());
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+package inference;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the latencies of recent requests and the number of requests served,
+ * from which percentiles and throughput are reported.
+ *
+ * @author Dov Neimand
+ */
+public class LatencyStats {
+
+    private final long[] recent;
+    private long count = 0, batches = 0;
+    private final long start = System.nanoTime();
+
+    /**
+     * The constructor.
+     *
+     * @param window The number of most recent latencies percentiles are
+     * computed from.
+     */
+    public LatencyStats(int window) {
+        recent = new long[window];
+    }
+
+    /**
+     * Records the latency of a request.
+     *
+     * @param nanos How long the request took, in nanoseconds.
+     */
+    public synchronized void record(long nanos) {
+        recent[(int) (count++ % recent.length)] = nanos;
+    }
+
+    /**
+     * Records that a batch was run.
+     */
+    public synchronized void recordBatch() {
+        batches++;
+    }
+
+    /**
+     * A percentile of the recent latencies.
+     *
+     * @param p The percentile, between 0 and 100.
+     * @return The latency, in milliseconds, that p percent of recent requests
+     * were at or below. 0 if there have been no requests.
+     */
+    public double percentile(double p) {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(recent, (int) Math.min(count, recent.length));
+        }
+        if (sorted.length == 0) return 0;
+        Arrays.sort(sorted);
+        int i = (int) Math.ceil(p / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, i)] / 1e6;
+    }
+
+    /**
+     * The number of requests served per second since these statistics were
+     * created.
+     *
+     * @return The number of requests served per second.
+     */
+    public synchronized double throughput() {
+        return count / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * The mean number of requests in each batch.
+     *
+     * @return The mean number of requests in each batch.
+     */
+    public synchronized double meanBatchSize() {
+        return batches == 0 ? 0 : (double) count / batches;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("requests/s %.1f, p50 %.3f ms, p99 %.3f ms, "
+                + "mean batch %.2f",
+                throughput(), percentile(50), percentile(99), meanBatchSize());
+    }
+
+}
@@ -0,0 +1,160 @@
+package inference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import neuralnetwork.NeuralNetwork;
+import org.jblas.DoubleMatrix;
+import profiling.BatchAssemblyEvent;
+
+/**
+ * Coalesces single requests into batches. A batch is run once it holds the
+ * maximum number of requests, or once its first request has waited the
+ * maximum time, whichever comes first. Each batch is a single call to
+ * {@link NeuralNetwork#apply(DoubleMatrix)} with one column per request.
+ *
+ * @author Dov Neimand
+ */
+public class MicroBatcher implements AutoCloseable {
+
+    private static class Request {
+
+        final double[] x;
+        final long arrived = System.nanoTime();
+        final CompletableFuture<double[]> result = new CompletableFuture<>();
+
+        Request(double[] x) {
+            this.x = x;
+        }
+    }
+
+    private final NeuralNetwork nn;
+    private final int maxBatch;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread batcher;
+    private final LatencyStats stats = new LatencyStats(1 << 14);
+    private volatile boolean running = true;
+
+    /**
+     * The constructor. The batching thread is started immediately.
+     *
+     * @param nn The neural network requests are run through.
+     * @param maxBatch The largest number of requests in a batch.
+     * @param maxWaitMicros The longest a request waits for its batch to fill,
+     * in microseconds.
+     */
+    public MicroBatcher(NeuralNetwork nn, int maxBatch, long maxWaitMicros) {
+        if (maxBatch < 1)
+            throw new IllegalArgumentException("A batch must hold at least one"
+                    + " request.");
+        this.nn = nn;
+        this.maxBatch = maxBatch;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        batcher = new Thread(this::run, "micro batcher");
+        batcher.setDaemon(true);
+        batcher.start();
+    }
+
+    /**
+     * Queues a datum to be run through the network.
+     *
+     * @param x The datum.
+     * @return The output of the network, once the datum's batch has been run.
+     * It is cancelled if the batcher is closed first.
+     * @throws IllegalStateException If the batcher is closed.
+     */
+    public CompletableFuture<double[]> submit(double[] x) {
+        if (x.length != nn.architecture.inputDim())
+            throw new IllegalArgumentException("The datum has dimension "
+                    + x.length + " but the network takes "
+                    + nn.architecture.inputDim());
+        if (!running) throw new IllegalStateException("The batcher is closed.");
+        Request r = new Request(x);
+        queue.add(r);
+        //The batcher may have closed, and cancelled what was queued, since running was read.
+        if (!running && queue.remove(r)) r.result.cancel(false);
+        return r.result;
+    }
+
+    /**
+     * Latency and throughput of the requests served so far.
+     *
+     * @return Latency and throughput of the requests served so far.
+     */
+    public LatencyStats stats() {
+        return stats;
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>(maxBatch);
+        while (running) {
+            try {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+
+                long deadline = first.arrived + maxWaitNanos;
+                while (batch.size() < maxBatch) {
+                    if (queue.drainTo(batch, maxBatch - batch.size()) > 0) continue;
+                    long wait = deadline - System.nanoTime();
+                    if (wait <= 0) break;
+                    Request next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+
+                runBatch(batch);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                running = false;
+                batch.forEach(r -> r.result.cancel(false));
+            } catch (RuntimeException ex) {
+                batch.forEach(r -> r.result.completeExceptionally(ex));
+            }
+            batch.clear();
+        }
+        queue.forEach(r -> r.result.cancel(false));
+    }
+
+    private void runBatch(List<Request> batch) {
+        int dim = nn.architecture.inputDim();
+        BatchAssemblyEvent event = new BatchAssemblyEvent();
+        event.begin();
+        DoubleMatrix x = new DoubleMatrix(dim, batch.size());
+        for (int i = 0; i < batch.size(); i++)
+            System.arraycopy(batch.get(i).x, 0, x.data, i * dim, dim);
+        if (event.shouldCommit()) {
+            event.source = "inference";
+            event.batch = batch.size();
+            event.dim = dim;
+            event.commit();
+        }
+
+        DoubleMatrix y = nn.apply(x);
+
+        stats.recordBatch();
+        long now = System.nanoTime();
+        for (int i = 0; i < batch.size(); i++) {
+            Request r = batch.get(i);
+            double[] out = new double[y.rows];
+            System.arraycopy(y.data, i * y.rows, out, 0, y.rows);
+            stats.record(now - r.arrived);
+            r.result.complete(out);
+        }
+    }
+
+    /**
+     * Stops the batching thread. Requests that have not been run are
+     * cancelled.
+     */
+    @Override
+    public void close() {
+        running = false;
+        batcher.interrupt();
+    }
+
+}
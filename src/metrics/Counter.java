@@ -0,0 +1,54 @@
+package metrics;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up.
+ *
+ * @author Dov Neimand
+ */
+public class Counter extends Metric {
+
+    private final LongAdder count = new LongAdder();
+
+    Counter(String name, String help) {
+        super(name, help);
+    }
+
+    /**
+     * Adds one to the count.
+     */
+    public void inc() {
+        count.increment();
+    }
+
+    /**
+     * Adds to the count.
+     *
+     * @param n The amount added, not negative.
+     */
+    public void add(long n) {
+        count.add(n);
+    }
+
+    /**
+     * The count.
+     *
+     * @return The count.
+     */
+    public long get() {
+        return count.sum();
+    }
+
+    @Override
+    public String type() {
+        return "counter";
+    }
+
+    @Override
+    public Map<String, Double> values() {
+        return Map.of(name, (double) get());
+    }
+
+}
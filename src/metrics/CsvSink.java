@@ -0,0 +1,62 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Appends a row of metric values to a csv file at each report. The columns
+ * are the values present at the first report; metrics registered later are
+ * not written.
+ *
+ * @author Dov Neimand
+ */
+public class CsvSink implements Sink {
+
+    private final PrintWriter out;
+    private List<String> columns;
+    private final long start = System.currentTimeMillis();
+
+    /**
+     * @param file The file written to. It is replaced if it exists.
+     * @throws IOException If the file can't be opened.
+     */
+    public CsvSink(Path file) throws IOException {
+        out = new PrintWriter(Files.newBufferedWriter(file));
+    }
+
+    @Override
+    public void report(Collection<Metric> metrics, double seconds) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        metrics.forEach(m -> values.putAll(m.values()));
+
+        if (columns == null) {
+            columns = new ArrayList<>(values.keySet());
+            out.println("millis," + String.join(",", columns));
+        }
+
+        StringBuilder row = new StringBuilder().append(System.currentTimeMillis() - start);
+        for (String column : columns) {
+            Double v = values.get(column);
+            row.append(',');
+            if (v != null && !v.isNaN()) row.append(String.format(Locale.ROOT, "%.6g", v));
+        }
+        out.println(row);
+        out.flush();
+        if (out.checkError()) throw new UncheckedIOException(new IOException("Could not write metrics."));
+    }
+
+    @Override
+    public void close() {
+        out.close();
+    }
+
+}
@@ -0,0 +1,50 @@
+package metrics;
+
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A value that may go up or down. It is either set by the code being
+ * measured or read from a supplier when it is reported.
+ *
+ * @author Dov Neimand
+ */
+public class Gauge extends Metric {
+
+    private volatile double value;
+    private final DoubleSupplier supplier;
+
+    Gauge(String name, String help, DoubleSupplier supplier) {
+        super(name, help);
+        this.supplier = supplier;
+    }
+
+    /**
+     * Sets the value. This has no effect on a gauge with a supplier.
+     *
+     * @param value The new value.
+     */
+    public void set(double value) {
+        this.value = value;
+    }
+
+    /**
+     * The value.
+     *
+     * @return The value.
+     */
+    public double get() {
+        return supplier == null ? value : supplier.getAsDouble();
+    }
+
+    @Override
+    public String type() {
+        return "gauge";
+    }
+
+    @Override
+    public Map<String, Double> values() {
+        return Map.of(name, get());
+    }
+
+}
@@ -0,0 +1,156 @@
+package metrics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts observations in buckets with fixed upper bounds. Quantiles are
+ * estimated from the buckets, so they are only as precise as the bounds.
+ *
+ * @author Dov Neimand
+ */
+public class Histogram extends Metric {
+
+    /**
+     * The upper bounds of the buckets, increasing. There is one more bucket,
+     * for everything above the last bound.
+     */
+    private final double[] bounds;
+    private final LongAdder[] buckets;
+    private final DoubleAdder sum = new DoubleAdder();
+
+    Histogram(String name, String help, double[] bounds) {
+        super(name, help);
+        this.bounds = bounds.clone();
+        buckets = new LongAdder[bounds.length + 1];
+        Arrays.setAll(buckets, i -> new LongAdder());
+    }
+
+    /**
+     * Bounds that grow geometrically.
+     *
+     * @param first The first bound.
+     * @param factor The ratio of each bound to the one before it.
+     * @param count The number of bounds.
+     * @return The bounds.
+     */
+    public static double[] exponential(double first, double factor, int count) {
+        double[] bounds = new double[count];
+        bounds[0] = first;
+        for (int i = 1; i < count; i++) bounds[i] = bounds[i - 1] * factor;
+        return bounds;
+    }
+
+    /**
+     * Bounds 1, 2, ..., count.
+     *
+     * @param count The number of bounds.
+     * @return The bounds.
+     */
+    public static double[] counts(int count) {
+        double[] bounds = new double[count];
+        Arrays.setAll(bounds, i -> i + 1);
+        return bounds;
+    }
+
+    /**
+     * Records an observation.
+     *
+     * @param x The observed value.
+     */
+    public void record(double x) {
+        int i = Arrays.binarySearch(bounds, x);
+        buckets[i >= 0 ? i : -i - 1].increment();
+        sum.add(x);
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param startNanos The start of the duration, from
+     * {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) * 1e-9);
+    }
+
+    /**
+     * The upper bounds of the buckets.
+     *
+     * @return A copy of the upper bounds of the buckets.
+     */
+    public double[] bounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * The number of observations in each bucket, the last being those above
+     * every bound.
+     *
+     * @return The number of observations in each bucket.
+     */
+    public long[] bucketCounts() {
+        return Arrays.stream(buckets).mapToLong(LongAdder::sum).toArray();
+    }
+
+    /**
+     * The number of observations.
+     *
+     * @return The number of observations.
+     */
+    public long count() {
+        return Arrays.stream(buckets).mapToLong(LongAdder::sum).sum();
+    }
+
+    /**
+     * The sum of the observations.
+     *
+     * @return The sum of the observations.
+     */
+    public double sum() {
+        return sum.sum();
+    }
+
+    /**
+     * Estimates a quantile by interpolating within its bucket.
+     *
+     * @param q The quantile, between 0 and 1.
+     * @return An estimate of the quantile, or NaN if nothing has been
+     * recorded.
+     */
+    public double quantile(double q) {
+        long[] counts = bucketCounts();
+        long total = Arrays.stream(counts).sum();
+        if (total == 0) return Double.NaN;
+        double rank = q * total;
+        long below = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (below + counts[i] >= rank && counts[i] > 0) {
+                if (i == bounds.length) return bounds[bounds.length - 1];
+                double low = i == 0 ? Math.min(0, bounds[0]) : bounds[i - 1];
+                return low + (bounds[i] - low) * (rank - below) / counts[i];
+            }
+            below += counts[i];
+        }
+        return bounds[bounds.length - 1];
+    }
+
+    @Override
+    public String type() {
+        return "histogram";
+    }
+
+    @Override
+    public Map<String, Double> values() {
+        Map<String, Double> values = new LinkedHashMap<>();
+        values.put(name + "_count", (double) count());
+        values.put(name + "_sum", sum());
+        values.put(name + "_p50", quantile(0.5));
+        values.put(name + "_p99", quantile(0.99));
+        return values;
+    }
+
+}
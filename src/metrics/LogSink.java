@@ -0,0 +1,45 @@
+package metrics;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logs the metrics as a single line. Counters are shown with their rate per
+ * second since the previous report, so the samples processed per second can
+ * be read off samples_total.
+ *
+ * @author Dov Neimand
+ */
+public class LogSink implements Sink {
+
+    private static final Logger LOG = Logger.getLogger(LogSink.class.getName());
+
+    private final Map<String, Long> previous = new HashMap<>();
+
+    @Override
+    public void report(Collection<Metric> metrics, double seconds) {
+        StringBuilder line = new StringBuilder();
+        for (Metric m : metrics) {
+            if (m instanceof Histogram && ((Histogram) m).count() == 0) continue;
+            if (line.length() > 0) line.append(", ");
+            if (m instanceof Counter) {
+                long count = ((Counter) m).get();
+                long before = previous.getOrDefault(m.name, 0L);
+                previous.put(m.name, count);
+                line.append(String.format(Locale.ROOT, "%s %d (%.1f/s)", m.name,
+                        count, (count - before) / seconds));
+            } else if (m instanceof Histogram) {
+                Histogram h = (Histogram) m;
+                line.append(String.format(Locale.ROOT, "%s n=%d mean=%.4g p50=%.4g p99=%.4g",
+                        m.name, h.count(), h.sum() / h.count(), h.quantile(0.5), h.quantile(0.99)));
+            } else
+                line.append(String.format(Locale.ROOT, "%s %.4g", m.name, ((Gauge) m).get()));
+        }
+        LOG.log(Level.INFO, line.toString());
+    }
+
+}
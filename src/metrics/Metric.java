@@ -0,0 +1,49 @@
+package metrics;
+
+import java.util.Map;
+
+/**
+ * A named measurement held by the {@link Metrics} registry. Metrics are
+ * updated without locks by the threads doing the work and may be read at
+ * any time from any other thread.
+ *
+ * @author Dov Neimand
+ */
+public abstract class Metric {
+
+    /**
+     * The name, lower case words separated by underscores, with a unit
+     * suffix such as _seconds or _total where there is one.
+     */
+    public final String name;
+    /**
+     * A description of what is measured.
+     */
+    public final String help;
+
+    /**
+     * @param name The name of the metric.
+     * @param help A description of what is measured.
+     */
+    protected Metric(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    /**
+     * The Prometheus type of this metric.
+     *
+     * @return counter, gauge or histogram.
+     */
+    public abstract String type();
+
+    /**
+     * The current values of this metric, keyed by name. A counter or gauge
+     * has a single value under its own name, a histogram has its count, sum
+     * and a few quantiles.
+     *
+     * @return The current values of this metric.
+     */
+    public abstract Map<String, Double> values();
+
+}
@@ -0,0 +1,130 @@
+package metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+/**
+ * The registry of training metrics. Metrics are created once, usually in a
+ * static field of the class that updates them, and updated only when
+ * {@link #ENABLED} is true, so that with metrics off an update costs a check
+ * of a constant the JIT removes.
+ *
+ * <pre>
+ * private static final Counter STEPS = Metrics.counter("steps_total", "Steps taken.");
+ * ...
+ * if (Metrics.ENABLED) STEPS.inc();
+ * </pre>
+ *
+ * Metrics are turned on with -Dneuralnetwork.metrics=true. They can then be
+ * read at any time, from any thread, with {@link #all()}, or reported
+ * periodically by a {@link Reporter} or served by a {@link PrometheusServer}.
+ *
+ * @author Dov Neimand
+ */
+public class Metrics {
+
+    /**
+     * True if metrics are recorded.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("neuralnetwork.metrics");
+
+    private static final Map<String, Metric> REGISTRY = new ConcurrentHashMap<>();
+
+    static {
+        gauge("jvm_gc_seconds", "Time spent in garbage collection.", () -> gc(GarbageCollectorMXBean::getCollectionTime) / 1000);
+        gauge("jvm_gc_collections", "Garbage collections.", () -> gc(GarbageCollectorMXBean::getCollectionCount));
+        gauge("jvm_heap_used_bytes", "Heap in use.", () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    }
+
+    private static double gc(Function<GarbageCollectorMXBean, Long> stat) {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(gc -> Math.max(0, stat.apply(gc))).sum();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Metric> T register(String name, Function<String, T> make, Class<T> type) {
+        Metric m = REGISTRY.computeIfAbsent(name, make::apply);
+        if (!type.isInstance(m))
+            throw new IllegalArgumentException(name + " is already a " + m.type());
+        return (T) m;
+    }
+
+    /**
+     * The counter with the given name, created if there isn't one.
+     *
+     * @param name The name of the counter.
+     * @param help What is counted.
+     * @return The counter.
+     */
+    public static Counter counter(String name, String help) {
+        return register(name, n -> new Counter(n, help), Counter.class);
+    }
+
+    /**
+     * The gauge with the given name, created if there isn't one. Its value
+     * is set by the code being measured.
+     *
+     * @param name The name of the gauge.
+     * @param help What is measured.
+     * @return The gauge.
+     */
+    public static Gauge gauge(String name, String help) {
+        return register(name, n -> new Gauge(n, help, null), Gauge.class);
+    }
+
+    /**
+     * The gauge with the given name, created if there isn't one. Its value
+     * is read from the supplier whenever it is reported.
+     *
+     * @param name The name of the gauge.
+     * @param help What is measured.
+     * @param supplier The value.
+     * @return The gauge.
+     */
+    public static Gauge gauge(String name, String help, DoubleSupplier supplier) {
+        return register(name, n -> new Gauge(n, help, supplier), Gauge.class);
+    }
+
+    /**
+     * The histogram with the given name, created if there isn't one.
+     *
+     * @param name The name of the histogram.
+     * @param help What is measured.
+     * @param bounds The upper bounds of the buckets, increasing.
+     * @return The histogram.
+     */
+    public static Histogram histogram(String name, String help, double... bounds) {
+        return register(name, n -> new Histogram(n, help, bounds), Histogram.class);
+    }
+
+    /**
+     * A histogram of durations in seconds, with buckets from a microsecond
+     * to about a minute.
+     *
+     * @param name The name of the histogram, ending in _seconds.
+     * @param help What is timed.
+     * @return The histogram.
+     */
+    public static Histogram timer(String name, String help) {
+        return histogram(name, help, Histogram.exponential(1e-6, 2, 26));
+    }
+
+    /**
+     * Every metric, sorted by name.
+     *
+     * @return Every metric.
+     */
+    public static Collection<Metric> all() {
+        ArrayList<Metric> all = new ArrayList<>(REGISTRY.values());
+        all.sort((a, b) -> a.name.compareTo(b.name));
+        return Collections.unmodifiableList(all);
+    }
+
+}
@@ -0,0 +1,94 @@
+package metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Serves the metrics in the Prometheus text exposition format at /metrics on
+ * the loopback address. Values are read when the page is requested.
+ *
+ * @author Dov Neimand
+ */
+public class PrometheusServer implements AutoCloseable {
+
+    private final HttpServer server;
+
+    /**
+     * Starts serving.
+     *
+     * @param port The port, or 0 for any free port.
+     * @throws IOException If the port can't be bound.
+     */
+    public PrometheusServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = text(Metrics.all()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * The port being served.
+     *
+     * @return The port being served.
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    private static String number(double d) {
+        if (Double.isNaN(d)) return "NaN";
+        if (Double.isInfinite(d)) return d > 0 ? "+Inf" : "-Inf";
+        return String.format(Locale.ROOT, "%s", d);
+    }
+
+    /**
+     * The metrics in the Prometheus text format.
+     *
+     * @param metrics The metrics.
+     * @return The metrics in the Prometheus text format.
+     */
+    public static String text(Collection<Metric> metrics) {
+        StringBuilder sb = new StringBuilder();
+        for (Metric m : metrics) {
+            sb.append("# HELP ").append(m.name).append(' ').append(m.help).append('\n');
+            sb.append("# TYPE ").append(m.name).append(' ').append(m.type()).append('\n');
+            if (m instanceof Histogram) {
+                Histogram h = (Histogram) m;
+                double[] bounds = h.bounds();
+                long[] counts = h.bucketCounts();
+                long cumulative = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    cumulative += counts[i];
+                    sb.append(m.name).append("_bucket{le=\"")
+                            .append(i < bounds.length ? number(bounds[i]) : "+Inf")
+                            .append("\"} ").append(cumulative).append('\n');
+                }
+                sb.append(m.name).append("_sum ").append(number(h.sum())).append('\n');
+                sb.append(m.name).append("_count ").append(cumulative).append('\n');
+            } else
+                sb.append(m.name).append(' ').append(number(m.values().get(m.name))).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stops serving.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+}
@@ -0,0 +1,52 @@
+package metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the metrics to sinks periodically from a daemon thread.
+ *
+ * @author Dov Neimand
+ */
+public class Reporter implements AutoCloseable {
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "metrics reporter");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Sink[] sinks;
+    private long last = System.nanoTime();
+
+    /**
+     * Starts reporting.
+     *
+     * @param period The time between reports.
+     * @param unit The unit of the period.
+     * @param sinks Where the metrics are sent.
+     */
+    public Reporter(long period, TimeUnit unit, Sink... sinks) {
+        this.sinks = sinks.clone();
+        timer.scheduleAtFixedRate(this::report, period, period, unit);
+    }
+
+    private synchronized void report() {
+        long now = System.nanoTime();
+        double seconds = (now - last) * 1e-9;
+        last = now;
+        Arrays.stream(sinks).forEach(sink -> sink.report(Metrics.all(), seconds));
+    }
+
+    /**
+     * Stops reporting after a final report.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        report();
+        Arrays.stream(sinks).forEach(Sink::close);
+    }
+
+}
@@ -0,0 +1,26 @@
+package metrics;
+
+import java.util.Collection;
+
+/**
+ * Somewhere a {@link Reporter} sends metrics.
+ *
+ * @author Dov Neimand
+ */
+public interface Sink {
+
+    /**
+     * Records the current values of the metrics.
+     *
+     * @param metrics The metrics.
+     * @param seconds The seconds since the previous report, or since the
+     * reporter started.
+     */
+    public void report(Collection<Metric> metrics, double seconds);
+
+    /**
+     * Called once after the last report.
+     */
+    public default void close() {
+    }
+}
@@ -18,6 +18,31 @@ public interface ActivationFunction extends DoubleUnaryOperator, Serializable{
      */
     public double ddt(double x);
 
+    /**
+     * A name for this function that {@link #forName(java.lang.String)} can
+     * look up. It is used when a network is written to a file.
+     *
+     * @return The name of this function.
+     */
+    public default String name() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * The activation function with the given name.
+     *
+     * @param name The name of an activation function, as returned by
+     * {@link #name()}.
+     * @return A new instance of the named activation function.
+     */
+    public static ActivationFunction forName(String name) {
+        switch (name) {
+            case "Sigmoid": return new Sigmoid();
+            default: throw new IllegalArgumentException("Unknown activation "
+                        + "function " + name);
+        }
+    }
+
     /**
      * The derivative of this method applied row wise to a vector.
      *
@@ -171,4 +196,35 @@ public interface ActivationFunction extends DoubleUnaryOperator, Serializable{
     public default AtVector ati(DoubleMatrix x) {
         return new AtVector(apply(x), ddt(x));
     }
+
+    /**
+     * This function applied in place to a range of an array.
+     *
+     * @param x The array. The values in the range are replaced by this
+     * function of them.
+     * @param from The first index of the range.
+     * @param to The index after the last index of the range.
+     */
+    public default void applyi(double[] x, int from, int to) {
+        for (int i = from; i < to; i++) x[i] = applyAsDouble(x[i]);
+    }
+
+    /**
+     * This function applied in place to a range of an array, with its
+     * derivative written to the same range of another array. This method is
+     * provided to allow an implementation that avoids redundant calculations
+     * between the derivative and the value.
+     *
+     * @param x The array. The values in the range are replaced by this
+     * function of them.
+     * @param from The first index of the range.
+     * @param to The index after the last index of the range.
+     * @param ddt The derivatives are written here.
+     */
+    public default void ati(double[] x, int from, int to, double[] ddt) {
+        for (int i = from; i < to; i++) {
+            ddt[i] = ddt(x[i]);
+            x[i] = applyAsDouble(x[i]);
+        }
+    }
 }
@@ -29,6 +29,15 @@ public class Sigmoid implements ActivationFunction{
         Arrays.setAll(ddt, i -> sig[i] * (1 - sig[i]));
         return new AtVector(x, new DoubleMatrix(ddt));
     }
+
+    @Override
+    public void ati(double[] x, int from, int to, double[] ddt) {
+        for (int i = from; i < to; i++) {
+            double sig = applyAsDouble(x[i]);
+            x[i] = sig;
+            ddt[i] = sig * (1 - sig);
+        }
+    }
     
     
 
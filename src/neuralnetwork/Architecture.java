@@ -16,6 +16,10 @@ public class Architecture {
 
     private final LayerArchitecture[] dims;
     private final ActivationFunction actFunc;
+    /**
+     * Whether the weights and biases of each layer are changed by training.
+     */
+    private final boolean[] trainable;
 
     /**
      * The constructor.
@@ -28,18 +32,38 @@ public class Architecture {
      * layer does not equal outputDim.
      */
     public Architecture(ActivationFunction af, int dataDim, int... numNodesPerLayer) {
+        this(af, dataDim, new int[numNodesPerLayer.length], numNodesPerLayer);
+    }
+
+    /**
+     * The constructor.
+     *
+     * @param af The activation function for this architecture.
+     * @param dataDim The dimension / size of each data vector that will be fed
+     * into the neural network.
+     * @param ranks The rank of each layer's factored weights matrix, 0 for
+     * layers whose weights are not factored. See
+     * {@link LayerArchitecture#rank}.
+     * @param numNodesPerLayer The number of nodes in each layer.
+     */
+    public Architecture(ActivationFunction af, int dataDim, int[] ranks, int[] numNodesPerLayer) {
         this.actFunc = af;
+        trainable = new boolean[numNodesPerLayer.length];
+        Arrays.fill(trainable, true);
 
         if (numNodesPerLayer.length < 1)
             throw new IllegalArgumentException("The network must have at least"
                     + "one layer.");
+        if (ranks.length != numNodesPerLayer.length)
+            throw new IllegalArgumentException("There are " + ranks.length
+                    + " ranks for " + numNodesPerLayer.length + " layers.");
 
         dims = new LayerArchitecture[numNodesPerLayer.length];
 
-        dims[0] = new LayerArchitecture(numNodesPerLayer[0], dataDim, 0, this);
+        dims[0] = new LayerArchitecture(numNodesPerLayer[0], dataDim, ranks[0], 0, this);
         for (int i = 1, startInd = dims[0].length(); i < numNodesPerLayer.length; i++, startInd += dims[i
                 - 1].length())
-            dims[i] = new LayerArchitecture(numNodesPerLayer[i], dims[i - 1].rows, startInd, this);
+            dims[i] = new LayerArchitecture(numNodesPerLayer[i], dims[i - 1].rows, ranks[i], startInd, this);
 
         if (Arrays.stream(numNodesPerLayer)
                 .anyMatch(i -> i > dataDim && i > outputDim()
@@ -49,6 +73,115 @@ public class Architecture {
                     + "between the dataDim and outputDim.");
     }
 
+    /**
+     * This architecture with the weights of one layer factored into two
+     * thinner matrices. See {@link LayerArchitecture#rank}.
+     *
+     * @param layer The index of the layer to be factored.
+     * @param rank The rank of the factorization, or 0 for no factorization.
+     * @return A new architecture, the same as this one except for the rank of
+     * the given layer.
+     */
+    public Architecture withRank(int layer, int rank) {
+        int[] ranks = new int[dims.length], nodes = new int[dims.length];
+        for (int i = 0; i < dims.length; i++) {
+            ranks[i] = dims[i].rank;
+            nodes[i] = dims[i].rows;
+        }
+        ranks[layer] = rank;
+        Architecture arch = new Architecture(actFunc, inputDim(), ranks, nodes);
+        System.arraycopy(trainable, 0, arch.trainable, 0, trainable.length);
+        return arch;
+    }
+
+    /**
+     * This architecture with one layer frozen or thawed. The weights and
+     * biases of a frozen layer are left as they are by training: their
+     * partial derivatives are 0 and aren't computed, backpropagation stops
+     * at the lowest trainable layer, and optimizers step only over the
+     * trainable layers' variables. See {@link #trainableRanges()}.
+     *
+     * @param layer The index of the layer.
+     * @param trainable True for the layer to be trained, false to freeze it.
+     * @return A new architecture, the same as this one except for whether
+     * the given layer is trained.
+     */
+    public Architecture withTrainable(int layer, boolean trainable) {
+        Architecture arch = withRank(layer, dims[layer].rank);
+        arch.trainable[layer] = trainable;
+        return arch;
+    }
+
+    /**
+     * This architecture with every layer below the given one frozen, for
+     * fine tuning the top layers of a trained network.
+     *
+     * @param layer The lowest layer that is trained.
+     * @return A new architecture whose layers below the given one are frozen.
+     */
+    public Architecture freezeBelow(int layer) {
+        Architecture arch = withRank(0, dims[0].rank);
+        for (int i = 0; i < dims.length; i++) arch.trainable[i] = i >= layer;
+        return arch;
+    }
+
+    /**
+     * Are the weights and biases of a layer changed by training?
+     *
+     * @param layer The index of the layer.
+     * @return True if the layer is trained, false if it is frozen.
+     */
+    public boolean isTrainable(int layer) {
+        return trainable[layer];
+    }
+
+    /**
+     * The lowest layer that is trained, below which backpropagation needn't
+     * go.
+     *
+     * @return The index of the lowest trainable layer, or the number of
+     * layers if all are frozen.
+     */
+    public int lowestTrainable() {
+        int layer = 0;
+        while (layer < dims.length && !trainable[layer]) layer++;
+        return layer;
+    }
+
+    /**
+     * The indices of the variables training changes, as a range for each run
+     * of trainable layers.
+     *
+     * @return Pairs of the index of the first variable of a range and the
+     * index after its last, in order.
+     */
+    public int[] trainableRanges() {
+        int[] ranges = new int[dims.length * 2];
+        int count = 0;
+        for (int i = 0; i < dims.length; i++) {
+            if (!trainable[i]) continue;
+            int start = dims[i].startIndex, end = start + dims[i].length();
+            if (count > 0 && ranges[count - 1] == start) ranges[count - 1] = end;
+            else {
+                ranges[count++] = start;
+                ranges[count++] = end;
+            }
+        }
+        return Arrays.copyOf(ranges, count);
+    }
+
+    /**
+     * The number of variables training changes.
+     *
+     * @return The number of weights and biases in trainable layers.
+     */
+    public int numTrainable() {
+        int[] ranges = trainableRanges();
+        int sum = 0;
+        for (int i = 0; i < ranges.length; i += 2) sum += ranges[i + 1] - ranges[i];
+        return sum;
+    }
+
     /**
      * The activation function of the network.
      *
@@ -123,8 +256,13 @@ public class Architecture {
      * @param col The index of the desired column. This should be -1 for a bias.
      * @return The index in the Rn vector describing a neural network with these
      * dimensions.
+     * @throws IllegalArgumentException If a weight in a factored layer is 
+     * requested, since those weights are not stored individually.
      */
     public int getWeightIndex(int matrix, int row, int col) {
+        if (col != -1 && dims[matrix].isFactored())
+            throw new IllegalArgumentException("Layer " + matrix + " is "
+                    + "factored, so its weights are not stored individually.");
 
         return layerIndex(matrix) + (col != -1
                 ? dims[matrix].rows * col
@@ -160,6 +298,9 @@ public class Architecture {
         if (ind >= matrixStart + dims[matrixInd].numWeights())
             return new Indices(matrixInd, ind - matrixStart
                     - dims[matrixInd].numWeights(), ind);
+        else if (dims[matrixInd].isFactored())
+            throw new IllegalArgumentException("Index " + ind + " is in a "
+                    + "factor of layer " + matrixInd + ", not a weight.");
         else
             return new Indices(matrixInd, localInd % dims[matrixInd].rows, localInd
                     / dims[matrixInd].rows);
@@ -206,6 +347,109 @@ public class Architecture {
         return dims[argMax].rows;
     }
 
+    /**
+     * The total number of nodes in all the layers.
+     *
+     * @return The total number of nodes in all the layers.
+     */
+    public int numNodes() {
+        return Arrays.stream(dims).mapToInt(d -> d.rows).sum();
+    }
+
+    /**
+     * The most rows or columns of any layer's weights.
+     *
+     * @return The most rows or columns of any layer's weights.
+     */
+    public int widestLayer() {
+        return Arrays.stream(dims).mapToInt(d -> Math.max(d.rows, d.cols)).max().getAsInt();
+    }
+
+    /**
+     * The largest rank of any factored layer.
+     *
+     * @return The largest rank of any factored layer, 0 if none is factored.
+     */
+    public int maxRank() {
+        return Arrays.stream(dims).mapToInt(d -> d.rank).max().getAsInt();
+    }
+
+    /**
+     * The number of values each datum in a batch needs while the gradient is
+     * computed: the input, the output of every layer and its derivative, two
+     * layers' worth of partial derivatives being backpropagated, the inner
+     * products of factored layers, and the datum's weight and cost.
+     *
+     * @return The number of values per datum.
+     */
+    public int valuesPerDatum() {
+        return valuesPerDatum(0);
+    }
+
+    /**
+     * The number of values each datum in a batch needs while the gradient is
+     * computed with checkpoints every k layers, see
+     * {@link ExecutionPlan#addGradCost(data.Datum[], int, int, int, ExecutionPlan.Workspace, double[])}.
+     * Only the outputs of the checkpoints and of one segment of k layers are
+     * kept.
+     *
+     * @param checkpointEvery k, less than 1 for no checkpoints.
+     * @return The number of values per datum.
+     */
+    public int valuesPerDatum(int checkpointEvery) {
+        int[] rows = Arrays.stream(dims).mapToInt(d -> d.rows).toArray();
+        int outputs = new ExecutionPlan.Layout(rows, checkpointEvery).values;
+        return inputDim() + 2 * outputs + 2 * widestLayer() + maxRank() + 2;
+    }
+
+    /**
+     * The work checkpoints every k layers add to computing the gradient: the
+     * multiplications of the layers run forward twice, over those of a
+     * forward and backward pass without checkpoints, counting the backward
+     * pass as twice the forward pass.
+     *
+     * @param checkpointEvery k, less than 1 for no checkpoints.
+     * @return The fraction of extra work.
+     */
+    public double recomputeOverhead(int checkpointEvery) {
+        int[] rows = Arrays.stream(dims).mapToInt(d -> d.rows).toArray();
+        ExecutionPlan.Layout layout = new ExecutionPlan.Layout(rows, checkpointEvery);
+        long all = 0, again = 0;
+        for (int i = 0; i < dims.length; i++) {
+            long work = dims[i].isFactored() ? (long) dims[i].rank * (dims[i].rows + dims[i].cols)
+                    : (long) dims[i].rows * dims[i].cols;
+            all += work;
+            if (i <= layout.lastCheckpoint && layout.checkpoint[i] < 0) again += work;
+        }
+        return (double) again / (3 * all);
+    }
+
+    /**
+     * The memory training this architecture takes.
+     *
+     * @param precision The size of each value outside the workspaces.
+     * @param batchSize The number of data run through the network together.
+     * @param workers The number of worker threads.
+     * @return The estimate.
+     */
+    public MemoryEstimate memory(ModelFile.Precision precision, int batchSize, int workers) {
+        return new MemoryEstimate(this, precision, batchSize, workers, 0);
+    }
+
+    /**
+     * The memory training this architecture takes with gradient checkpoints.
+     *
+     * @param precision The size of each value outside the workspaces.
+     * @param batchSize The number of data run through the network together.
+     * @param workers The number of worker threads.
+     * @param checkpointEvery The number of layers between checkpoints, less
+     * than 1 for none.
+     * @return The estimate.
+     */
+    public MemoryEstimate memory(ModelFile.Precision precision, int batchSize, int workers, int checkpointEvery) {
+        return new MemoryEstimate(this, precision, batchSize, workers, checkpointEvery);
+    }
+
     /**
      * Runs some basic tests on this class.
      * @param args Not used.
@@ -0,0 +1,375 @@
+package neuralnetwork;
+
+import compute.Backend;
+import compute.Backends;
+import data.ClassifiedData;
+import data.Datum;
+import data.MNISTData;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import neuralnetwork.ActivationFunctions.Sigmoid;
+
+/**
+ * Finds the fastest way to compute the gradient for an architecture on this
+ * machine: the backend, the number of data run through the network together,
+ * and the number of worker threads. Each is chosen by timing a few
+ * evaluations of the gradient over a sample of the training data. The winner
+ * is saved in a properties file, keyed by the architecture, including which
+ * layers are frozen, and the host, and {@link NeuralNetworkBuilder} applies
+ * it whenever it is built for that architecture again.
+ *
+ * The system property neuralnetwork.autotune controls this: "off", the
+ * default, leaves builders alone, "saved" applies a saved profile if there is
+ * one, and "on" also tunes and saves a profile when there isn't one. The file
+ * is neuralnetwork.autotune.file, by default autotune.properties in the
+ * .neuralnetwork folder of the user's home.
+ *
+ * Applying a profile sets only the builder's batch size and workers. The
+ * backend is shared by every network in the process, so it is switched only
+ * when {@link Profile#useBackend()} is called.
+ *
+ * @author Dov Neimand
+ */
+public class AutoTuner {
+
+    /**
+     * The system property that turns tuning on or off.
+     */
+    public static final String PROPERTY = "neuralnetwork.autotune";
+    /**
+     * The system property with the file profiles are saved in.
+     */
+    public static final String FILE_PROPERTY = "neuralnetwork.autotune.file";
+
+    /**
+     * The most data the trials are run over.
+     */
+    private static final int TRIAL_DATA = 1024;
+    private static final int[] BATCHES = {1, 8, 32, 128, 512};
+
+    private static final Logger LOG = Logger.getLogger(AutoTuner.class.getName());
+
+    /**
+     * The pools for each number of workers, shared by all builders.
+     */
+    private static final Map<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    private static Properties saved;
+    private static String host;
+
+    /**
+     * True on a thread running trials, so the builders made for them aren't
+     * configured.
+     */
+    private static final ThreadLocal<Boolean> TUNING = ThreadLocal.withInitial(() -> false);
+
+    /**
+     * The fastest configuration for an architecture on a host.
+     */
+    public static class Profile {
+
+        /**
+         * The name of the backend, see {@link Backends#byName(java.lang.String)}.
+         */
+        public final String backend;
+        /**
+         * The number of data run through the network together.
+         */
+        public final int batchSize;
+        /**
+         * The number of worker threads.
+         */
+        public final int workers;
+        /**
+         * The seconds per datum the gradient took with this configuration.
+         */
+        public final double secondsPerDatum;
+
+        /**
+         * The constructor.
+         *
+         * @param backend The name of the backend.
+         * @param batchSize The number of data run through the network
+         * together.
+         * @param workers The number of worker threads.
+         * @param secondsPerDatum The seconds per datum the gradient took.
+         */
+        public Profile(String backend, int batchSize, int workers, double secondsPerDatum) {
+            this.backend = backend;
+            this.batchSize = batchSize;
+            this.workers = workers;
+            this.secondsPerDatum = secondsPerDatum;
+        }
+
+        /**
+         * Configures a builder with this profile's batch size and workers.
+         * The backend is left as it is.
+         *
+         * @param builder The builder.
+         * @return The builder.
+         */
+        public NeuralNetworkBuilder applyTo(NeuralNetworkBuilder builder) {
+            return builder.setBatchSize(batchSize).setPool(pool(workers));
+        }
+
+        /**
+         * Switches to this profile's backend, unless one was chosen
+         * explicitly, see {@link Backends#isChosen()}.
+         */
+        public void useBackend() {
+            if (!Backends.isChosen() && !Backends.get().name().equals(backend))
+                Backends.suggest(Backends.byName(backend));
+        }
+
+        @Override
+        public String toString() {
+            return "backend " + backend + ", batch " + batchSize + ", workers " + workers
+                    + ", " + secondsPerDatum * 1e6 + " microseconds per datum";
+        }
+    }
+
+    /**
+     * The pool with the given number of workers. The common pool is used
+     * when it has that many.
+     *
+     * @param workers The number of workers.
+     * @return A pool shared by everything that asks for that many workers.
+     */
+    public static ForkJoinPool pool(int workers) {
+        if (workers == ForkJoinPool.commonPool().getParallelism()) return ForkJoinPool.commonPool();
+        return POOLS.computeIfAbsent(workers, ForkJoinPool::new);
+    }
+
+    /**
+     * The key profiles for an architecture are saved under on this host.
+     *
+     * @param arch The architecture.
+     * @return The key.
+     */
+    public static String key(Architecture arch) {
+        StringBuilder key = new StringBuilder(host()).append('.')
+                .append(arch.getActFunc().name()).append('.').append(arch.inputDim());
+        for (int i = 0; i < arch.numLayers(); i++) {
+            key.append('-').append(arch.get(i).rows);
+            if (arch.get(i).isFactored()) key.append('r').append(arch.get(i).rank);
+            if (!arch.isTrainable(i)) key.append('f');
+        }
+        return key.toString();
+    }
+
+    /**
+     * The host name and number of processors.
+     */
+    private static synchronized String host() {
+        if (host == null) {
+            String name;
+            try {
+                name = InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException ex) {
+                name = "unknown";
+            }
+            host = name.replaceAll("[^A-Za-z0-9_-]", "_") + "_" + Runtime.getRuntime().availableProcessors() + "cpu";
+        }
+        return host;
+    }
+
+    private static Path file() {
+        String file = System.getProperty(FILE_PROPERTY);
+        return file != null ? Paths.get(file)
+                : Paths.get(System.getProperty("user.home"), ".neuralnetwork", "autotune.properties");
+    }
+
+    /**
+     * The saved profiles, read from the file the first time they're needed.
+     */
+    private static synchronized Properties saved() {
+        if (saved == null) {
+            saved = new Properties();
+            Path file = file();
+            if (Files.exists(file))
+                try (InputStream in = Files.newInputStream(file)) {
+                    saved.load(in);
+                } catch (IOException ex) {
+                    LOG.log(Level.WARNING, "The tuning profiles in " + file + " could not be read.", ex);
+                }
+        }
+        return saved;
+    }
+
+    /**
+     * The saved profile for an architecture on this host.
+     *
+     * @param arch The architecture.
+     * @return The profile, or null if there isn't one.
+     */
+    public static Profile load(Architecture arch) {
+        Properties props = saved();
+        String key = key(arch);
+        synchronized (props) {
+            String backend = props.getProperty(key + ".backend");
+            if (backend == null) return null;
+            try {
+                return new Profile(backend,
+                        Integer.parseInt(props.getProperty(key + ".batch")),
+                        Integer.parseInt(props.getProperty(key + ".workers")),
+                        Double.parseDouble(props.getProperty(key + ".secondsPerDatum", "NaN")));
+            } catch (NumberFormatException | NullPointerException ex) {
+                LOG.log(Level.WARNING, "The tuning profile " + key + " is malformed.", ex);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Saves the profile for an architecture on this host.
+     *
+     * @param arch The architecture.
+     * @param profile The profile.
+     * @throws IOException If the file can't be written.
+     */
+    public static void save(Architecture arch, Profile profile) throws IOException {
+        Properties props = saved();
+        String key = key(arch);
+        Path file = file();
+        synchronized (props) {
+            props.setProperty(key + ".backend", profile.backend);
+            props.setProperty(key + ".batch", Integer.toString(profile.batchSize));
+            props.setProperty(key + ".workers", Integer.toString(profile.workers));
+            props.setProperty(key + ".secondsPerDatum", Double.toString(profile.secondsPerDatum));
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            try (OutputStream out = Files.newOutputStream(file)) {
+                props.store(out, "Tuning profiles, see neuralnetwork.AutoTuner");
+            }
+        }
+    }
+
+    /**
+     * Configures a new builder as the neuralnetwork.autotune property says.
+     *
+     * @param builder The builder.
+     * @param arch The architecture it builds.
+     * @param data The training data, sampled if a profile has to be tuned.
+     */
+    static void configure(NeuralNetworkBuilder builder, Architecture arch, ClassifiedData data) {
+        String mode = System.getProperty(PROPERTY, "off");
+        if (mode.equals("off") || TUNING.get()) return;
+        Profile profile = load(arch);
+        if (profile == null && mode.equals("on")) {
+            profile = tune(arch, data);
+            try {
+                save(arch, profile);
+            } catch (IOException ex) {
+                LOG.log(Level.WARNING, "The tuning profile could not be saved.", ex);
+            }
+        }
+        if (profile != null) profile.applyTo(builder);
+    }
+
+    /**
+     * Times the gradient with each backend and batch size using all the
+     * processors, and then with fewer workers, and returns the fastest. The
+     * backend in use is restored afterwards.
+     *
+     * @param arch The architecture.
+     * @param data The training data. The trials use up to the first 1024.
+     * @return The fastest configuration.
+     */
+    public static Profile tune(Architecture arch, ClassifiedData data) {
+        Datum[] sample = data.stream().limit(TRIAL_DATA).toArray(Datum[]::new);
+        ClassifiedData trialData = new ClassifiedData() {
+            @Override
+            public Stream<Datum> stream() {
+                return Arrays.stream(sample);
+            }
+
+            @Override
+            public int size() {
+                return sample.length;
+            }
+        };
+        double[] x = new Random(1).doubles(arch.numVariables(), -1, 1).toArray();
+
+        String[] backends = Backends.nativeAvailable() ? new String[]{"jblas", "java"} : new String[]{"java"};
+        int cores = Runtime.getRuntime().availableProcessors();
+        TreeSet<Integer> workers = new TreeSet<>(Arrays.asList(1, 2, cores / 2, cores));
+        workers.removeIf(w -> w < 1 || w > cores);
+
+        Backend original = Backends.get();
+        boolean chosen = Backends.isChosen();
+        TUNING.set(true);
+        try {
+            Profile best = null;
+            for (String backend : backends)
+                for (int batch : BATCHES) {
+                    if (batch > sample.length && batch != BATCHES[0]) continue;
+                    best = faster(best, trial(arch, trialData, x, backend, batch, cores));
+                }
+            for (int w : workers)
+                if (w != cores) best = faster(best, trial(arch, trialData, x, best.backend, best.batchSize, w));
+            LOG.log(Level.INFO, "Tuned {0}: {1}", new Object[]{key(arch), best});
+            return best;
+        } finally {
+            TUNING.set(false);
+            if (chosen) Backends.use(original);
+            else Backends.suggest(original);
+        }
+    }
+
+    private static Profile faster(Profile a, Profile b) {
+        return a == null || b.secondsPerDatum < a.secondsPerDatum ? b : a;
+    }
+
+    /**
+     * Times the gradient with one configuration: the best of three runs
+     * after two to warm up.
+     */
+    private static Profile trial(Architecture arch, ClassifiedData data, double[] x,
+            String backend, int batch, int workers) {
+        Backends.suggest(Backends.byName(backend));
+        NeuralNetworkBuilder builder = new NeuralNetworkBuilder(data, arch)
+                .setBatchSize(batch).setPool(pool(workers));
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            builder.funcAt(x);
+            if (run >= 2) best = Math.min(best, System.nanoTime() - start);
+        }
+        Profile profile = new Profile(backend, batch, workers, best * 1e-9 / data.size());
+        LOG.log(Level.FINE, "Trial {0}", profile);
+        return profile;
+    }
+
+    /**
+     * Tunes an architecture on MNIST and saves the profile.
+     *
+     * @param args The number of nodes in each layer after the input, for
+     * example 100 50 10.
+     * @throws IOException If the profile can't be saved.
+     */
+    public static void main(String[] args) throws IOException {
+        int[] nodes = args.length == 0 ? new int[]{100, 50, 10}
+                : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        ClassifiedData data = new MNISTData(true);
+        Architecture arch = new Architecture(new Sigmoid(), data.dim(), nodes);
+        Profile profile = tune(arch, data);
+        save(arch, profile);
+        System.out.println(key(arch) + ": " + profile);
+    }
+
+}
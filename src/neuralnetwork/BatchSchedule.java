@@ -0,0 +1,263 @@
+package neuralnetwork;
+
+import metrics.Counter;
+import metrics.Gauge;
+import metrics.Metrics;
+import optimization.FuncAt;
+
+/**
+ * How many data each stochastic variation of a {@link NeuralNetworkBuilder}
+ * samples. Small samples make early jumps cheap; once the optimizer is near a
+ * minimum, the noise of a small sample's gradient limits it, and a larger
+ * sample is worth its cost. A schedule sees the value and gradient of every
+ * sample and grows the size by a factor when it decides the time has come,
+ * up to all the training data.
+ *
+ * The size is reported by the builder_batch_size gauge, and each increase is
+ * counted by builder_batch_increases_total.
+ *
+ * @author Dov Neimand
+ */
+public abstract class BatchSchedule {
+
+    private static final Gauge SIZE = Metrics.gauge("builder_batch_size",
+            "Data in each stochastic sample of the training data."),
+            NOISE = Metrics.gauge("builder_gradient_noise",
+                    "The variance of the sampled gradients over their squared norm.");
+    private static final Counter INCREASES = Metrics.counter("builder_batch_increases_total",
+            "Times the batch schedule increased the sample size.");
+
+    /**
+     * The factor the size grows by.
+     */
+    protected final double growth;
+    private final int initial;
+    private int size, max;
+
+    /**
+     * @param initial The first size, or 0 for the square root of the number
+     * of training data.
+     * @param growth The factor the size grows by, more than 1.
+     */
+    protected BatchSchedule(int initial, double growth) {
+        if (growth <= 1)
+            throw new IllegalArgumentException("The growth factor must be more than 1, not " + growth);
+        this.initial = initial;
+        this.growth = growth;
+    }
+
+    /**
+     * Starts the schedule for some training data.
+     *
+     * @param dataSize The number of training data.
+     */
+    void start(int dataSize) {
+        max = dataSize;
+        size = Math.max(1, Math.min(dataSize, initial > 0 ? initial : (int) Math.sqrt(dataSize)));
+        if (Metrics.ENABLED) SIZE.set(size);
+    }
+
+    /**
+     * Carries on from a size reached earlier, as when a descent is resumed
+     * from a checkpoint.
+     *
+     * @param size The size to sample, up to all the training data.
+     */
+    void resume(int size) {
+        this.size = Math.max(1, Math.min(max, size));
+        if (Metrics.ENABLED) SIZE.set(this.size);
+    }
+
+    /**
+     * The number of data the next sample should have.
+     *
+     * @return The size of the next sample.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Has the size reached all the training data?
+     *
+     * @return True if the samples are all the training data.
+     */
+    public boolean isFull() {
+        return size >= max;
+    }
+
+    /**
+     * Multiplies the size by the growth factor, up to all the training data.
+     */
+    protected void grow() {
+        size = (int) Math.min(max, Math.max(size + 1, Math.ceil(size * growth)));
+        if (Metrics.ENABLED) {
+            SIZE.set(size);
+            INCREASES.inc();
+        }
+    }
+
+    /**
+     * Called with the value and gradient of each sample.
+     *
+     * @param sample The sum of the costs and their gradients over the
+     * sample.
+     * @param samples The number of data in the sample.
+     */
+    protected abstract void observe(FuncAt sample, int samples);
+
+    /**
+     * Never changes the size. With no initial size, this is the square root
+     * of the number of training data, as it has always been.
+     */
+    public static class Constant extends BatchSchedule {
+
+        /**
+         * @param initial The size, or 0 for the square root of the number of
+         * training data.
+         */
+        public Constant(int initial) {
+            super(initial, 2);
+        }
+
+        @Override
+        protected void observe(FuncAt sample, int samples) {
+        }
+    }
+
+    /**
+     * Grows the size after a fixed number of samples.
+     */
+    public static class Fixed extends BatchSchedule {
+
+        private final int every;
+        private int seen;
+
+        /**
+         * @param initial The first size, or 0 for the square root of the
+         * number of training data.
+         * @param growth The factor the size grows by.
+         * @param every The number of samples between increases, at least 1.
+         */
+        public Fixed(int initial, double growth, int every) {
+            super(initial, growth);
+            if (every < 1)
+                throw new IllegalArgumentException("The size must grow every 1 or more samples, not " + every);
+            this.every = every;
+        }
+
+        @Override
+        protected void observe(FuncAt sample, int samples) {
+            if (++seen % every == 0) grow();
+        }
+    }
+
+    /**
+     * Grows the size when the sampled gradients are noisier than they are
+     * long, that is, when the variance of the mean gradient of a sample is
+     * more than theta squared times its squared norm. Both are running
+     * averages over recent samples, and are started again after every
+     * increase.
+     */
+    public static class Variance extends BatchSchedule {
+
+        /**
+         * The weight of the past in the running averages.
+         */
+        private static final double DECAY = 0.9;
+        /**
+         * Samples averaged before the first test.
+         */
+        private static final int WARMUP = 10;
+
+        private final double theta;
+        private double[] mean;
+        private double meanSquare;
+        private int seen;
+
+        /**
+         * @param initial The first size, or 0 for the square root of the
+         * number of training data.
+         * @param growth The factor the size grows by.
+         * @param theta How much noise is tolerated, relative to the gradient,
+         * more than 0.
+         */
+        public Variance(int initial, double growth, double theta) {
+            super(initial, growth);
+            if (!(theta > 0))
+                throw new IllegalArgumentException("Theta must be more than 0, not " + theta);
+            this.theta = theta;
+        }
+
+        @Override
+        protected void observe(FuncAt sample, int samples) {
+            double[] g = sample.grad.data;
+            if (mean == null) mean = new double[g.length];
+            double weight = seen == 0 ? 1 : 1 - DECAY, norm = 0, square = 0;
+            for (int i = 0; i < g.length; i++) {
+                double gi = g[i] / samples;
+                mean[i] += weight * (gi - mean[i]);
+                norm += mean[i] * mean[i];
+                square += gi * gi;
+            }
+            meanSquare += weight * (square - meanSquare);
+            double noise = (meanSquare - norm) / norm;
+            if (Metrics.ENABLED) NOISE.set(noise);
+            if (++seen >= WARMUP && noise > theta * theta) {
+                grow();
+                seen = 0;
+            }
+        }
+    }
+
+    /**
+     * Grows the size when the cost per datum has stopped falling: when a
+     * running average of it hasn't improved on its best by a relative
+     * tolerance for a number of samples.
+     */
+    public static class Plateau extends BatchSchedule {
+
+        /**
+         * The weight of the past in the running average.
+         */
+        private static final double DECAY = 0.9;
+
+        private final int patience;
+        private final double tolerance;
+        private double average = Double.NaN, best = Double.POSITIVE_INFINITY;
+        private int since;
+
+        /**
+         * @param initial The first size, or 0 for the square root of the
+         * number of training data.
+         * @param growth The factor the size grows by.
+         * @param patience The samples without improvement before an increase,
+         * at least 1.
+         * @param tolerance The relative fall in the cost that counts as an
+         * improvement, from 0 to 1.
+         */
+        public Plateau(int initial, double growth, int patience, double tolerance) {
+            super(initial, growth);
+            if (patience < 1 || !(tolerance >= 0 && tolerance < 1))
+                throw new IllegalArgumentException("patience must be at least 1 and tolerance from 0 to 1, not "
+                        + patience + " and " + tolerance);
+            this.patience = patience;
+            this.tolerance = tolerance;
+        }
+
+        @Override
+        protected void observe(FuncAt sample, int samples) {
+            double cost = sample.val / samples;
+            average = Double.isNaN(average) ? cost : DECAY * average + (1 - DECAY) * cost;
+            if (average < best * (1 - tolerance)) {
+                best = average;
+                since = 0;
+            } else if (++since >= patience) {
+                grow();
+                best = average;
+                since = 0;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,479 @@
+package neuralnetwork;
+
+import data.Datum;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import neuralnetwork.ActivationFunctions.ActivationFunction;
+import neuralnetwork.ActivationFunctions.Sigmoid;
+import optimization.FuncAt;
+import org.jblas.DoubleMatrix;
+
+/**
+ * A small trained network compiled into its own class, with straight line
+ * code for the forward pass and for the gradient of the cost. Each weight and
+ * bias is a constant in the code, weights that are 0 are left out, and every
+ * node's value is a local variable, so there are no loops, arrays of weights,
+ * or native calls, and nothing is allocated. For networks with a few dozen
+ * nodes this is much faster than the general matrix code, which spends most
+ * of its time on overhead.
+ *
+ * The source is generated and compiled with the system Java compiler, so this
+ * needs a JDK, and the class is loaded in its own class loader so that it can
+ * be unloaded when the network is no longer used. The code grows with the
+ * number of weights, and HotSpot never compiles a method with more than
+ * {@link #HUGE_METHOD_LIMIT} bytes of bytecode, so it would be interpreted,
+ * many times slower than the general code. Only networks whose generated
+ * methods are within that limit, a few hundred weights and biases, and
+ * without factored layers, can be compiled. The
+ * gradient, as with the plan, leaves the variables of frozen layers out, and
+ * isn't backpropagated below the lowest trainable layer.
+ *
+ * @author Dov Neimand
+ */
+public abstract class CompiledNetwork implements Function<DoubleMatrix, DoubleMatrix> {
+
+    /**
+     * The most bytes of bytecode a generated method may have. It is HotSpot's
+     * default HugeMethodLimit, above which methods are not JIT compiled.
+     */
+    public static final int HUGE_METHOD_LIMIT = 8000;
+
+    /**
+     * The most weights and biases a network may have for compiling it to be
+     * tried. The gradient takes more than ten bytes for each weight, so
+     * larger networks are always over {@link #HUGE_METHOD_LIMIT}.
+     */
+    public static final int MAX_VARIABLES = 1000;
+
+    private static final AtomicInteger CLASSES = new AtomicInteger();
+
+    /**
+     * The activation function, for generated code that doesn't inline it.
+     */
+    protected final ActivationFunction actFunc;
+    /**
+     * The dimensions of the network's input and output.
+     */
+    protected final int inputDim, outputDim;
+    /**
+     * The length of the gradient.
+     */
+    protected final int numVariables;
+
+    /**
+     * The constructor, called by generated subclasses.
+     *
+     * @param actFunc The activation function.
+     * @param inputDim The dimension of the input.
+     * @param outputDim The dimension of the output.
+     * @param numVariables The number of weights and biases.
+     */
+    protected CompiledNetwork(ActivationFunction actFunc, int inputDim, int outputDim, int numVariables) {
+        this.actFunc = actFunc;
+        this.inputDim = inputDim;
+        this.outputDim = outputDim;
+        this.numVariables = numVariables;
+    }
+
+    /**
+     * Applies the network to a datum.
+     *
+     * @param in The datum.
+     * @param out The output is written here.
+     * @return out.
+     */
+    public abstract double[] predict(double[] in, double[] out);
+
+    /**
+     * Adds the gradient of the cost at a datum to grad. See
+     * {@link ExecutionPlan#addGradCost(data.Datum, ExecutionPlan.Workspace, double[])}.
+     *
+     * @param in The datum.
+     * @param type The datum's classification.
+     * @param grad The gradient is added to this array.
+     * @return The cost at the datum.
+     */
+    public abstract double addGradCost(double[] in, int type, double[] grad);
+
+    /**
+     * Applies the network to a datum or a batch.
+     *
+     * @param x A matrix each of whose columns is a datum.
+     * @return A new matrix whose column i is the output for column i of x.
+     */
+    @Override
+    public DoubleMatrix apply(DoubleMatrix x) {
+        DoubleMatrix y = new DoubleMatrix(outputDim, x.columns);
+        double[] in = new double[inputDim], out = new double[outputDim];
+        for (int j = 0; j < x.columns; j++) {
+            System.arraycopy(x.data, j * inputDim, in, 0, inputDim);
+            System.arraycopy(predict(in, out), 0, y.data, j * outputDim, outputDim);
+        }
+        return y;
+    }
+
+    /**
+     * The gradient of the cost at a datum. See
+     * {@link NeuralNetwork#gradCost(data.Datum)}.
+     *
+     * @param x The datum.
+     * @return The gradient and cost.
+     */
+    public FuncAt gradCost(Datum x) {
+        DoubleMatrix grad = new DoubleMatrix(1, numVariables);
+        return new FuncAt(grad, addGradCost(x.data, x.type, grad.data));
+    }
+
+    /**
+     * Compiles a network.
+     *
+     * @param nn A network with no factored layers, whose generated methods
+     * are each at most {@link #HUGE_METHOD_LIMIT} bytes.
+     * @return The compiled network.
+     * @throws IllegalArgumentException If the network has factored layers or
+     * is too large.
+     * @throws UnsupportedOperationException If no Java compiler is available.
+     */
+    public static CompiledNetwork compile(NeuralNetwork nn) {
+        Architecture arch = nn.architecture;
+        if (arch.numVariables() > MAX_VARIABLES)
+            throw new IllegalArgumentException("The network has " + arch.numVariables()
+                    + " weights and biases, more than the " + MAX_VARIABLES + " that can be compiled.");
+        for (int i = 0; i < arch.numLayers(); i++)
+            if (arch.get(i).isFactored())
+                throw new IllegalArgumentException("Layer " + i + " is factored. Factored layers can't be compiled.");
+
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null)
+            throw new UnsupportedOperationException("No Java compiler is available. Run on a JDK to compile networks.");
+
+        String name = "Unrolled" + CLASSES.incrementAndGet();
+        String source = new Source(nn, name).toString();
+        byte[] bytes = javac(javac, name, source);
+        int largest = largestMethod(bytes);
+        if (largest > HUGE_METHOD_LIMIT)
+            throw new IllegalArgumentException("The network's code has a method of " + largest
+                    + " bytes, more than the " + HUGE_METHOD_LIMIT + " the JIT compiles.");
+
+        try {
+            return (CompiledNetwork) new Loader().define(CompiledNetwork.class.getPackageName() + "." + name, bytes)
+                    .getConstructor(ActivationFunction.class)
+                    .newInstance(arch.getActFunc());
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("The compiled network could not be loaded.", ex);
+        }
+    }
+
+    /**
+     * Compiles source code in memory.
+     *
+     * @return The bytes of the class.
+     */
+    private static byte[] javac(JavaCompiler javac, String name, String source) {
+        Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+        JavaFileManager files = new ForwardingJavaFileManager<JavaFileManager>(javac.getStandardFileManager(null, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className,
+                    JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return classes.computeIfAbsent(className, c -> new ByteArrayOutputStream());
+                    }
+                };
+            }
+        };
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + name + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        List<String> options = List.of("-classpath", classPath(), "-g:none", "-proc:none");
+        if (!javac.getTask(null, files, diagnostics, options, null, List.of(file)).call())
+            throw new IllegalStateException("The network could not be compiled: "
+                    + diagnostics.getDiagnostics().stream().map(d -> d.getMessage(Locale.ROOT))
+                            .collect(Collectors.joining("\n")));
+        return classes.get(CompiledNetwork.class.getPackageName() + "." + name).toByteArray();
+    }
+
+    /**
+     * The length of the bytecode of the largest method in a class file.
+     */
+    private static int largestMethod(byte[] classFile) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile))) {
+            in.skipBytes(8);
+            String[] utf8 = new String[in.readUnsignedShort()];
+            for (int i = 1; i < utf8.length; i++)
+                switch (in.readUnsignedByte()) {
+                    case 1: utf8[i] = in.readUTF(); break;
+                    case 5: case 6: in.skipBytes(8); i++; break;
+                    case 7: case 8: case 16: case 19: case 20: in.skipBytes(2); break;
+                    case 15: in.skipBytes(3); break;
+                    default: in.skipBytes(4);
+                }
+            in.skipBytes(6);
+            in.skipBytes(2 * in.readUnsignedShort());
+            for (int field = in.readUnsignedShort(); field > 0; field--) {
+                in.skipBytes(6);
+                for (int attr = in.readUnsignedShort(); attr > 0; attr--) {
+                    in.skipBytes(2);
+                    in.skipBytes(in.readInt());
+                }
+            }
+            int largest = 0;
+            for (int method = in.readUnsignedShort(); method > 0; method--) {
+                in.skipBytes(6);
+                for (int attr = in.readUnsignedShort(); attr > 0; attr--) {
+                    String attrName = utf8[in.readUnsignedShort()];
+                    int length = in.readInt();
+                    if (attrName.equals("Code")) {
+                        in.skipBytes(4);
+                        largest = Math.max(largest, in.readInt());
+                        in.skipBytes(length - 8);
+                    } else in.skipBytes(length);
+                }
+            }
+            return largest;
+        } catch (IOException ex) {
+            throw new IllegalStateException("The compiled network's class file is malformed.", ex);
+        }
+    }
+
+    /**
+     * The class path the generated code is compiled against: the
+     * application's class path and wherever this class and jblas were loaded
+     * from.
+     */
+    private static String classPath() {
+        StringBuilder path = new StringBuilder(System.getProperty("java.class.path"));
+        for (Class<?> c : new Class<?>[]{CompiledNetwork.class, DoubleMatrix.class})
+            try {
+                path.append(File.pathSeparator).append(Paths.get(
+                        c.getProtectionDomain().getCodeSource().getLocation().toURI()));
+            } catch (URISyntaxException | NullPointerException ex) {
+                //The class path already has it.
+            }
+        return path.toString();
+    }
+
+    /**
+     * Loads a single generated class.
+     */
+    private static class Loader extends ClassLoader {
+
+        Loader() {
+            super(CompiledNetwork.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * The source of the generated class. The value of node i of layer l is
+     * the local variable a{l}_{i}, the derivative of its activation function
+     * is s{l}_{i}, and the partial derivative of the cost over its value
+     * before the activation function is d{l}_{i}.
+     */
+    private static class Source {
+
+        private final StringBuilder src = new StringBuilder();
+        private final Layer[] layers;
+        private final DoubleMatrix[] weights;
+        private final boolean sigmoid;
+        private final Architecture arch;
+
+        Source(NeuralNetwork nn, String name) {
+            layers = nn.layers();
+            weights = new DoubleMatrix[layers.length];
+            for (int l = 0; l < layers.length; l++) weights[l] = layers[l].getWeights();
+            sigmoid = nn.architecture.getActFunc() instanceof Sigmoid;
+            arch = nn.architecture;
+
+            line(0, "package " + CompiledNetwork.class.getPackageName() + ";");
+            line(0, "public final class " + name + " extends " + CompiledNetwork.class.getName() + " {");
+            line(1, "public " + name + "(" + ActivationFunction.class.getName() + " f) {");
+            line(2, "super(f, " + arch.inputDim() + ", " + arch.outputDim() + ", " + arch.numVariables() + ");");
+            line(1, "}");
+
+            line(1, "@Override");
+            line(1, "public double[] predict(double[] in, double[] out) {");
+            forward(false);
+            int top = layers.length - 1;
+            for (int i = 0; i < layers[top].numNodes(); i++)
+                line(2, "out[" + i + "] = a" + top + "_" + i + ";");
+            line(2, "return out;");
+            line(1, "}");
+
+            line(1, "@Override");
+            line(1, "public double addGradCost(double[] in, int type, double[] grad) {");
+            forward(true);
+            backward();
+            line(1, "}");
+            line(0, "}");
+        }
+
+        private void line(int indent, String line) {
+            for (int i = 0; i < indent; i++) src.append("    ");
+            src.append(line).append('\n');
+        }
+
+        /**
+         * A double as a Java expression.
+         */
+        private static String literal(double d) {
+            if (Double.isFinite(d)) return "(" + d + ")";
+            return "Double.longBitsToDouble(0x" + Long.toHexString(Double.doubleToRawLongBits(d)) + "L)";
+        }
+
+        /**
+         * The value of node i of layer l, where layer -1 is the input.
+         */
+        private static String node(int l, int i) {
+            return l < 0 ? "in[" + i + "]" : "a" + l + "_" + i;
+        }
+
+        /**
+         * The values of the nodes and, if derivatives, the derivatives of the
+         * activation functions the gradient needs.
+         */
+        private void forward(boolean derivatives) {
+            int lowest = arch.lowestTrainable();
+            for (int l = 0; l < layers.length; l++) {
+                boolean s = derivatives && l >= lowest;
+                DoubleMatrix w = weights[l];
+                double[] b = layers[l].getBias().data;
+                for (int i = 0; i < w.rows; i++) {
+                    StringBuilder z = new StringBuilder(literal(b[i]));
+                    for (int j = 0; j < w.columns; j++) {
+                        double wij = w.get(i, j);
+                        if (wij != 0) z.append(" + ").append(literal(wij)).append(" * ").append(node(l - 1, j));
+                    }
+                    String a = node(l, i);
+                    if (sigmoid) {
+                        line(2, "double " + a + " = 1 / (1 + Math.exp(-(" + z + ")));");
+                        if (s) line(2, "double s" + l + "_" + i + " = " + a + " * (1 - " + a + ");");
+                    } else {
+                        line(2, "double z" + l + "_" + i + " = " + z + ";");
+                        line(2, "double " + a + " = actFunc.applyAsDouble(z" + l + "_" + i + ");");
+                        if (s) line(2, "double s" + l + "_" + i + " = actFunc.ddt(z" + l + "_" + i + ");");
+                    }
+                }
+            }
+        }
+
+        private void backward() {
+            int top = layers.length - 1, lowest = arch.lowestTrainable();
+            line(2, "double cost = 0, r;");
+            for (int i = 0; i < layers[top].numNodes(); i++) {
+                line(2, "r = " + node(top, i) + " - (type == " + i + " ? 1 : 0);");
+                line(2, "cost += r * r;");
+                if (top >= lowest) line(2, "double d" + top + "_" + i + " = r * s" + top + "_" + i + ";");
+            }
+            for (int l = top; l >= lowest; l--) {
+                LayerArchitecture la = layers[l].architecture;
+                DoubleMatrix w = weights[l];
+                if (arch.isTrainable(l))
+                    for (int i = 0; i < la.rows; i++) {
+                        String d = "d" + l + "_" + i;
+                        for (int j = 0; j < la.cols; j++)
+                            line(2, "grad[" + (la.startIndex + i + j * la.rows) + "] += " + d + " * " + node(l - 1, j) + ";");
+                        line(2, "grad[" + (la.startIndex + la.numWeights() + i) + "] += " + d + ";");
+                    }
+                if (l == lowest) continue;
+                for (int j = 0; j < la.cols; j++) {
+                    StringBuilder sum = new StringBuilder("0");
+                    for (int i = 0; i < la.rows; i++) {
+                        double wij = w.get(i, j);
+                        if (wij != 0) sum.append(" + ").append(literal(wij)).append(" * d").append(l).append("_").append(i);
+                    }
+                    line(2, "double d" + (l - 1) + "_" + j + " = (" + sum + ") * s" + (l - 1) + "_" + j + ";");
+                }
+            }
+            line(2, "return cost;");
+        }
+
+        @Override
+        public String toString() {
+            return src.toString();
+        }
+    }
+
+    /**
+     * Compiles a small network and compares its outputs, gradients and speed
+     * to the general code.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        Random rand = new Random(1);
+        Architecture arch = new Architecture(new Sigmoid(), 2, 3, 3);
+        NeuralNetwork nn = new NeuralNetwork(rand.doubles(arch.numVariables(), -1, 1).toArray(), arch);
+        long start = System.nanoTime();
+        CompiledNetwork compiled = compile(nn);
+        System.out.println("compiled in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+        Datum[] data = new Datum[1000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = new Datum(rand.doubles(2, -2, 2).toArray(), i % 3, 3);
+
+        double maxDiff = 0;
+        for (Datum x : data) {
+            maxDiff = Math.max(maxDiff, nn.apply(x).sub(compiled.apply(x)).norm2());
+            maxDiff = Math.max(maxDiff, nn.gradCost(x).grad.sub(compiled.gradCost(x).grad).norm2());
+        }
+        System.out.println("largest difference " + maxDiff);
+
+        InferenceSession session = nn.session();
+        double[] out = new double[3], grad = new double[arch.numVariables()];
+        FuncAt sum = new FuncAt(new DoubleMatrix(1, grad.length), 0);
+        for (int round = 0; round < 5; round++) {
+            long general = System.nanoTime();
+            for (int rep = 0; rep < 200; rep++)
+                for (Datum x : data) session.predict(x.data, out);
+            general = System.nanoTime() - general;
+            long unrolled = System.nanoTime();
+            for (int rep = 0; rep < 200; rep++)
+                for (Datum x : data) compiled.predict(x.data, out);
+            unrolled = System.nanoTime() - unrolled;
+            long generalGrad = System.nanoTime();
+            for (Datum x : data) nn.addGradCost(x, sum);
+            generalGrad = System.nanoTime() - generalGrad;
+            long unrolledGrad = System.nanoTime();
+            for (Datum x : data) compiled.addGradCost(x.data, x.type, grad);
+            unrolledGrad = System.nanoTime() - unrolledGrad;
+            System.out.println(String.format(Locale.ROOT,
+                    "predict: general %.1f ns, compiled %.1f ns; gradient: general %.1f ns, compiled %.1f ns",
+                    general / 200.0 / data.length, unrolled / 200.0 / data.length,
+                    (double) generalGrad / data.length, (double) unrolledGrad / data.length));
+        }
+    }
+
+}
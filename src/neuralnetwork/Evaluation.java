@@ -0,0 +1,203 @@
+package neuralnetwork;
+
+import data.ClassifiedData;
+import data.Datum;
+import java.util.stream.IntStream;
+import org.jblas.DoubleMatrix;
+import profiling.BatchAssemblyEvent;
+
+/**
+ * The cost, accuracy and confusion matrix of a neural network over a data
+ * set, computed in a single pass. The data are run through the network in
+ * batches, in parallel, with each thread accumulating into its own
+ * evaluation, and the threads' evaluations are summed at the end.
+ *
+ * @author Dov Neimand
+ */
+public class Evaluation {
+
+    /**
+     * The default number of data in each batch.
+     */
+    public static final int DEFAULT_BATCH = 256;
+
+    /**
+     * The sum of the costs of the data. See
+     * {@link NeuralNetwork#cost(data.Datum)}.
+     */
+    private double loss = 0;
+    /**
+     * confusion[actual][predicted] is the number of data of type actual that
+     * the network classified as predicted.
+     */
+    private final long[][] confusion;
+    private long count = 0;
+
+    private final Datum[] data;
+    private final NeuralNetwork nn;
+    private DoubleMatrix batch;
+
+    private Evaluation(NeuralNetwork nn, Datum[] data) {
+        this.nn = nn;
+        this.data = data;
+        confusion = new long[nn.rangeDim()][nn.rangeDim()];
+    }
+
+    /**
+     * Evaluates a neural network on a data set.
+     *
+     * @param nn The network.
+     * @param data The data.
+     * @param batchSize The number of data in each batch.
+     * @return The evaluation of the network on the data.
+     */
+    public static Evaluation of(NeuralNetwork nn, ClassifiedData data, int batchSize) {
+        Datum[] array = data.array();
+        return IntStream.range(0, (array.length + batchSize - 1) / batchSize)
+                .parallel()
+                .collect(
+                        () -> new Evaluation(nn, array),
+                        (eval, b) -> eval.add(b * batchSize, Math.min(array.length, (b + 1) * batchSize)),
+                        Evaluation::add
+                );
+    }
+
+    /**
+     * Evaluates a neural network on a data set with the default batch size.
+     *
+     * @param nn The network.
+     * @param data The data.
+     * @return The evaluation of the network on the data.
+     */
+    public static Evaluation of(NeuralNetwork nn, ClassifiedData data) {
+        return of(nn, data, DEFAULT_BATCH);
+    }
+
+    /**
+     * Runs a batch through the network and adds the results to this
+     * evaluation.
+     *
+     * @param from The index of the first datum in the batch.
+     * @param to The index after the last datum in the batch.
+     */
+    private void add(int from, int to) {
+        int dim = data[from].length;
+        BatchAssemblyEvent event = new BatchAssemblyEvent();
+        event.begin();
+        if (batch == null || batch.columns != to - from) batch = new DoubleMatrix(dim, to - from);
+        for (int i = from; i < to; i++)
+            System.arraycopy(data[i].data, 0, batch.data, (i - from) * dim, dim);
+        if (event.shouldCommit()) {
+            event.source = "evaluation";
+            event.batch = to - from;
+            event.dim = dim;
+            event.commit();
+        }
+
+        DoubleMatrix out = nn.apply(batch);
+
+        for (int col = 0; col < out.columns; col++) {
+            int type = data[from + col].type, start = col * out.rows, argMax = 0;
+            for (int row = 0; row < out.rows; row++) {
+                double y = out.data[start + row];
+                double diff = y - (row == type ? 1 : 0);
+                loss += diff * diff;
+                if (y > out.data[start + argMax]) argMax = row;
+            }
+            confusion[type][argMax]++;
+        }
+        count += to - from;
+    }
+
+    /**
+     * Adds another evaluation's totals to this one's.
+     */
+    private void add(Evaluation other) {
+        loss += other.loss;
+        count += other.count;
+        for (int i = 0; i < confusion.length; i++)
+            for (int j = 0; j < confusion.length; j++)
+                confusion[i][j] += other.confusion[i][j];
+    }
+
+    /**
+     * The sum of the costs of all the data.
+     *
+     * @return The sum of the costs of all the data.
+     */
+    public double loss() {
+        return loss;
+    }
+
+    /**
+     * The number of data evaluated.
+     *
+     * @return The number of data evaluated.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * The fraction of the data classified correctly.
+     *
+     * @return The fraction of the data classified correctly.
+     */
+    public double accuracy() {
+        long correct = 0;
+        for (int i = 0; i < confusion.length; i++) correct += confusion[i][i];
+        return count == 0 ? 0 : (double) correct / count;
+    }
+
+    /**
+     * The number of data of one type the network classified as another.
+     *
+     * @param actual The type of the data.
+     * @param predicted The classification given by the network.
+     * @return The number of data of type actual classified as predicted.
+     */
+    public long confusion(int actual, int predicted) {
+        return confusion[actual][predicted];
+    }
+
+    /**
+     * Of the data classified as the given type, the fraction that are of that
+     * type.
+     *
+     * @param type A classification.
+     * @return The precision for the type, or 0 if nothing was classified as
+     * it.
+     */
+    public double precision(int type) {
+        long predicted = 0;
+        for (long[] row : confusion) predicted += row[type];
+        return predicted == 0 ? 0 : (double) confusion[type][type] / predicted;
+    }
+
+    /**
+     * Of the data of the given type, the fraction classified as that type.
+     *
+     * @param type A classification.
+     * @return The recall for the type, or 0 if there are no data of that
+     * type.
+     */
+    public double recall(int type) {
+        long actual = 0;
+        for (long n : confusion[type]) actual += n;
+        return actual == 0 ? 0 : (double) confusion[type][type] / actual;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(String.format(
+                "loss %.4f, accuracy %.4f over %d data%n", loss, accuracy(), count));
+        sb.append("type  precision  recall  confusion\n");
+        for (int type = 0; type < confusion.length; type++) {
+            sb.append(String.format("%4d  %9.4f  %6.4f ", type, precision(type), recall(type)));
+            for (long n : confusion[type]) sb.append(String.format(" %6d", n));
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+}
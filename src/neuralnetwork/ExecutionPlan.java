@@ -0,0 +1,703 @@
+package neuralnetwork;
+
+import compute.Backend;
+import compute.Backends;
+import data.Datum;
+import java.io.Serializable;
+import java.util.Arrays;
+import metrics.Counter;
+import metrics.Metrics;
+import neuralnetwork.ActivationFunctions.ActivationFunction;
+import org.jblas.DoubleMatrix;
+import profiling.ActivationEvent;
+import profiling.BatchAssemblyEvent;
+import profiling.LayerBackwardEvent;
+import profiling.LayerForwardEvent;
+
+/**
+ * A neural network compiled into a flat array of operations, one per layer,
+ * each the product of the layer's weights and its input, plus the bias, then
+ * the activation function. Where each layer's output goes in a
+ * {@link Workspace} is worked out when the plan is made, so running data
+ * forward through the network, and backpropagating the cost's gradient
+ * through it, are loops over the operations, without recursion, and without
+ * allocating once the workspace is big enough for the batch.
+ *
+ * A plan is immutable and may be shared between threads, each with its own
+ * workspace.
+ *
+ * @author Dov Neimand
+ */
+public class ExecutionPlan implements Serializable {
+
+    /**
+     * One layer: a dense, sparse or factored product, the bias, and the
+     * activation function.
+     */
+    private static class Op implements Serializable {
+
+        final int index, rows, cols, rank, start, numWeights;
+        /**
+         * Whether the gradient includes this layer's weights and biases.
+         */
+        final boolean trainable;
+        /**
+         * The dense weights, null if the weights are sparse or factored.
+         */
+        final double[] weights;
+        final SparseMatrix sparse;
+        /**
+         * The factors of the weights, null if the weights aren't factored.
+         */
+        final double[] u, v;
+        final double[] bias;
+        final ActivationFunction actFunc;
+
+        Op(Layer layer, int index, boolean trainable) {
+            this.index = index;
+            this.trainable = trainable;
+            rows = layer.architecture.rows;
+            cols = layer.architecture.cols;
+            rank = layer.architecture.rank;
+            start = layer.architecture.startIndex;
+            numWeights = layer.architecture.numWeights();
+            weights = layer.isFactored() || layer.isSparse() ? null : layer.getWeights().data;
+            sparse = layer.getSparseWeights();
+            u = layer.isFactored() ? layer.getFactorU().data : null;
+            v = layer.isFactored() ? layer.getFactorV().data : null;
+            bias = layer.getBias().data;
+            actFunc = layer.actFunc;
+        }
+
+        /**
+         * out = W in + b, for a batch of inputs.
+         *
+         * @param in The cols x batch input.
+         * @param out The rows x batch output.
+         * @param inner Space for the rank x batch V in, if the layer is
+         * factored.
+         */
+        void affine(Backend blas, double[] in, int inOff, int batch, double[] out, int outOff, double[] inner) {
+            if (u != null) {
+                product(blas, false, rank, batch, cols, v, rank, in, inOff, inner, 0);
+                product(blas, false, rows, batch, rank, u, rows, inner, 0, out, outOff);
+            } else if (sparse != null) {
+                Arrays.fill(out, outOff, outOff + rows * batch, 0);
+                sparse.addProduct(in, inOff, cols, batch, out, outOff, rows);
+            } else product(blas, false, rows, batch, cols, weights, rows, in, inOff, out, outOff);
+
+            for (int j = 0, col = outOff; j < batch; j++, col += rows)
+                for (int row = 0; row < rows; row++) out[col + row] += bias[row];
+        }
+
+        /**
+         * Adds the partial derivatives of the cost over this layer's weights
+         * and biases to grad, given the partial derivatives, delta, over the
+         * layer's outputs before the activation function.
+         *
+         * @param in The cols x batch input the layer was applied to.
+         * @param delta The rows x batch partial derivatives.
+         * @param inner Space for rank x batch values if the layer is factored.
+         * @param grad The gradient of the cost over all the weights and
+         * biases.
+         */
+        void addGrad(Backend blas, double[] in, int inOff, int batch, double[] delta, double[] inner, double[] grad) {
+            if (u != null) {
+                product(blas, false, rank, batch, cols, v, rank, in, inOff, inner, 0);
+                blas.gemm(false, true, rows, rank, batch, 1, delta, 0, rows, inner, 0, rank, 1, grad, start, rows);
+                product(blas, true, rank, batch, rows, u, rows, delta, 0, inner, 0);
+                blas.gemm(false, true, rank, cols, batch, 1, inner, 0, rank, in, inOff, cols, 1, grad, start + rows * rank, rank);
+            } else
+                blas.gemm(false, true, rows, cols, batch, 1, delta, 0, rows, in, inOff, cols, 1, grad, start, rows);
+
+            int biasStart = start + numWeights;
+            for (int j = 0, col = 0; j < batch; j++, col += rows)
+                for (int row = 0; row < rows; row++) grad[biasStart + row] += delta[col + row];
+        }
+
+        /**
+         * prev = W^T delta, the partial derivatives of the cost over this
+         * layer's inputs.
+         *
+         * @param delta The rows x batch partial derivatives over the layer's
+         * outputs before the activation function.
+         * @param prev The cols x batch partial derivatives over the inputs.
+         * @param inner Space for rank x batch values if the layer is factored.
+         */
+        void backward(Backend blas, double[] delta, int batch, double[] prev, double[] inner) {
+            if (u != null) {
+                product(blas, true, rank, batch, rows, u, rows, delta, 0, inner, 0);
+                product(blas, true, cols, batch, rank, v, rank, inner, 0, prev, 0);
+            } else if (sparse != null) {
+                Arrays.fill(prev, 0, cols * batch, 0);
+                sparse.addTransposeProduct(delta, 0, rows, batch, prev, 0, cols);
+            } else product(blas, true, cols, batch, rows, weights, rows, delta, 0, prev, 0);
+        }
+
+        /**
+         * c = op(a) b, where op(a) is m x k, b is k x n and both b and c are
+         * packed. A single column is a matrix vector product.
+         */
+        private static void product(Backend blas, boolean trans, int m, int n, int k,
+                double[] a, int lda, double[] b, int bOff, double[] c, int cOff) {
+            if (n == 1) {
+                if (trans) blas.gemv(true, k, m, 1, a, 0, lda, b, bOff, 0, c, cOff);
+                else blas.gemv(false, m, k, 1, a, 0, lda, b, bOff, 0, c, cOff);
+            } else blas.gemm(trans, false, m, n, k, 1, a, 0, lda, b, bOff, k, 0, c, cOff, m);
+        }
+    }
+
+    /**
+     * Where each layer's output goes in a workspace when the gradient is
+     * computed with checkpoints every k layers. The layers are split into
+     * segments of k. The output of the last layer of each segment but the top
+     * one is a checkpoint, kept, with its derivative, for the whole pass. The
+     * other layers of a segment are recomputed from the segment's input when
+     * the backward pass gets to it, into space shared by all the segments.
+     * With k at least the number of layers, there is one segment, and
+     * nothing is kept or recomputed.
+     */
+    static class Layout implements Serializable {
+
+        /**
+         * The number of layers in a segment.
+         */
+        final int k;
+        /**
+         * Where, per datum, the output of each checkpoint layer is kept, -1
+         * for other layers.
+         */
+        final int[] checkpoint;
+        /**
+         * Where, per datum, the output of each layer is recomputed.
+         */
+        final int[] segment;
+        /**
+         * The last checkpoint layer, -1 if there are none.
+         */
+        final int lastCheckpoint;
+        /**
+         * The values per datum for the outputs of the layers.
+         */
+        final int values;
+
+        /**
+         * The layout.
+         *
+         * @param rows The number of nodes in each layer.
+         * @param k The number of layers in a segment. Less than 1 means all
+         * of them.
+         */
+        Layout(int[] rows, int k) {
+            int layers = rows.length;
+            this.k = k < 1 || k > layers ? layers : k;
+            checkpoint = new int[layers];
+            segment = new int[layers];
+            int kept = 0, last = -1;
+            for (int i = 0; i < layers; i++) {
+                boolean isCheckpoint = (i + 1) % this.k == 0 && i < layers - 1;
+                checkpoint[i] = isCheckpoint ? kept : -1;
+                if (isCheckpoint) {
+                    kept += rows[i];
+                    last = i;
+                }
+            }
+            lastCheckpoint = last;
+            int widest = 0;
+            for (int start = 0; start < layers; start += this.k) {
+                int end = Math.min(start + this.k, layers), off = 0;
+                for (int i = start; i < end; i++) {
+                    segment[i] = kept + off;
+                    if (checkpoint[i] < 0) off += rows[i];
+                }
+                widest = Math.max(widest, off);
+            }
+            values = kept + widest;
+        }
+    }
+
+    private final Op[] ops;
+    private final int inputDim, outputDim, numVariables;
+    /**
+     * The most columns or rows of any layer, and the largest rank of any
+     * factored layer.
+     */
+    private final int widest, maxRank;
+    /**
+     * The lowest trainable layer. Nothing is backpropagated below it.
+     */
+    private final int lowestTrainable;
+    /**
+     * The layout without checkpoints.
+     */
+    private final Layout full;
+
+    private static final Counter RECOMPUTED = Metrics.counter("plan_recomputed_layers_total",
+            "Layers run forward a second time because of gradient checkpoints.");
+
+    /**
+     * Compiles the layers of a network.
+     *
+     * @param layers The layers, the one applied directly to the data first.
+     * @param architecture The architecture of the layers.
+     */
+    ExecutionPlan(Layer[] layers, Architecture architecture) {
+        this(layers, architecture, false);
+    }
+
+    /**
+     * Compiles the lowest layers of a network, whose output is that of the
+     * highest of them.
+     *
+     * @param layers The layers, the one applied directly to the data first.
+     * @param architecture The architecture of the network the layers are
+     * from.
+     * @param trainAll True for the gradient to include every layer, frozen
+     * or not.
+     */
+    ExecutionPlan(Layer[] layers, Architecture architecture, boolean trainAll) {
+        ops = new Op[layers.length];
+        for (int i = 0; i < layers.length; i++)
+            ops[i] = new Op(layers[i], i, trainAll || architecture.isTrainable(i));
+        full = layout(0);
+        lowestTrainable = trainAll ? 0 : architecture.lowestTrainable();
+        widest = architecture.widestLayer();
+        maxRank = architecture.maxRank();
+        inputDim = architecture.inputDim();
+        LayerArchitecture top = layers[layers.length - 1].architecture;
+        outputDim = top.rows;
+        numVariables = top.startIndex + top.length();
+    }
+
+    /**
+     * The layout with checkpoints every k layers.
+     */
+    private Layout layout(int k) {
+        if (full != null && (k < 1 || k >= ops.length)) return full;
+        int[] rows = new int[ops.length];
+        for (int i = 0; i < ops.length; i++) rows[i] = ops[i].rows;
+        return new Layout(rows, k);
+    }
+
+    /**
+     * Buffers for running data through a plan. A workspace grows to fit the
+     * largest batch it has been used for, and must only be used by one thread
+     * at a time. It can be used with any plan for the same architecture, so
+     * that networks made for each step of an optimizer can share one. Each
+     * datum in a batch takes {@link Architecture#valuesPerDatum(int)} doubles.
+     */
+    public static class Workspace {
+
+        private final int inputDim, widest, maxRank;
+        private double[] input, activations, derivatives, delta, prevDelta, inner;
+        /**
+         * The weight of each datum's cost, and each datum's cost.
+         */
+        private double[] weights, costs;
+        private int[] types;
+
+        private Workspace(int inputDim, int widest, int maxRank) {
+            this.inputDim = inputDim;
+            this.widest = widest;
+            this.maxRank = maxRank;
+            ensure(1, 0);
+        }
+
+        /**
+         * Makes sure the buffers can hold a batch of the given size, with
+         * the given values per datum for the outputs of the layers.
+         */
+        private void ensure(int batch, int values) {
+            input = fit(input, inputDim * batch);
+            activations = fit(activations, values * batch);
+            derivatives = fit(derivatives, values * batch);
+            delta = fit(delta, widest * batch);
+            prevDelta = fit(prevDelta, widest * batch);
+            inner = fit(inner, maxRank * batch);
+            weights = fit(weights, batch);
+            costs = fit(costs, batch);
+            if (types == null || types.length < batch) types = new int[batch];
+        }
+
+        private double[] fit(double[] a, int length) {
+            return a != null && a.length >= length ? a : new double[length];
+        }
+    }
+
+    /**
+     * A new workspace for this plan.
+     *
+     * @return A new workspace for this plan.
+     */
+    public Workspace workspace() {
+        return new Workspace(inputDim, widest, maxRank);
+    }
+
+    /**
+     * A new workspace for the plans of an architecture.
+     *
+     * @param architecture The architecture.
+     * @return A new workspace for any plan of the architecture.
+     */
+    static Workspace workspace(Architecture architecture) {
+        return new Workspace(architecture.inputDim(), architecture.widestLayer(), architecture.maxRank());
+    }
+
+    /**
+     * Runs layer i on a batch.
+     *
+     * @param out Where the output is written.
+     * @param outOff Where the output starts.
+     * @param ddt If not null, the derivatives of the activation function are
+     * written here, at the same place as the output.
+     */
+    private void layer(Backend blas, int i, double[] in, int inOff, int batch,
+            double[] out, int outOff, double[] ddt, Workspace ws) {
+        Op op = ops[i];
+        LayerForwardEvent event = new LayerForwardEvent();
+        event.begin();
+
+        int end = outOff + op.rows * batch;
+        op.affine(blas, in, inOff, batch, out, outOff, ws.inner);
+
+        ActivationEvent actEvent = new ActivationEvent();
+        actEvent.begin();
+        if (ddt != null) op.actFunc.ati(out, outOff, end, ddt);
+        else op.actFunc.applyi(out, outOff, end);
+        if (actEvent.shouldCommit()) {
+            actEvent.function = op.actFunc.name();
+            actEvent.layer = op.index;
+            actEvent.rows = op.rows;
+            actEvent.batch = batch;
+            actEvent.derivative = ddt != null;
+            actEvent.commit();
+        }
+
+        if (event.shouldCommit()) {
+            event.layer = op.index;
+            event.rows = op.rows;
+            event.cols = op.cols;
+            event.batch = batch;
+            event.commit();
+        }
+    }
+
+    /**
+     * Runs a batch forward through the network, alternating between the
+     * workspace's two delta buffers.
+     *
+     * @return The buffer the output of the network is at the start of.
+     */
+    private double[] forward(double[] x, int xOff, int batch, Workspace ws) {
+        Backend blas = Backends.get();
+        double[] in = x, out = ws.delta;
+        int inOff = xOff;
+        for (int i = 0; i < ops.length; i++) {
+            layer(blas, i, in, inOff, batch, out, 0, null, ws);
+            in = out;
+            inOff = 0;
+            out = out == ws.delta ? ws.prevDelta : ws.delta;
+        }
+        return in;
+    }
+
+    /**
+     * Applies the network to a batch.
+     *
+     * @param x A matrix each of whose columns is a datum.
+     * @param ws The workspace.
+     * @return A new matrix whose column i is the output for column i of x.
+     */
+    public DoubleMatrix apply(DoubleMatrix x, Workspace ws) {
+        ws.ensure(x.columns, 0);
+        double[] out = forward(x.data, 0, x.columns, ws);
+        DoubleMatrix y = new DoubleMatrix(outputDim, x.columns);
+        System.arraycopy(out, 0, y.data, 0, y.length);
+        return y;
+    }
+
+    /**
+     * Applies the network to a datum.
+     *
+     * @param in The datum.
+     * @param out The output is written here.
+     * @param ws The workspace.
+     * @return out.
+     */
+    public double[] predict(double[] in, double[] out, Workspace ws) {
+        System.arraycopy(forward(in, 0, 1, ws), 0, out, 0, outputDim);
+        return out;
+    }
+
+    /**
+     * Backpropagates the cost of a batch whose classifications and weights
+     * are in the workspace, and leaves each datum's cost there. The batch is first run forward to the last
+     * checkpoint, keeping only the checkpoints. Then each segment, from the
+     * top down, is run forward again from its input, keeping every output,
+     * and the partial derivatives are backpropagated through it, down to the
+     * lowest trainable layer. Segments below it are not run again, and the
+     * derivatives of the activation functions below it are not computed.
+     *
+     * @param outputWeights If not null, what is backpropagated is the sum of
+     * the outputs of a batch of one datum, each times its weight here,
+     * instead of the cost.
+     * @return The weighted sum of the costs of the batch, 0 with output
+     * weights.
+     */
+    private double backprop(double[] x, int xOff, int batch, Layout layout, Workspace ws,
+            double[] outputWeights, double[] grad) {
+        Backend blas = Backends.get();
+        ws.ensure(batch, layout.values);
+        double[] act = ws.activations, ddt = ws.derivatives;
+
+        int lowest = lowestTrainable;
+        double[] in = x, scratch = ws.delta;
+        int inOff = xOff;
+        for (int i = 0; i <= layout.lastCheckpoint; i++) {
+            boolean keep = layout.checkpoint[i] >= 0;
+            double[] out = keep ? act : scratch;
+            int outOff = keep ? layout.checkpoint[i] * batch : 0;
+            layer(blas, i, in, inOff, batch, out, outOff, keep && i >= lowest ? ddt : null, ws);
+            if (!keep) scratch = scratch == ws.delta ? ws.prevDelta : ws.delta;
+            in = out;
+            inOff = outOff;
+        }
+        if (Metrics.ENABLED && layout.lastCheckpoint >= 0)
+            RECOMPUTED.add(layout.lastCheckpoint + 1 - (layout.lastCheckpoint + 1) / layout.k);
+
+        double[] delta = ws.delta, prev = ws.prevDelta;
+        double cost = 0;
+        int k = layout.k;
+        for (int start = (ops.length - 1) / k * k; start >= 0; start -= k) {
+            int end = Math.min(start + k, ops.length);
+            boolean top = end == ops.length;
+            if (!top && end <= lowest) break;
+            double[] segIn = start == 0 ? x : act;
+            int segInOff = start == 0 ? xOff : layout.checkpoint[start - 1] * batch;
+
+            in = segIn;
+            inOff = segInOff;
+            for (int i = start; i < (top ? end : end - 1); i++) {
+                int outOff = layout.segment[i] * batch;
+                layer(blas, i, in, inOff, batch, act, outOff, i >= lowest || i == ops.length - 1 ? ddt : null, ws);
+                in = act;
+                inOff = outOff;
+            }
+
+            if (top && outputWeights != null) {
+                Op op = ops[ops.length - 1];
+                int out = layout.segment[ops.length - 1];
+                for (int row = 0; row < op.rows; row++) delta[row] = outputWeights[row] * ddt[out + row];
+            } else if (top) {
+                Op op = ops[ops.length - 1];
+                int out = layout.segment[ops.length - 1] * batch;
+                for (int j = 0, col = 0; j < batch; j++, col += op.rows) {
+                    double w = ws.weights[j], c = 0;
+                    for (int row = 0; row < op.rows; row++) {
+                        double r = act[out + col + row] - (row == ws.types[j] ? 1 : 0);
+                        c += r * r;
+                        delta[col + row] = w * r * ddt[out + col + row];
+                    }
+                    ws.costs[j] = c;
+                    cost += w * c;
+                }
+            }
+
+            for (int i = end - 1; i >= Math.max(start, lowest); i--) {
+                LayerBackwardEvent event = new LayerBackwardEvent();
+                event.begin();
+
+                Op op = ops[i];
+                boolean first = i == start;
+                if (op.trainable)
+                    op.addGrad(blas, first ? segIn : act, first ? segInOff : layout.segment[i - 1] * batch,
+                            batch, delta, ws.inner, grad);
+                if (i > lowest) {
+                    op.backward(blas, delta, batch, prev, ws.inner);
+                    int d = (first ? layout.checkpoint[i - 1] : layout.segment[i - 1]) * batch;
+                    for (int j = 0; j < op.cols * batch; j++) prev[j] *= ddt[d + j];
+                    double[] swap = delta;
+                    delta = prev;
+                    prev = swap;
+                }
+
+                if (event.shouldCommit()) {
+                    event.layer = op.index;
+                    event.rows = op.rows;
+                    event.cols = op.cols;
+                    event.batch = batch;
+                    event.commit();
+                }
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Adds the gradient of the cost at a datum to grad. As with
+     * {@link NeuralNetwork#gradCost(data.Datum)}, the gradient is half the
+     * gradient of the cost, the derivatives of the outputs times the
+     * difference between the outputs and the unit vector for the datum's
+     * classification.
+     *
+     * @param x The datum.
+     * @param ws The workspace.
+     * @param grad The gradient is added to this array, of length
+     * {@link Architecture#numVariables()}.
+     * @return The cost at x.
+     */
+    public double addGradCost(Datum x, Workspace ws, double[] grad) {
+        ws.ensure(1, full.values);
+        ws.types[0] = x.type;
+        ws.weights[0] = 1;
+        return backprop(x.data, 0, 1, full, ws, null, grad);
+    }
+
+    /**
+     * Adds the gradient of a weighted sum of the outputs at a datum to grad.
+     * With a unit vector for the weights, it is the gradient of one output,
+     * a row of the Jacobian of the network.
+     *
+     * @param x The datum.
+     * @param outputWeights The weight of each output.
+     * @param ws The workspace.
+     * @param grad The gradient is added to this array.
+     */
+    void addGradOutputs(double[] x, double[] outputWeights, Workspace ws, double[] grad) {
+        ws.ensure(1, full.values);
+        backprop(x, 0, 1, full, ws, outputWeights, grad);
+    }
+
+    /**
+     * Adds the sum of the gradients of the cost over a batch of data to grad.
+     * See {@link #addGradCost(data.Datum, Workspace, double[])}.
+     *
+     * @param data The data.
+     * @param from The index of the first datum in the batch.
+     * @param to The index after the last datum in the batch.
+     * @param ws The workspace.
+     * @param grad The gradient is added to this array.
+     * @return The sum of the costs over the batch.
+     */
+    public double addGradCost(Datum[] data, int from, int to, Workspace ws, double[] grad) {
+        return addGradCost(data, from, to, 0, ws, grad);
+    }
+
+    /**
+     * Adds the sum of the gradients of the cost over a batch of data to
+     * grad, keeping the outputs of only every k-th layer through the pass and
+     * recomputing the rest. With k about the square root of the number of
+     * layers, the workspace holds the outputs of about twice that many
+     * layers instead of all of them. See
+     * {@link Architecture#recomputeOverhead(int)} for the cost.
+     *
+     * @param data The data.
+     * @param from The index of the first datum in the batch.
+     * @param to The index after the last datum in the batch.
+     * @param checkpointEvery k, the number of layers between checkpoints.
+     * Less than 1, or at least the number of layers, keeps every output.
+     * @param ws The workspace.
+     * @param grad The gradient is added to this array.
+     * @return The sum of the costs over the batch.
+     */
+    public double addGradCost(Datum[] data, int from, int to, int checkpointEvery, Workspace ws, double[] grad) {
+        return addGradCost(data, from, to, null, null, checkpointEvery, ws, grad);
+    }
+
+    /**
+     * Adds the weighted sum of the gradients of the cost over a batch of data
+     * to grad, and records the cost of each datum. See
+     * {@link #addGradCost(data.Datum[], int, int, int, Workspace, double[])}.
+     *
+     * @param data The data.
+     * @param from The index of the first datum in the batch.
+     * @param to The index after the last datum in the batch.
+     * @param weights The weight of each datum's cost, at the same index as
+     * the datum, or null to weigh them all 1.
+     * @param costs The unweighted cost of each datum is written here, at the
+     * same index as the datum, if this isn't null.
+     * @param checkpointEvery The number of layers between checkpoints, less
+     * than 1 for none.
+     * @param ws The workspace.
+     * @param grad The gradient is added to this array.
+     * @return The weighted sum of the costs over the batch.
+     */
+    public double addGradCost(Datum[] data, int from, int to, double[] weights, double[] costs,
+            int checkpointEvery, Workspace ws, double[] grad) {
+        int batch = to - from;
+        Layout layout = layout(checkpointEvery);
+        ws.ensure(batch, layout.values);
+        load(data, from, to, weights, ws);
+        double cost = backprop(ws.input, 0, batch, layout, ws, null, grad);
+        if (costs != null) System.arraycopy(ws.costs, 0, costs, from, batch);
+        return cost;
+    }
+
+    /**
+     * The weighted sum of the costs over a batch of data, without the
+     * gradient.
+     *
+     * @param data The data.
+     * @param from The index of the first datum in the batch.
+     * @param to The index after the last datum in the batch.
+     * @param weights The weight of each datum's cost, at the same index as
+     * the datum, or null to weigh them all 1.
+     * @param ws The workspace.
+     * @return The weighted sum of the costs.
+     */
+    public double cost(Datum[] data, int from, int to, double[] weights, Workspace ws) {
+        int batch = to - from;
+        ws.ensure(batch, 0);
+        load(data, from, to, weights, ws);
+        double[] out = forward(ws.input, 0, batch, ws);
+        double cost = 0;
+        for (int j = 0, col = 0; j < batch; j++, col += outputDim) {
+            double c = 0;
+            for (int row = 0; row < outputDim; row++) {
+                double r = out[col + row] - (row == ws.types[j] ? 1 : 0);
+                c += r * r;
+            }
+            cost += ws.weights[j] * c;
+        }
+        return cost;
+    }
+
+    /**
+     * Copies a batch of data, their classifications and weights into a
+     * workspace.
+     */
+    private void load(Datum[] data, int from, int to, double[] weights, Workspace ws) {
+        BatchAssemblyEvent event = new BatchAssemblyEvent();
+        event.begin();
+        for (int i = 0; i < to - from; i++) {
+            System.arraycopy(data[from + i].data, 0, ws.input, i * inputDim, inputDim);
+            ws.types[i] = data[from + i].type;
+            ws.weights[i] = weights == null ? 1 : weights[from + i];
+        }
+        if (event.shouldCommit()) {
+            event.source = "training";
+            event.batch = to - from;
+            event.dim = inputDim;
+            event.commit();
+        }
+    }
+
+    /**
+     * The number of layers.
+     *
+     * @return The number of layers.
+     */
+    public int numLayers() {
+        return ops.length;
+    }
+
+    /**
+     * The length of the gradients this plan computes.
+     *
+     * @return The number of weights and biases in the network.
+     */
+    public int numVariables() {
+        return numVariables;
+    }
+
+}
@@ -0,0 +1,96 @@
+package neuralnetwork;
+
+/**
+ * Runs data through a neural network's {@link ExecutionPlan} using a
+ * workspace allocated once, when the session is created, so that predictions
+ * don't allocate anything. A session holds state between calls and must only
+ * be used by one thread at a time.
+ * Use {@link NeuralNetwork#session()} for a new session or
+ * {@link NeuralNetwork#localSession()} for the calling thread's session.
+ *
+ * @author Dov Neimand
+ */
+public class InferenceSession {
+
+    private final ExecutionPlan plan;
+    private final ExecutionPlan.Workspace workspace;
+    private final double[] out;
+
+    /**
+     * The constructor.
+     *
+     * @param nn The neural network this session runs.
+     */
+    InferenceSession(NeuralNetwork nn) {
+        plan = nn.plan();
+        workspace = plan.workspace();
+        out = new double[nn.architecture.outputDim()];
+    }
+
+    /**
+     * The workspace this session runs the network's plan with.
+     *
+     * @return The workspace.
+     */
+    ExecutionPlan.Workspace workspace() {
+        return workspace;
+    }
+
+    /**
+     * Applies the network to a datum.
+     *
+     * @param in The datum. It is not changed.
+     * @param out The output of the network is written here. Its length should
+     * be the number of nodes in the top layer.
+     * @return out.
+     */
+    public double[] predict(double[] in, double[] out) {
+        return plan.predict(in, out, workspace);
+    }
+
+    /**
+     * Applies the network to a datum, writing the output into this session's
+     * buffer.
+     *
+     * @param in The datum.
+     * @return The output of the network. The array belongs to this session
+     * and is overwritten by the next call.
+     */
+    private double[] predict(double[] in) {
+        return predict(in, out);
+    }
+
+    /**
+     * The classification the network gives a datum.
+     *
+     * @param in The datum.
+     * @return The index of the largest output.
+     */
+    public int argmax(double[] in) {
+        double[] out = predict(in);
+        int argMax = 0;
+        for (int i = 1; i < out.length; i++)
+            if (out[i] > out[argMax]) argMax = i;
+        return argMax;
+    }
+
+    /**
+     * The cost of the network at a datum. See
+     * {@link NeuralNetwork#cost(data.Datum)}.
+     *
+     * @param in The datum.
+     * @param type The datum's classification.
+     * @return The squared distance between the output and the unit vector
+     * for type.
+     */
+    public double cost(double[] in, int type) {
+        double[] out = predict(in);
+        double cost = 0;
+        for (int i = 0; i < out.length; i++) {
+            double diff = out[i] - (i == type ? 1 : 0);
+            cost += diff * diff;
+        }
+        return cost;
+    }
+
+}
@@ -5,7 +5,8 @@ import data.Datum;
 import java.io.Serializable;
 import java.util.function.Function;
 import org.jblas.DoubleMatrix;
-import org.jblas.NativeBlas;
+import compute.Backend;
+import compute.Backends;
 
 /**
  * A layer of the neural network.
@@ -13,7 +14,22 @@ import org.jblas.NativeBlas;
  */
 public class Layer implements Function<DoubleMatrix, DoubleMatrix>, Serializable {
 
+    /**
+     * Layers whose weights have at least this fraction of zeros store them as
+     * a {@link SparseMatrix} and multiply with sparse kernels.
+     */
+    public static final double SPARSE_THRESHOLD = 0.75;
+
     private DoubleMatrix weights, bias;
+    /**
+     * The weights in sparse format. If this is not null, then weights is.
+     */
+    private SparseMatrix sparseWeights;
+    /**
+     * If the layer is factored, the weights are factorU times factorV, and
+     * weights is null. See {@link LayerArchitecture#rank}.
+     */
+    private DoubleMatrix factorU, factorV;
     /**
      * The activation function for this layer.
      */
@@ -52,7 +68,7 @@ public class Layer implements Function<DoubleMatrix, DoubleMatrix>, Serializable
             Layer subLayer, 
             LayerArchitecture layerArch) {
         
-        this.weights = weights;
+        if (weights != null) setWeights(weights);
         this.bias = bias;
         this.actFunc = af;
         this.subLayer = subLayer;
@@ -86,28 +102,6 @@ public class Layer implements Function<DoubleMatrix, DoubleMatrix>, Serializable
         }
     }
 
-    /**
-     * Adds the product of a and b to the beginning of c.
-     * @param a The first matrix, n x m.
-     * @param b The second matrix, m x r.
-     * @param c The resulting matrix n x p where p > r.
-     */
-    private static void gemm(DoubleMatrix a, DoubleMatrix b, DoubleMatrix c) {
-        NativeBlas.dgemm('N', 'N', c.rows, b.columns, a.columns, 1, a.data, 0, a.rows, b.data, 0, b.rows, 1, c.data, 0, c.rows);
-    }
-    
-    /**
-     * This method calculated the partial derivative of weights and biases that
-     * are in the operand. Multiplies the weights by the gradient of the
-     * sublayer and copies the results into the gradient on this layer.
-     *
-     * @param grad The gradient so far calculated for this layer.
-     * @param btr The results from the sublayer.
-     */
-    private void wInOperand(DoubleMatrix grad, BackTrackResult btr) {
-        if (hasSubLayer())  gemm(weights, btr.grad, grad);
-    }
-
     /**
      * This is for calculates the the partial derivative with respect to weights
      * in this layer.
@@ -116,32 +110,17 @@ public class Layer implements Function<DoubleMatrix, DoubleMatrix>, Serializable
      * @param grad The uncompleted gradient.
      */
     public void wIsWeight(DoubleMatrix grad, BackTrackResult btr) {
-        for (int col = 0, w = 0; col < weights.columns; col++) //indecies ordered (0,0), (1,0), ..., (n, 0), (1,0), (1,1), ..., (1,n), ...
-            for (int row = 0; row < weights.rows; row++, w++)
+        for (int col = 0, w = 0; col < architecture.cols; col++) //indecies ordered (0,0), (1,0), ..., (n, 0), (1,0), (1,1), ..., (1,n), ...
+            for (int row = 0; row < architecture.rows; row++, w++)
                 grad.put(row, btr.grad.columns + w, btr.val.get(col));
     }
 
-    /**
-     * Computes the partial derivative with respect to the biases in this layer,
-     * and adds them to the gradient being built.
-     *
-     * @param grad The gradient being built.
-     * @param btr The result of the sublayer work.
-     */
-    private void wIsBias(DoubleMatrix grad, BackTrackResult btr) {
-        for (int row = 0; row < weights.rows; row++)
-            grad.put(row, btr.grad.columns + weights.length + row, 1);
-    }
-    
-    private BackTrackResult subLayerGrad(Datum x){
-        return hasSubLayer()
-                ? subLayer.grad(x)
-                : new BackTrackResult(DoubleMatrix.EMPTY, x);
-    }
-
     /**
      * The gradient of this layer as a function of the weights and biases
-     * applied to x.
+     * applied to x. It is computed by backpropagating each node of this layer
+     * through the {@link ExecutionPlan} of this layer and the layers beneath
+     * it, which is made for the call. Training and prediction use the plan of
+     * the whole network, {@link NeuralNetwork#plan()}, instead.
      *
      * @param x The point the neural network is being applied to. For the
      * purposes of computing the gradient, this is considered a constant.
@@ -150,22 +129,29 @@ public class Layer implements Function<DoubleMatrix, DoubleMatrix>, Serializable
      * weights and biases for one of the highest layer nodes.
      */
     public BackTrackResult grad(Datum x) {
+        ExecutionPlan plan = plan();
+        ExecutionPlan.Workspace ws = plan.workspace();
+        DoubleMatrix grad = new DoubleMatrix(architecture.rows, plan.numVariables()),
+                row = new DoubleMatrix(1, plan.numVariables());
+        double[] node = new double[architecture.rows];
+        for (int r = 0; r < node.length; r++) {
+            node[r] = 1;
+            plan.addGradOutputs(x.data, node, ws, row.fill(0).data);
+            for (int col = 0; col < row.length; col++) grad.put(r, col, row.data[col]);
+            node[r] = 0;
+        }
+        return new BackTrackResult(grad, plan.apply(x, ws));
+    }
 
-        BackTrackResult btr = subLayerGrad(x);
-
-        DoubleMatrix grad
-                = new DoubleMatrix(architecture.rows, architecture.startIndex + architecture.length());
-
-        wInOperand(grad, btr);
-        wIsWeight(grad, btr);
-        wIsBias(grad, btr);
-        
-        ActivationFunction.AtVector actFuncAt = actFunc.ati(affineTransf(btr.val));
-
-        return new BackTrackResult(
-                grad.muliColumnVector(actFuncAt.ddt),
-                actFuncAt.val
-        );
+    /**
+     * This layer and the layers beneath it, compiled into a plan whose output
+     * is this layer's, with every layer in the gradient.
+     */
+    private ExecutionPlan plan() {
+        Layer[] layers = new Layer[index() + 1];
+        Layer layer = this;
+        for (int i = layers.length - 1; i >= 0; i--, layer = layer.subLayer) layers[i] = layer;
+        return new ExecutionPlan(layers, architecture.networkArchitecture, true);
     }
 
     /**
@@ -178,10 +164,14 @@ public class Layer implements Function<DoubleMatrix, DoubleMatrix>, Serializable
      * @param sub The sublayer of this layer.
      */
     public Layer(double[] vector, LayerArchitecture ld, ActivationFunction af, Layer sub) {
-        this(new DoubleMatrix(ld.rows, ld.cols), new DoubleMatrix(ld.rows), af, sub, ld);
-        int numWeights = ld.numWeights();
-        System.arraycopy(vector, ld.startIndex, weights.data, 0, numWeights);
-        System.arraycopy(vector, ld.startIndex + numWeights, bias.data, 0, bias.length);
+        this(ld.isFactored() ? null : weights(vector, ld), new DoubleMatrix(ld.rows), af, sub, ld);
+        if (ld.isFactored()) {
+            factorU = new DoubleMatrix(ld.rows, ld.rank);
+            factorV = new DoubleMatrix(ld.rank, ld.cols);
+            System.arraycopy(vector, ld.startIndex, factorU.data, 0, factorU.length);
+            System.arraycopy(vector, ld.startIndex + factorU.length, factorV.data, 0, factorV.length);
+        }
+        System.arraycopy(vector, ld.startIndex + ld.numWeights(), bias.data, 0, bias.length);
 
     }
 
@@ -190,17 +180,33 @@ public class Layer implements Function<DoubleMatrix, DoubleMatrix>, Serializable
      * the bias. Wx+b.
      *
      * @param vec The vector to undergo transformation. The vector is not
-     * changed.
+     * changed. This may also be a matrix, each of whose columns is a vector
+     * to be transformed.
      * @return A new vector that is the val of the affine transformation
  applied to vec.
      */
     public DoubleMatrix affineTransf(DoubleMatrix vec) {
-        return (weights.mmul(vec)).addi(bias);
+        Backend blas = Backends.get();
+        DoubleMatrix wx;
+        if (isFactored()) wx = blas.mmul(factorU, blas.mmul(factorV, vec));
+        else if (isSparse()) wx = sparseWeights.mmul(vec);
+        else wx = blas.mmul(weights, vec);
+        return wx.addiColumnVector(bias);
     }
 
+    /**
+     * This layer applied to data, through the {@link ExecutionPlan} of this
+     * layer and the layers beneath it, which is made for the call. Training
+     * and prediction use the plan of the whole network,
+     * {@link NeuralNetwork#plan()}, instead.
+     *
+     * @param vec The data the network is applied to, one datum per column.
+     * @return The output of this layer, one column per datum.
+     */
     @Override
     public DoubleMatrix apply(DoubleMatrix vec) {
-        return actFunc.applyi(affineTransf(operand(vec)));
+        ExecutionPlan plan = plan();
+        return plan.apply(vec, plan.workspace());
     }
 
     /**
@@ -215,6 +221,41 @@ public class Layer implements Function<DoubleMatrix, DoubleMatrix>, Serializable
         return x;
     }
 
+    /**
+     * Copies this layer's weights and biases into their place in the vector
+     * of all the network's weights and biases.
+     *
+     * @param vector The vector of all the weights and biases.
+     */
+    public void copyInto(double[] vector) {
+        int start = architecture.startIndex;
+        if (isFactored()) {
+            System.arraycopy(factorU.data, 0, vector, start, factorU.length);
+            System.arraycopy(factorV.data, 0, vector, start + factorU.length, factorV.length);
+        } else
+            System.arraycopy(getWeights().data, 0, vector, start, architecture.numWeights());
+        System.arraycopy(bias.data, 0, vector, start + architecture.numWeights(), bias.length);
+    }
+
+    /**
+     * The weights of a layer, copied out of the vector of all the weights and
+     * biases.
+     */
+    private static DoubleMatrix weights(double[] vector, LayerArchitecture ld) {
+        DoubleMatrix weights = new DoubleMatrix(ld.rows, ld.cols);
+        System.arraycopy(vector, ld.startIndex, weights.data, 0, ld.numWeights());
+        return weights;
+    }
+
+    /**
+     * The index of this layer, 0 if it is applied directly to the data.
+     *
+     * @return The number of layers beneath this one.
+     */
+    public int index() {
+        return hasSubLayer() ? subLayer.index() + 1 : 0;
+    }
+
     /**
      * Sets the weights of the layer. Each row of the proffered matrix is the
      * weights of a single node. TODO:Use this instead of generating new layers.
@@ -223,7 +264,63 @@ public class Layer implements Function<DoubleMatrix, DoubleMatrix>, Serializable
      * single node.
      */
     public void setWeights(DoubleMatrix weights) {
-        this.weights = weights;
+        if (isFactored())
+            throw new IllegalStateException("The weights of a factored layer "
+                    + "are set through its factors.");
+        if (SparseMatrix.sparsity(weights) >= SPARSE_THRESHOLD) {
+            sparseWeights = new SparseMatrix(weights);
+            this.weights = null;
+        } else {
+            sparseWeights = null;
+            this.weights = weights;
+        }
+    }
+
+    /**
+     * Are the weights of this layer stored in sparse format?
+     *
+     * @return True if the weights are sparse, false if they're dense.
+     */
+    public boolean isSparse() {
+        return sparseWeights != null;
+    }
+
+    /**
+     * Are the weights of this layer the product of two thinner matrices?
+     *
+     * @return True if the weights are factored, false otherwise.
+     */
+    public boolean isFactored() {
+        return factorU != null;
+    }
+
+    /**
+     * The left factor, U, of a factored layer's weights.
+     *
+     * @return The rows x rank left factor, or null if the layer is not
+     * factored.
+     */
+    public DoubleMatrix getFactorU() {
+        return factorU;
+    }
+
+    /**
+     * The right factor, V, of a factored layer's weights.
+     *
+     * @return The rank x cols right factor, or null if the layer is not
+     * factored.
+     */
+    public DoubleMatrix getFactorV() {
+        return factorV;
+    }
+
+    /**
+     * The weights of this layer in sparse format.
+     *
+     * @return The sparse weights, or null if the weights are dense.
+     */
+    public SparseMatrix getSparseWeights() {
+        return sparseWeights;
     }
 
     /**
@@ -248,12 +345,14 @@ public class Layer implements Function<DoubleMatrix, DoubleMatrix>, Serializable
     }
 
     /**
-     * The weights of this layer.
+     * The weights of this layer. If the weights are sparse or factored, then
+     * this is a new dense copy of them.
      *
      * @return The weights of this layer.
      */
     public DoubleMatrix getWeights() {
-        return weights;
+        if (isFactored()) return Backends.get().mmul(factorU, factorV);
+        return isSparse() ? sparseWeights.toDense() : weights;
     }
 
     /**
@@ -271,13 +370,13 @@ public class Layer implements Function<DoubleMatrix, DoubleMatrix>, Serializable
      * @return The sum of the number of weights and biases in this layer.
      */
     public int numberWeightsAndBiases() {
-        return weights.length + bias.length;
+        return architecture.numWeights() + bias.length;
     }
 
     @Override
     public String toString() {
         return "activation function " + actFunc.toString() + "\n"
-                + weights.toString() + "x + " + bias.toString();
+                + getWeights().toString() + "x + " + bias.toString();
     }
 
 }
@@ -14,6 +14,13 @@ public class LayerArchitecture implements Serializable{
      * the bias.
      */
     public final int rows, cols, startIndex;
+    /**
+     * If this is more than 0, then the weights matrix is the product U V of
+     * a rows x rank matrix U and a rank x cols matrix V, and those are stored
+     * instead of the full weights matrix. If this is 0, the weights matrix is
+     * stored in full.
+     */
+    public final int rank;
     /**
      * The architecture for this layer.
      */
@@ -30,12 +37,40 @@ public class LayerArchitecture implements Serializable{
      * @param network The architecture for this layer.
      */
     public LayerArchitecture(int numNodes, int numWightsPerNode, int startIndex, Architecture network) {
+        this(numNodes, numWightsPerNode, 0, startIndex, network);
+    }
+    
+    /**
+     * 
+     * @param numNodes The number of nodes in the layer.  This is the number
+     * or rows in the layer's matrix.
+     * @param numWightsPerNode The number of weights each node has. This is the
+     * number of columns int the layer's matrix.
+     * @param rank The rank of the factored weights matrix, or 0 if the 
+     * weights matrix is not factored.
+     * @param startIndex The index this networks weights start at in the 
+     * networks weight vector
+     * @param network The architecture for this layer.
+     */
+    public LayerArchitecture(int numNodes, int numWightsPerNode, int rank, int startIndex, Architecture network) {
+        if (rank < 0 || rank > Math.min(numNodes, numWightsPerNode))
+            throw new IllegalArgumentException("The rank " + rank + " must be "
+                    + "between 0 and " + Math.min(numNodes, numWightsPerNode));
         this.rows = numNodes;
         this.cols = numWightsPerNode;
+        this.rank = rank;
         this.startIndex = startIndex;
         networkArchitecture = network;
     }
     
+    /**
+     * Is the weights matrix stored as the product of two thinner matrices?
+     * @return True if the weights matrix is factored, false otherwise.
+     */
+    public boolean isFactored(){
+        return rank > 0;
+    }
+    
     /**
      * The number of values held in the layer.
      * @return The number of values held in the layer.
@@ -45,16 +80,17 @@ public class LayerArchitecture implements Serializable{
     }
     
     /**
-     * The total number of weights.
+     * The total number of weights. For a factored layer, this is the number
+     * of elements in the two factors.
      * @return The total number of weights.
      */
     public int numWeights(){
-        return rows*cols;
+        return isFactored() ? rank*(rows + cols) : rows*cols;
     }
 
     @Override
     public String toString() {
-        return rows + " x " + cols;
+        return rows + " x " + cols + (isFactored() ? " rank " + rank : "");
     }
     
     
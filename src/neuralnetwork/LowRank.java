@@ -0,0 +1,77 @@
+package neuralnetwork;
+
+import org.jblas.DoubleMatrix;
+import org.jblas.Singular;
+
+/**
+ * Converts dense layers of trained networks into factored layers using a
+ * truncated singular value decomposition. See {@link LayerArchitecture#rank}.
+ *
+ * @author Dov Neimand
+ */
+public class LowRank {
+
+    /**
+     * Factors the weights of one layer of a trained network. If W = A S B^T
+     * is the singular value decomposition of the layer's weights, then U is
+     * the first rank columns of A S and V is the first rank columns of B,
+     * transposed. This is the closest rank r matrix to W.
+     *
+     * @param nn A trained network.
+     * @param layer The index of the layer to be factored. It must not already
+     * be factored.
+     * @param rank The rank of the factorization.
+     * @return A new network whose architecture has the given layer factored,
+     * and whose other weights and biases are the same as nn's.
+     */
+    public static NeuralNetwork factor(NeuralNetwork nn, int layer, int rank) {
+        Architecture from = nn.architecture, to = from.withRank(layer, rank);
+        if (from.get(layer).isFactored())
+            throw new IllegalArgumentException("Layer " + layer + " is already "
+                    + "factored.");
+
+        double[] x = nn.weightsAndBiases(), y = new double[to.numVariables()];
+        for (int i = 0; i < from.numLayers(); i++)
+            if (i != layer)
+                System.arraycopy(x, from.get(i).startIndex, y, to.get(i).startIndex, from.get(i).length());
+
+        LayerArchitecture la = to.get(layer);
+        Layer dense = nn.layers()[layer];
+        DoubleMatrix[] usv = Singular.fullSVD(dense.getWeights());
+
+        DoubleMatrix u = new DoubleMatrix(la.rows, rank), v = new DoubleMatrix(rank, la.cols);
+        for (int k = 0; k < rank; k++) {
+            double s = usv[1].get(k);
+            for (int row = 0; row < la.rows; row++)
+                u.put(row, k, usv[0].get(row, k) * s);
+            for (int col = 0; col < la.cols; col++)
+                v.put(k, col, usv[2].get(col, k));
+        }
+
+        System.arraycopy(u.data, 0, y, la.startIndex, u.length);
+        System.arraycopy(v.data, 0, y, la.startIndex + u.length, v.length);
+        System.arraycopy(dense.getBias().data, 0, y, la.startIndex + la.numWeights(), la.rows);
+
+        return new NeuralNetwork(y, to);
+    }
+
+    /**
+     * How much of the weights of a layer a factorization of the given rank
+     * keeps, the sum of the squares of the largest rank singular values
+     * over the sum of the squares of all of them.
+     *
+     * @param weights The weights of a layer.
+     * @param rank A proposed rank.
+     * @return The fraction of the squared Frobenius norm the rank keeps.
+     */
+    public static double energy(DoubleMatrix weights, int rank) {
+        DoubleMatrix s = Singular.SVDValues(weights);
+        double kept = 0, total = 0;
+        for (int i = 0; i < s.length; i++) {
+            total += s.get(i) * s.get(i);
+            if (i < rank) kept += s.get(i) * s.get(i);
+        }
+        return total == 0 ? 1 : kept / total;
+    }
+
+}
@@ -0,0 +1,158 @@
+package neuralnetwork;
+
+import java.util.Locale;
+
+/**
+ * The memory training an architecture takes: its weights and biases, the
+ * gradients being summed, the optimizer's vectors, and the workspaces the
+ * data run through the network in. Each worker thread sums its own gradient
+ * in its own workspace, which holds, for every datum in a batch, the input,
+ * the outputs of every layer and their derivatives, and the partial
+ * derivatives being backpropagated. See {@link ExecutionPlan.Workspace}.
+ * With gradient checkpoints, only some of the outputs are kept. Workspaces
+ * hold doubles whatever the precision of the weights and biases.
+ *
+ * @author Dov Neimand
+ */
+public class MemoryEstimate {
+
+    /**
+     * The vectors the size of the weights and biases an optimizer keeps: the
+     * point, the gradient there, and the point being tried.
+     */
+    public static final int OPTIMIZER_VECTORS = 3;
+
+    /**
+     * What is estimated. The precision is that of the weights, biases,
+     * gradients and optimizer vectors.
+     */
+    public final Architecture architecture;
+    public final ModelFile.Precision precision;
+    public final int batchSize, workers;
+    /**
+     * The number of layers between gradient checkpoints, less than 1 for
+     * none.
+     */
+    public final int checkpointEvery;
+
+    /**
+     * The bytes of each part of the estimate.
+     */
+    public final long parameters, gradients, optimizerState, activations;
+
+    /**
+     * Estimates the memory training takes.
+     *
+     * @param architecture The architecture.
+     * @param precision The size of each value outside the workspaces.
+     * @param batchSize The number of data run through the network together.
+     * @param workers The number of worker threads.
+     * @param checkpointEvery The number of layers between gradient
+     * checkpoints, less than 1 for none.
+     */
+    public MemoryEstimate(Architecture architecture, ModelFile.Precision precision, int batchSize,
+            int workers, int checkpointEvery) {
+        this.architecture = architecture;
+        this.precision = precision;
+        this.batchSize = batchSize;
+        this.workers = workers;
+        this.checkpointEvery = checkpointEvery;
+        long vector = (long) architecture.numVariables() * precision.bytes;
+        parameters = vector;
+        gradients = (workers + 1) * vector;
+        optimizerState = OPTIMIZER_VECTORS * vector;
+        activations = (long) workers * batchSize * perDatum(architecture, checkpointEvery);
+    }
+
+    /**
+     * The bytes each datum in a batch takes in a workspace, whose values are
+     * doubles.
+     *
+     * @param architecture The architecture.
+     * @param checkpointEvery The number of layers between gradient
+     * checkpoints, less than 1 for none.
+     * @return The bytes of workspace per datum.
+     */
+    public static long perDatum(Architecture architecture, int checkpointEvery) {
+        return (long) Double.BYTES * architecture.valuesPerDatum(checkpointEvery) + Integer.BYTES;
+    }
+
+    /**
+     * The bytes that don't depend on the batch size.
+     *
+     * @return The bytes for the weights, biases, gradients and optimizer.
+     */
+    public long fixed() {
+        return parameters + gradients + optimizerState;
+    }
+
+    /**
+     * The total bytes.
+     *
+     * @return The total bytes.
+     */
+    public long total() {
+        return fixed() + activations;
+    }
+
+    /**
+     * The largest batch whose estimate fits in a budget.
+     *
+     * @param architecture The architecture.
+     * @param precision The size of each value outside the workspaces.
+     * @param workers The number of worker threads.
+     * @param checkpointEvery The number of layers between gradient
+     * checkpoints, less than 1 for none.
+     * @param budget The bytes available.
+     * @return The largest batch size that fits, or 0 if not even a single
+     * datum does.
+     */
+    public static int largestBatch(Architecture architecture, ModelFile.Precision precision, int workers,
+            int checkpointEvery, long budget) {
+        long free = budget - new MemoryEstimate(architecture, precision, 0, workers, checkpointEvery).fixed();
+        if (free <= 0) return 0;
+        return (int) Math.min(Integer.MAX_VALUE,
+                free / (workers * perDatum(architecture, checkpointEvery)));
+    }
+
+    /**
+     * Bytes in the largest unit that leaves at least 1.
+     */
+    private static String size(long bytes) {
+        String[] units = {"B", "KB", "MB", "GB", "TB"};
+        int unit = 0;
+        double scaled = bytes;
+        while (Math.abs(scaled) >= 1024 && unit < units.length - 1) {
+            scaled /= 1024;
+            unit++;
+        }
+        return String.format(Locale.ROOT, "%10.1f %s", scaled, units[unit]);
+    }
+
+    /**
+     * A report of the estimate against a budget.
+     *
+     * @param budget The bytes available.
+     * @return The parts of the estimate, the total and the budget, one per
+     * line.
+     */
+    public String report(long budget) {
+        return toString() + "\n  budget             " + size(budget)
+                + (total() <= budget ? "" : "   short by " + size(total() - budget).trim());
+    }
+
+    @Override
+    public String toString() {
+        return "Memory for " + architecture + " with batches of " + batchSize + " on " + workers
+                + " workers at " + precision + " precision"
+                + (checkpointEvery > 0 ? " with checkpoints every " + checkpointEvery + " layers" : "") + ":"
+                + "\n  parameters         " + size(parameters)
+                + "\n  gradients          " + size(gradients)
+                + "\n  optimizer state    " + size(optimizerState)
+                + "\n  activations        " + size(activations)
+                + "\n  total              " + size(total())
+                + (checkpointEvery > 0 ? String.format(Locale.ROOT, "\n  recomputation      %10.1f %%",
+                        100 * architecture.recomputeOverhead(checkpointEvery)) : "");
+    }
+
+}
@@ -0,0 +1,187 @@
+package neuralnetwork;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import neuralnetwork.ActivationFunctions.ActivationFunction;
+
+/**
+ * Reads and writes neural networks in a compact binary format. The file is a
+ * header describing the {@link Architecture} followed by the flat vector of
+ * weights and biases, in the same order as {@link Architecture#getIndex(int)}.
+ * Everything is little endian.
+ *
+ * <pre>
+ * int    magic, "NNMF"
+ * int    version
+ * byte   precision, the number of bytes per parameter: 4 or 8
+ * short  length of the activation function's name
+ * byte[] the activation function's name, UTF-8
+ * int    input dimension
+ * int    number of layers
+ * int[]  the number of nodes in each layer
+ * int[]  the rank of each layer, 0 if it is not factored
+ * int    number of parameters
+ *        padding to a multiple of 8 bytes
+ * the parameters
+ * </pre>
+ *
+ * @author Dov Neimand
+ */
+public class ModelFile {
+
+    /**
+     * The first four bytes of every model file.
+     */
+    public static final int MAGIC = 0x4E4E4D46;
+    /**
+     * The version of the format written by this class.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The number of bytes used to store each parameter.
+     */
+    public enum Precision {
+        /**
+         * 4 byte floats. This halves the file size at the cost of accuracy.
+         */
+        FLOAT(4),
+        /**
+         * 8 byte doubles.
+         */
+        DOUBLE(8);
+
+        /**
+         * The number of bytes in a parameter.
+         */
+        public final int bytes;
+
+        private Precision(int bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * The precision that uses the given number of bytes.
+         *
+         * @param bytes The number of bytes in a parameter.
+         * @return The precision that uses the given number of bytes.
+         */
+        public static Precision of(int bytes) {
+            for (Precision p : values()) if (p.bytes == bytes) return p;
+            throw new IllegalArgumentException("No precision with " + bytes
+                    + " bytes.");
+        }
+    }
+
+    /**
+     * The bytes needed for the header.
+     *
+     * @param arch The architecture being described.
+     * @param name The encoded name of the activation function.
+     * @return The bytes needed for the header, padded to a multiple of 8.
+     */
+    private static int headerSize(Architecture arch, byte[] name) {
+        int size = 4 + 4 + 1 + 2 + name.length + 4 + 4 + 8 * arch.numLayers() + 4;
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * Writes a neural network to a file. The file is first written beside the
+     * destination and then moved into place.
+     *
+     * @param nn The neural network to be written.
+     * @param file The destination.
+     * @param precision The number of bytes to store each parameter in.
+     * @throws IOException If the file can't be written.
+     */
+    public static void write(NeuralNetwork nn, Path file, Precision precision)
+            throws IOException {
+        Architecture arch = nn.architecture;
+        byte[] name = arch.getActFunc().name().getBytes(StandardCharsets.UTF_8);
+        double[] params = nn.weightsAndBiases();
+
+        int headerSize = headerSize(arch, name);
+        ByteBuffer buf = ByteBuffer
+                .allocate(headerSize + params.length * precision.bytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        buf.putInt(MAGIC).putInt(VERSION).put((byte) precision.bytes)
+                .putShort((short) name.length).put(name)
+                .putInt(arch.inputDim()).putInt(arch.numLayers());
+        for (int i = 0; i < arch.numLayers(); i++) buf.putInt(arch.get(i).rows);
+        for (int i = 0; i < arch.numLayers(); i++) buf.putInt(arch.get(i).rank);
+        buf.putInt(params.length);
+
+        buf.position(headerSize);
+        if (precision == Precision.DOUBLE) buf.asDoubleBuffer().put(params);
+        else for (int i = 0; i < params.length; i++)
+                buf.putFloat(headerSize + i * Float.BYTES, (float) params[i]);
+        buf.position(0);
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) fc.write(buf);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a neural network from a file. The parameter block is memory mapped
+     * and bulk copied into the network's parameter vector.
+     *
+     * @param file The file to be read.
+     * @return The neural network in the file.
+     * @throws IOException If the file can't be read or is not a model file.
+     */
+    public static NeuralNetwork read(Path file) throws IOException {
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buf.getInt() != MAGIC)
+                throw new IOException(file + " is not a model file.");
+            int version = buf.getInt();
+            if (version != VERSION)
+                throw new IOException(file + " has format version " + version
+                        + " but only version " + VERSION + " can be read.");
+
+            Precision precision = Precision.of(buf.get());
+            byte[] name = new byte[buf.getShort()];
+            buf.get(name);
+            int inputDim = buf.getInt();
+            int[] nodes = new int[buf.getInt()];
+            for (int i = 0; i < nodes.length; i++) nodes[i] = buf.getInt();
+            int[] ranks = new int[nodes.length];
+            for (int i = 0; i < ranks.length; i++) ranks[i] = buf.getInt();
+
+            Architecture arch = new Architecture(ActivationFunction.forName(
+                    new String(name, StandardCharsets.UTF_8)), inputDim, ranks, nodes);
+
+            double[] params = new double[buf.getInt()];
+            if (params.length != arch.numVariables())
+                throw new IOException(file + " has " + params.length
+                        + " parameters but its architecture calls for "
+                        + arch.numVariables());
+
+            buf.position(headerSize(arch, name));
+            if (precision == Precision.DOUBLE) buf.asDoubleBuffer().get(params);
+            else {
+                int start = buf.position();
+                for (int i = 0; i < params.length; i++)
+                    params[i] = buf.getFloat(start + i * Float.BYTES);
+            }
+
+            return new NeuralNetwork(params, arch);
+        }
+    }
+
+}
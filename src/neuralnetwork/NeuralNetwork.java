@@ -1,13 +1,8 @@
 package neuralnetwork;
 
 import data.Datum;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.nio.file.Paths;
 import java.util.function.Function;
 import optimization.FuncAt;
 import org.jblas.DoubleMatrix;
@@ -16,10 +11,17 @@ import org.jblas.DoubleMatrix;
  *
  * @author Dov Neimand
  */
-public class NeuralNetwork implements Function<DoubleMatrix, DoubleMatrix>, Serializable {
+public class NeuralNetwork implements Function<DoubleMatrix, DoubleMatrix> {
 
     private Layer topLayer;
 
+    /**
+     * The layers compiled into a flat plan, which apply and gradCost run.
+     */
+    private final ExecutionPlan plan;
+    
+    private final ThreadLocal<InferenceSession> sessions;
+
     /**
      * The networks architecture.
      */
@@ -36,11 +38,30 @@ public class NeuralNetwork implements Function<DoubleMatrix, DoubleMatrix>, Seri
         architecture = layerDims;
         for (int layerInd = 0; layerInd < layerDims.numLayers(); layerInd++)
             topLayer = new Layer(x, layerDims.get(layerInd), layerDims.getActFunc(), topLayer);
+        plan = new ExecutionPlan(layers(), layerDims);
+        sessions = ThreadLocal.withInitial(this::session);
     }
 
+    /**
+     * Applies this neural network to x.
+     *
+     * @param x A datum, or a matrix each of whose columns is a datum. A batch
+     * of data is applied in a single pass through each layer.
+     * @return The output for x. If x is a batch, then column i of the
+     * output is the output for column i of x.
+     */
     @Override
     public DoubleMatrix apply(DoubleMatrix x) {
-        return topLayer.apply(x);
+        return plan.apply(x, localSession().workspace());
+    }
+
+    /**
+     * The execution plan this network runs.
+     *
+     * @return The execution plan this network runs.
+     */
+    public ExecutionPlan plan() {
+        return plan;
     }
     
     /**
@@ -49,7 +70,38 @@ public class NeuralNetwork implements Function<DoubleMatrix, DoubleMatrix>, Seri
      * @return The predicted classification of x.
      */
     public int prediction(DoubleMatrix x){
-        return apply(x).argmax();
+        return localSession().argmax(x.data);
+    }
+    
+    /**
+     * The layers of this network.
+     * @return The layers of this network, the layer applied directly to the 
+     * data first.
+     */
+    public Layer[] layers(){
+        Layer[] layers = new Layer[architecture.numLayers()];
+        Layer layer = topLayer;
+        for (int i = layers.length - 1; i >= 0; i--, layer = layer.subLayer)
+            layers[i] = layer;
+        return layers;
+    }
+    
+    /**
+     * A new session for running data through this network without 
+     * allocating.
+     * @return A new session.
+     */
+    public InferenceSession session(){
+        return new InferenceSession(this);
+    }
+    
+    /**
+     * The calling thread's session for this network.  It is created the first
+     * time a thread asks for it.
+     * @return The calling thread's session.
+     */
+    public InferenceSession localSession(){
+        return sessions.get();
     }
 
     /**
@@ -88,24 +140,9 @@ public class NeuralNetwork implements Function<DoubleMatrix, DoubleMatrix>, Seri
      * @return The total number of weights and biases among all the layers.
      */
     public int numWeightsAndBiases() {
-        int numWandB = 0;
-        Layer layer = topLayer;
-        while (layer != null) {
-            numWandB += layer.numberWeightsAndBiases();
-            layer = layer.subLayer;
-        }
-        return numWandB;
+        return plan.numVariables();
     }
 
-    /**
-     * QUickly transposes a vector in place.
-     * @param vec The vector to be transposed.
-     */
-    private static DoubleMatrix transpose(DoubleMatrix vec){
-        vec.rows = 1;
-        vec.columns = vec.length;
-        return vec;
-    }
     /**
      * The gradient of the neural network relative to the weights and biases at
      * x.
@@ -114,10 +151,53 @@ public class NeuralNetwork implements Function<DoubleMatrix, DoubleMatrix>, Seri
      * @return The gradient of the cost.
      */
     public FuncAt gradCost(Datum x) {
-        Layer.BackTrackResult nnResult = topLayer.grad(x);
-        nnResult.val.data[x.type] -= 1;
-        DoubleMatrix gradCost = transpose(nnResult.val).mmul(nnResult.grad);
-        return new FuncAt(gradCost, nnResult.val.dot(nnResult.val));
+        DoubleMatrix grad = new DoubleMatrix(1, numWeightsAndBiases());
+        return new FuncAt(grad, plan.addGradCost(x, localSession().workspace(), grad.data));
+    }
+
+    /**
+     * Adds the gradient and the cost at a datum to a sum of them, without
+     * allocating a new gradient.
+     *
+     * @param x The datum for which the gradient is calculated.
+     * @param sum The gradient and cost are added to this.
+     * @return sum.
+     */
+    public FuncAt addGradCost(Datum x, FuncAt sum) {
+        sum.val += plan.addGradCost(x, localSession().workspace(), sum.grad.data);
+        return sum;
+    }
+
+    /**
+     * Adds the gradients and costs at a batch of data to a sum of them, with
+     * one pass through the network for the whole batch.
+     *
+     * @param data The data.
+     * @param from The index of the first datum in the batch.
+     * @param to The index after the last datum in the batch.
+     * @param sum The gradients and costs are added to this.
+     * @return sum.
+     */
+    public FuncAt addGradCost(Datum[] data, int from, int to, FuncAt sum) {
+        return addGradCost(data, from, to, 0, sum);
+    }
+
+    /**
+     * Adds the gradients and costs at a batch of data to a sum of them,
+     * keeping the outputs of only every k-th layer and recomputing the rest
+     * as they're needed. See
+     * {@link ExecutionPlan#addGradCost(data.Datum[], int, int, int, ExecutionPlan.Workspace, double[])}.
+     *
+     * @param data The data.
+     * @param from The index of the first datum in the batch.
+     * @param to The index after the last datum in the batch.
+     * @param checkpointEvery k, less than 1 to keep every output.
+     * @param sum The gradients and costs are added to this.
+     * @return sum.
+     */
+    public FuncAt addGradCost(Datum[] data, int from, int to, int checkpointEvery, FuncAt sum) {
+        sum.val += plan.addGradCost(data, from, to, checkpointEvery, localSession().workspace(), sum.grad.data);
+        return sum;
     }
 
     /**
@@ -131,9 +211,7 @@ public class NeuralNetwork implements Function<DoubleMatrix, DoubleMatrix>, Seri
      * (nn(x) - x.type)*(nn(x) - x.type)
      */
     public double cost(Datum x) {
-        DoubleMatrix forecast = apply(x);
-        forecast.data[x.type] -= 1;
-        return forecast.dot(forecast);
+        return localSession().cost(x.data, x.type);
     }
 
     /**
@@ -142,32 +220,40 @@ public class NeuralNetwork implements Function<DoubleMatrix, DoubleMatrix>, Seri
      * @return True if the network yields the correct result, false otherwise.
      */
     public boolean correctlyPredicts(Datum x){
-        return apply(x).argmax() == x.type; 
+        return localSession().argmax(x.data) == x.type; 
     }
     
     /**
-     * Saves this neural network to a file.
+     * The vector of weights and biases this network was built from.
+     *
+     * @return A new array with all the weights and biases, ordered as in
+     * {@link Architecture#getIndex(int)}.
+     */
+    public double[] weightsAndBiases() {
+        double[] x = new double[architecture.numVariables()];
+        for (Layer layer = topLayer; layer != null; layer = layer.subLayer)
+            layer.copyInto(x);
+        return x;
+    }
+
+    /**
+     * Saves this neural network to a file in the {@link ModelFile} format.
      * @param fileName The name of the file.
-     * @throws java.io.FileNotFoundException
      * @throws java.io.IOException
      */
-    public void saveToFile(String fileName) 
-            throws FileNotFoundException, IOException{
-        new ObjectOutputStream(new FileOutputStream(fileName))
-                .writeObject(this);
+    public void saveToFile(String fileName) throws IOException{
+        ModelFile.write(this, Paths.get(fileName), ModelFile.Precision.DOUBLE);
     }
 
     /**
-     * Constructs a saves neural network from a file.
+     * Constructs a saved neural network from a file in the {@link ModelFile}
+     * format.
      * @param fileName The name of the file.
      * @return A neural network that was saved to a file.
-     * @throws java.io.FileNotFoundException
-     * @throws java.lang.ClassNotFoundException
+     * @throws java.io.IOException
      */
-    public static NeuralNetwork fromFile(String fileName) 
-            throws FileNotFoundException, IOException, ClassNotFoundException{
-        return (NeuralNetwork)new ObjectInputStream(
-                new FileInputStream(fileName)).readObject();
+    public static NeuralNetwork fromFile(String fileName) throws IOException{
+        return ModelFile.read(Paths.get(fileName));
     }
     
     
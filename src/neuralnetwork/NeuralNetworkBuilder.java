@@ -4,8 +4,16 @@ import optimization.DiffReal;
 import org.jblas.DoubleMatrix;
 import data.ClassifiedData;
 import data.Datum;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import optimization.FuncAt;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.Metrics;
+import profiling.GradientReductionEvent;
 
 /**
  * This class optimizes a neural network for given data.
@@ -14,8 +22,110 @@ import optimization.FuncAt;
  */
 public class NeuralNetworkBuilder implements DiffReal {
 
+    private static final Histogram GRAD_TIME = Metrics.timer("builder_gradient_seconds",
+            "Time to compute the cost and its gradient over a sample."),
+            COST_TIME = Metrics.timer("builder_cost_seconds",
+                    "Time to compute the cost alone over a sample.");
+    private static final Counter SAMPLES = Metrics.counter("builder_samples_total",
+            "Data the gradient has been computed over.");
+
+    /**
+     * The default number of data run through the network together when the
+     * gradient is computed.
+     */
+    public static final int DEFAULT_BATCH = 64;
+
+    /**
+     * The system property with the memory training may use, see
+     * {@link #setMemoryBudget(long)}. It is a number of bytes, optionally
+     * followed by K, M or G, or "heap" for the heap that's free.
+     */
+    public static final String MEMORY_PROPERTY = "neuralnetwork.memory";
+
     private final ClassifiedData trainingData;
     private final Architecture layerDims;
+    private int batchSize = DEFAULT_BATCH;
+    /**
+     * The number of layers between gradient checkpoints, 0 for none.
+     */
+    private int checkpointEvery;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    /**
+     * The training data, gathered into an array the first time the gradient
+     * is computed. A sample of the data in order holds the whole array of
+     * the builder it's a sample of, and starts at offset, wrapping around
+     * the end.
+     */
+    private Datum[] array;
+    private int offset;
+    /**
+     * The sums of each worker, reused by every gradient this builder and its
+     * stochastic variations compute in the same thread.
+     */
+    private Partials partials;
+    /**
+     * Each worker's workspace, shared, like the sums, by the networks made
+     * for every gradient.
+     */
+    private ThreadLocal<ExecutionPlan.Workspace> workspaces;
+    /**
+     * The network at the latest point, shared with the stochastic variations
+     * too.
+     */
+    private Networks networks;
+
+    /**
+     * A gradient and cost for each worker. Each thread that computes a
+     * gradient has its own, so builders of the same data can compute
+     * gradients in different threads at once.
+     */
+    private static class Partials {
+
+        private final ThreadLocal<FuncAt[]> sums = ThreadLocal.withInitial(() -> new FuncAt[0]);
+
+        /**
+         * The calling thread's sums for the given number of workers,
+         * cleared, allocated only the first time the thread needs that many.
+         */
+        FuncAt[] get(int workers, int dim) {
+            FuncAt[] sums = this.sums.get();
+            if (sums.length < workers || sums[0].grad.length != dim) {
+                sums = new FuncAt[workers];
+                for (int i = 0; i < workers; i++) sums[i] = new FuncAt(new DoubleMatrix(1, dim), 0);
+                this.sums.set(sums);
+            }
+            for (int i = 0; i < workers; i++) sums[i].clear();
+            return sums;
+        }
+    }
+
+    /**
+     * The network at the latest point asked for. The micro-batches of a jump,
+     * and the samples its line search measures, are all at the same point,
+     * so they build its network, and the network's plan, once.
+     */
+    private static class Networks {
+
+        private final Architecture architecture;
+        private double[] at;
+        private NeuralNetwork network;
+
+        Networks(Architecture architecture) {
+            this.architecture = architecture;
+        }
+
+        /**
+         * The network at x, built only if x has changed since the last call.
+         */
+        synchronized NeuralNetwork at(double[] x) {
+            if (network == null || !Arrays.equals(at, x)) {
+                network = new NeuralNetwork(x, architecture);
+                if (at == null || at.length != x.length) at = x.clone();
+                else System.arraycopy(x, 0, at, 0, x.length);
+            }
+            return network;
+        }
+    }
 
     /**
      *
@@ -36,7 +146,180 @@ public class NeuralNetworkBuilder implements DiffReal {
 
         this.trainingData = data;
         this.layerDims = architecture;
-        subDataInc = (int) Math.sqrt(trainingData.size());
+        partials = new Partials();
+        networks = new Networks(architecture);
+        workspaces = ThreadLocal.withInitial(() -> ExecutionPlan.workspace(architecture));
+        schedule = new BatchSchedule.Constant(0);
+        schedule.start(trainingData.size());
+        AutoTuner.configure(this, architecture, data);
+        String memory = System.getProperty(MEMORY_PROPERTY);
+        if (memory != null) setMemoryBudget(parseBytes(memory));
+    }
+
+    /**
+     * A builder for a sample of another's training data. It takes the other's
+     * settings as they are, without tuning them or fitting them to the
+     * memory again, and shares its sums, workspaces, networks and schedule.
+     *
+     * @param sample The sample.
+     * @param of The builder whose data the sample is of.
+     */
+    private NeuralNetworkBuilder(ClassifiedData sample, NeuralNetworkBuilder of) {
+        trainingData = sample;
+        layerDims = of.layerDims;
+        batchSize = of.batchSize;
+        pool = of.pool;
+        checkpointEvery = of.checkpointEvery;
+        partials = of.partials;
+        networks = of.networks;
+        workspaces = of.workspaces;
+        schedule = sampledBy = of.schedule;
+    }
+
+    /**
+     * A number of bytes, optionally followed by K, M or G, or "heap" for the
+     * heap that's free.
+     */
+    private static long parseBytes(String bytes) {
+        if (bytes.equalsIgnoreCase("heap")) return freeHeap();
+        String digits = bytes.trim().toUpperCase(Locale.ROOT);
+        int shift = digits.endsWith("K") ? 10 : digits.endsWith("M") ? 20 : digits.endsWith("G") ? 30 : 0;
+        if (shift > 0) digits = digits.substring(0, digits.length() - 1);
+        try {
+            return Long.parseLong(digits.trim()) << shift;
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(MEMORY_PROPERTY + " should be a number of bytes "
+                    + "or \"heap\", not " + bytes, ex);
+        }
+    }
+
+    /**
+     * The heap that is not in use.
+     */
+    private static long freeHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * The memory training takes with the current batch size and workers.
+     *
+     * @return The estimate.
+     */
+    public MemoryEstimate memory() {
+        return layerDims.memory(ModelFile.Precision.DOUBLE, batchSize, pool.getParallelism(), checkpointEvery);
+    }
+
+    /**
+     * Sets the batch size to the largest that fits, with the current
+     * workers, in a memory budget, but no larger than the training data.
+     *
+     * @param budget The bytes training may use, on or off the heap.
+     * @return This builder.
+     * @throws IllegalArgumentException If not even a batch of one datum
+     * fits. The message reports what the memory is needed for.
+     */
+    public NeuralNetworkBuilder setMemoryBudget(long budget) {
+        int workers = pool.getParallelism();
+        int batch = MemoryEstimate.largestBatch(layerDims, ModelFile.Precision.DOUBLE, workers,
+                checkpointEvery, budget);
+        if (batch < 1)
+            throw new IllegalArgumentException("Training doesn't fit in the memory budget.\n"
+                    + layerDims.memory(ModelFile.Precision.DOUBLE, 1, workers, checkpointEvery).report(budget));
+        return setBatchSize(Math.min(batch, trainingData.size()));
+    }
+
+    /**
+     * Sets the batch size to the largest that fits in the heap that's free
+     * now. See {@link #setMemoryBudget(long)}.
+     *
+     * @return This builder.
+     */
+    public NeuralNetworkBuilder fitToHeap() {
+        return setMemoryBudget(freeHeap());
+    }
+
+    /**
+     * Sets the number of data run through the network together when the
+     * gradient is computed. Larger batches make better use of the matrix
+     * kernels, smaller ones spread more evenly over the workers.
+     *
+     * @param batchSize The number of data in each batch.
+     * @return This builder.
+     */
+    public NeuralNetworkBuilder setBatchSize(int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("The batch size must be positive, not " + batchSize);
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * The number of data run through the network together when the gradient
+     * is computed.
+     *
+     * @return The batch size.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Keeps the outputs of only every k-th layer while the gradient is
+     * computed, and recomputes the others, a segment at a time, as the
+     * backward pass reaches them. With k about the square root of the number
+     * of layers, the outputs kept per datum drop from all the layers to about
+     * twice the square root of them. The extra work is reported by
+     * {@link #memory()}, and the layers recomputed are counted by
+     * plan_recomputed_layers_total. Set this before
+     * {@link #setMemoryBudget(long)} for the batch to make use of the memory
+     * saved.
+     *
+     * @param checkpointEvery k, 0 to keep every output.
+     * @return This builder.
+     */
+    public NeuralNetworkBuilder setCheckpointEvery(int checkpointEvery) {
+        if (checkpointEvery < 0)
+            throw new IllegalArgumentException("The checkpoint interval can't be negative, not " + checkpointEvery);
+        this.checkpointEvery = checkpointEvery;
+        return this;
+    }
+
+    /**
+     * The number of layers between gradient checkpoints.
+     *
+     * @return The interval, 0 for no checkpoints.
+     */
+    public int getCheckpointEvery() {
+        return checkpointEvery;
+    }
+
+    /**
+     * Sets the pool the gradient is computed on.
+     *
+     * @param pool The pool. Its parallelism is the number of workers.
+     * @return This builder.
+     */
+    public NeuralNetworkBuilder setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * The pool the gradient is computed on.
+     *
+     * @return The pool.
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * The training data as an array.
+     */
+    private Datum[] data() {
+        if (array == null) array = trainingData.array();
+        return array;
     }
 
     /**
@@ -45,30 +328,100 @@ public class NeuralNetworkBuilder implements DiffReal {
      * @return The cost of the neural network over the given data set.
      */
     private double cost(NeuralNetwork nn) {
-        return trainingData.parallel().mapToDouble(datum -> nn.cost(datum)).sum();
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        double cost = 0;
+        if (sampledBy == null) cost = Evaluation.of(nn, trainingData).loss();
+        else {
+            Datum[] all = data();
+            int size = trainingData.size();
+            ExecutionPlan.Workspace ws = workspaces.get();
+            for (int from = 0; from < size; from += batchSize)
+                cost += batch(nn, all, from, Math.min(size, from + batchSize), ws, null);
+        }
+        if (Metrics.ENABLED) COST_TIME.recordSince(start);
+        return cost;
     }
 
     /**
      * The change in the cost function as the weights and biases are changed.
      *
      * @param nn The current set of weights and biases.
-     * @param stochasticSize How many elements of data should be considered?
-     * Pass -1 to consider all of them.
      * @return The gradient of the neural network as a function of its weights
      * and biases.
      */
     private FuncAt gradCost(NeuralNetwork nn) {
+        return addGradCost(nn, new FuncAt(new DoubleMatrix(1, nn.numWeightsAndBiases()), 0));
+    }
+
+    /**
+     * Adds the change in the cost function as the weights and biases are
+     * changed to a sum. The data are run through in batches, spread over the
+     * workers, each of which sums its batches in its own reused gradient.
+     *
+     * @param nn The current set of weights and biases.
+     * @param sum The gradient and cost are added to this.
+     * @return sum.
+     */
+    private FuncAt addGradCost(NeuralNetwork nn, FuncAt sum) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        GradientReductionEvent event = new GradientReductionEvent();
+        event.begin();
 
-        return trainingData.parallel()
-                .map(x -> nn.gradCost(x))
-                .collect(
-                        () -> new FuncAt(
-                                new DoubleMatrix(1, nn.numWeightsAndBiases()),
-                                0
-                        ),
-                        (a, b) -> a.addi(b),
-                        (a, b) -> a.addi(b)
-                );
+        Datum[] all = data();
+        int batches = (trainingData.size() + batchSize - 1) / batchSize;
+        int workers = Math.min(pool.getParallelism(), batches);
+        if (workers <= 1 && sampledBy == null) addGradCost(nn, all, 0, batches, 1, sum);
+        else {
+            FuncAt[] sums = partials.get(Math.max(1, workers), nn.numWeightsAndBiases());
+            if (workers <= 1) addGradCost(nn, all, 0, batches, 1, sums[0]);
+            else pool.submit(() -> IntStream.range(0, workers).parallel()
+                    .forEach(w -> addGradCost(nn, all, w, batches, workers, sums[w]))).join();
+            for (int w = 1; w < workers; w++) sums[0].addi(sums[w]);
+            if (sampledBy != null) sampledBy.observe(sums[0], trainingData.size());
+            if (drawn != null) sampler.update(drawn, drawnCosts);
+            sum.addi(sums[0]);
+        }
+
+        if (event.shouldCommit()) {
+            event.samples = trainingData.size();
+            event.variables = nn.numWeightsAndBiases();
+            event.commit();
+        }
+        if (Metrics.ENABLED) {
+            GRAD_TIME.recordSince(start);
+            SAMPLES.add(trainingData.size());
+        }
+        return sum;
+    }
+
+    /**
+     * Adds the gradient and cost over every step-th batch, from the given
+     * one, to a sum, in the calling thread's workspace.
+     */
+    private void addGradCost(NeuralNetwork nn, Datum[] all, int first, int batches, int step, FuncAt sum) {
+        ExecutionPlan.Workspace ws = workspaces.get();
+        int size = trainingData.size();
+        for (int b = first; b < batches; b += step)
+            sum.val += batch(nn, all, b * batchSize, Math.min(size, (b + 1) * batchSize), ws, sum.grad.data);
+    }
+
+    /**
+     * Runs a batch of this builder's data, counted from its first datum.
+     * Data that wrap around the end of the array are run in two parts.
+     *
+     * @param grad The gradient is added to this, or null for the cost
+     * alone.
+     * @return The weighted sum of the costs.
+     */
+    private double batch(NeuralNetwork nn, Datum[] all, int from, int to, ExecutionPlan.Workspace ws, double[] grad) {
+        int start = (offset + from) % all.length, end = start + to - from;
+        if (end <= all.length) return part(nn, all, start, end, ws, grad);
+        return part(nn, all, start, all.length, ws, grad) + part(nn, all, 0, end - all.length, ws, grad);
+    }
+
+    private double part(NeuralNetwork nn, Datum[] all, int from, int to, ExecutionPlan.Workspace ws, double[] grad) {
+        return grad == null ? nn.plan().cost(all, from, to, weights, ws)
+                : nn.plan().addGradCost(all, from, to, weights, drawnCosts, checkpointEvery, ws, grad);
     }
 
     @Override
@@ -81,50 +434,273 @@ public class NeuralNetworkBuilder implements DiffReal {
         return layerDims.numVariables();
     }
 
+    /**
+     * The variables of the trainable layers, see
+     * {@link Architecture#withTrainable(int, boolean)}.
+     *
+     * @return The ranges of the trainable layers' variables, or null if
+     * every layer is trainable.
+     */
+    @Override
+    public int[] variableRanges() {
+        return layerDims.numTrainable() == layerDims.numVariables() ? null : layerDims.trainableRanges();
+    }
+
     @Override
     public double applyAsDouble(double[] value) {
-        return cost(new NeuralNetwork(value, layerDims));
+        return cost(networks.at(value));
     }
 
     @Override
     public FuncAt funcAt(double[] x) {
-        return gradCost(new NeuralNetwork(x, layerDims));
+        return gradCost(networks.at(x));
+    }
+
+    @Override
+    public FuncAt addFuncAt(double[] x, FuncAt sum) {
+        return addGradCost(networks.at(x), sum);
     }
 
     private int subDataStart = 0;
-    private final int subDataInc;
+    /**
+     * The size of each stochastic sample.
+     */
+    private BatchSchedule schedule;
+    /**
+     * The schedule of the builder this one is a sample of, told the gradient
+     * of every sample, or null if this isn't a sample.
+     */
+    private BatchSchedule sampledBy;
+    /**
+     * Draws the stochastic samples by their costs, or null to take them in
+     * order.
+     */
+    private PrioritizedSampler sampler;
+    /**
+     * In a prioritized sample, the indices of its data in the training data,
+     * the weights of their costs, and their costs at the latest gradient.
+     */
+    private int[] drawn;
+    private double[] weights, drawnCosts;
+    /**
+     * The builders of the samples, drawn again and again, see
+     * {@link #reusingSamples(int)}, or null for a new builder for each.
+     */
+    private NeuralNetworkBuilder[] reused;
+    private int nextReused;
+
+    /**
+     * The data of a stochastic sample: a window of the training data in
+     * order, or the data a prioritized sampler drew. A reused sample is drawn
+     * again in place.
+     */
+    private static class Sample implements ClassifiedData {
+
+        private final Datum[] all;
+        /**
+         * The data drawn, or null for a window.
+         */
+        private Datum[] drawn;
+        private int from, size;
+
+        Sample(Datum[] all) {
+            this.all = all;
+        }
+
+        @Override
+        public Stream<Datum> stream() {
+            if (drawn != null) return Arrays.stream(drawn);
+            int from = this.from;
+            return IntStream.range(0, size).mapToObj(i -> all[(from + i) % all.length]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Draws each stochastic sample with a prioritized sampler, favoring the
+     * data with the highest costs, instead of taking the next data in order.
+     * The costs of the data in a sample are updated whenever its gradient is
+     * computed, and the costs in its gradient and line search are weighed to
+     * correct for the sampling. The size of the samples is still set by the
+     * batch schedule. Sampler positions aren't used with prioritized
+     * sampling, so a descent resumed from a checkpoint draws new samples.
+     *
+     * @param sampler The sampler, started for this builder's data, or null
+     * for samples in order.
+     * @return This builder.
+     */
+    public NeuralNetworkBuilder setPrioritizedSampler(PrioritizedSampler sampler) {
+        if (sampler != null) sampler.start(trainingData.size());
+        this.sampler = sampler;
+        return this;
+    }
+
+    /**
+     * Sets how many data each stochastic variation samples. By default it
+     * is the square root of the number of training data.
+     *
+     * @param schedule The schedule. It is started for this builder's data.
+     * @return This builder.
+     */
+    public NeuralNetworkBuilder setBatchSchedule(BatchSchedule schedule) {
+        schedule.start(trainingData.size());
+        this.schedule = schedule;
+        return this;
+    }
+
+    /**
+     * How many data each stochastic variation samples.
+     *
+     * @return The schedule.
+     */
+    public BatchSchedule getBatchSchedule() {
+        return schedule;
+    }
 
+    /**
+     * A variation of this function over the next sample of the training data,
+     * of the size the schedule gives, or this function once the schedule has
+     * reached all the data. Without a prioritized sampler, the sample is the
+     * window of that many data from where the last one ended, wrapping
+     * around the end of the data. The window is fixed when the sample is
+     * drawn, since an optimizer that sums micro-batches draws several samples
+     * before it uses any of them.
+     *
+     * @return A stochastic variation of this function.
+     */
     @Override
     public DiffReal stochastic() {
-        int end = (subDataStart + subDataInc) % trainingData.size();
-        DiffReal stochastic = new NeuralNetworkBuilder(
-                new ClassifiedData() {
+        if (schedule.isFull()) return this;
+        int size = schedule.size();
+        NeuralNetworkBuilder stochastic = nextSample();
+        Sample sample = (Sample) stochastic.trainingData;
+        sample.size = size;
+        stochastic.sampler = sampler;
+        if (sampler != null) {
+            if (sample.drawn == null || sample.drawn.length != size) {
+                sample.drawn = new Datum[size];
+                stochastic.drawn = new int[size];
+                stochastic.weights = new double[size];
+                stochastic.drawnCosts = new double[size];
+            }
+            sampler.draw(stochastic.drawn, stochastic.weights);
+            Datum[] all = data();
+            for (int i = 0; i < size; i++) sample.drawn[i] = all[stochastic.drawn[i]];
+            stochastic.array = sample.drawn;
+            stochastic.offset = 0;
+            return stochastic;
+        }
+        sample.drawn = null;
+        stochastic.drawn = null;
+        stochastic.weights = stochastic.drawnCosts = null;
+        stochastic.array = data();
+        stochastic.offset = sample.from = subDataStart;
+        subDataStart = (subDataStart + size) % trainingData.size();
+        return stochastic;
+    }
+
+    /**
+     * This builder, drawing each stochastic variation over the oldest of the
+     * last inUse drawn, so that drawing them allocates nothing once there
+     * are that many: their builders, and the buffers of prioritized samples,
+     * are kept and drawn again. The buffers are only replaced when the
+     * schedule changes the size of the samples.
+     *
+     * @param inUse How many of the latest variations are in use at once, 0
+     * for a new builder for each.
+     * @return This builder.
+     */
+    @Override
+    public DiffReal reusingSamples(int inUse) {
+        if (inUse < 0)
+            throw new IllegalArgumentException("The samples in use can't be negative, not " + inUse);
+        if (inUse == 0) reused = null;
+        else if (reused == null || reused.length != inUse) {
+            reused = new NeuralNetworkBuilder[inUse];
+            nextReused = 0;
+        }
+        return this;
+    }
+
+    /**
+     * The builder for the next sample, new unless samples are reused.
+     */
+    private NeuralNetworkBuilder nextSample() {
+        if (reused == null) return sample(new Sample(data()));
+        int next = nextReused;
+        nextReused = (nextReused + 1) % reused.length;
+        if (reused[next] == null) reused[next] = sample(new Sample(data()));
+        return reused[next];
+    }
+
+    /**
+     * A builder for a sample of the training data, configured like this one,
+     * whose stochastic variations are this one's.
+     *
+     * @param data The sample.
+     * @return A builder for the sample.
+     */
+    private NeuralNetworkBuilder sample(ClassifiedData data) {
+        NeuralNetworkBuilder stochastic = new NeuralNetworkBuilder(data, this) {
+            @Override
+            public DiffReal stochastic() {
+                return NeuralNetworkBuilder.this.stochastic();
+            }
+
             @Override
-            public Stream<Datum> stream() {
-
-                if (end < subDataStart)
-                    return Stream.concat(
-                            trainingData.stream().limit(end),
-                            trainingData.stream().skip(subDataStart)
-                    );
-                else return trainingData.stream().skip(subDataStart).limit(end);
+            public int samplerPosition() {
+                return NeuralNetworkBuilder.this.samplerPosition();
             }
 
             @Override
-            public int size() {
-                return subDataInc;
+            public DiffReal atSamplerPosition(int position) {
+                return NeuralNetworkBuilder.this.atSamplerPosition(position);
             }
-        },
-                layerDims
-        ) {
+
             @Override
-            public DiffReal stochastic() {
-                return NeuralNetworkBuilder.this.stochastic();
+            public int sampleSize() {
+                return NeuralNetworkBuilder.this.sampleSize();
+            }
+
+            @Override
+            public DiffReal atSampleSize(int size) {
+                return NeuralNetworkBuilder.this.atSampleSize(size);
+            }
+
+            @Override
+            public DiffReal reusingSamples(int inUse) {
+                NeuralNetworkBuilder.this.reusingSamples(inUse);
+                return this;
             }
 
         };
-        subDataStart = (subDataStart + subDataInc) % trainingData.size();
         return stochastic;
     }
 
+    @Override
+    public int samplerPosition() {
+        return subDataStart;
+    }
+
+    @Override
+    public DiffReal atSamplerPosition(int position) {
+        subDataStart = position % trainingData.size();
+        return this;
+    }
+
+    @Override
+    public int sampleSize() {
+        return schedule.size();
+    }
+
+    @Override
+    public DiffReal atSampleSize(int size) {
+        if (size > 0) schedule.resume(size);
+        return this;
+    }
+
 }
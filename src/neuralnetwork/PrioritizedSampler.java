@@ -0,0 +1,196 @@
+package neuralnetwork;
+
+import java.util.Arrays;
+import java.util.Random;
+import metrics.Gauge;
+import metrics.Metrics;
+
+/**
+ * Draws samples of the training data with each datum's chance proportional
+ * to a recent estimate of its cost, so that the gradient is spent on the data
+ * the network gets wrong. The estimates are the costs from the last time each
+ * datum was in a sample, kept in an array parallel to the training data.
+ * As in standard prioritized sampling, data not sampled yet have the highest
+ * priority seen so far, at least 1, so they are drawn early. The chances of
+ * the sampled data are kept in a sum tree, so that a datum is drawn, or its
+ * chance changed, in time logarithmic in the number of data; the data not
+ * sampled yet are kept in a list and drawn from it uniformly.
+ *
+ * Each datum's chance is proportional to (cost + epsilon)^alpha. Alpha 0 is
+ * uniform sampling. So that the gradient of a sample still estimates the
+ * gradient over all the data, the cost of each datum drawn is weighed by
+ * (n P(i))^-beta, divided by the largest weight in the sample. Beta 1
+ * corrects the bias fully, and 0 not at all.
+ *
+ * The priorities are reported by the sampler_priority_total gauge.
+ *
+ * @author Dov Neimand
+ */
+public class PrioritizedSampler {
+
+    private static final Gauge TOTAL = Metrics.gauge("sampler_priority_total",
+            "The sum of the priorities of the training data.");
+
+    /**
+     * Added to each cost so that every datum can be drawn.
+     */
+    public static final double EPSILON = 1e-3;
+
+    private final double alpha, beta;
+    private final Random random;
+    /**
+     * The latest cost of each datum.
+     */
+    private double[] costs;
+    /**
+     * A complete binary tree in an array. The leaves, from leaves on, are the
+     * priorities of the sampled data, 0 for the others, and each node above
+     * is the sum of its two children, so the root, at 1, is the sum of all of
+     * them.
+     */
+    private double[] tree;
+    private int leaves;
+    /**
+     * The data not sampled yet, in the first unseenCount entries, and where
+     * each datum is in that list.
+     */
+    private int[] unseen, unseenAt;
+    private int unseenCount;
+    /**
+     * The highest priority seen so far, the priority of the data not sampled
+     * yet.
+     */
+    private double maxPriority;
+
+    /**
+     * @param alpha How strongly sampling favors costly data, 0 for not at
+     * all.
+     * @param beta How much the weights correct for the sampling, from 0 to 1.
+     * @param seed The seed of the random draws.
+     */
+    public PrioritizedSampler(double alpha, double beta, long seed) {
+        if (alpha < 0 || beta < 0 || beta > 1)
+            throw new IllegalArgumentException("alpha must be nonnegative and beta between 0 and 1, not "
+                    + alpha + " and " + beta);
+        this.alpha = alpha;
+        this.beta = beta;
+        random = new Random(seed);
+    }
+
+    /**
+     * Starts sampling from training data, every datum with the same chance.
+     *
+     * @param dataSize The number of training data.
+     */
+    synchronized void start(int dataSize) {
+        costs = new double[dataSize];
+        Arrays.fill(costs, Double.NaN);
+        leaves = Integer.highestOneBit(Math.max(1, dataSize - 1)) << 1;
+        tree = new double[2 * leaves];
+        unseen = new int[dataSize];
+        unseenAt = new int[dataSize];
+        for (int i = 0; i < dataSize; i++) unseen[i] = unseenAt[i] = i;
+        unseenCount = dataSize;
+        maxPriority = 1;
+        if (Metrics.ENABLED) TOTAL.set(total());
+    }
+
+    /**
+     * The sum of the priorities of all the data.
+     */
+    private double total() {
+        return tree[1] + unseenCount * maxPriority;
+    }
+
+    /**
+     * The priority of a datum.
+     */
+    private double priority(int index) {
+        return Double.isNaN(costs[index]) ? maxPriority : tree[leaves + index];
+    }
+
+    /**
+     * The number of data this samples from.
+     *
+     * @return The number of training data.
+     */
+    public int size() {
+        return costs.length;
+    }
+
+    /**
+     * The latest cost of a datum.
+     *
+     * @param index The index of the datum.
+     * @return The cost the last time the datum was sampled, NaN if it never
+     * was.
+     */
+    public synchronized double cost(int index) {
+        return costs[index];
+    }
+
+    /**
+     * The datum whose range of the priorities contains a value.
+     */
+    private int find(double value) {
+        int node = 1;
+        while (node < leaves) {
+            node *= 2;
+            if (value >= tree[node] && tree[node + 1] > 0) value -= tree[node++];
+        }
+        return node - leaves;
+    }
+
+    private void setPriority(int index, double priority) {
+        int node = leaves + index;
+        double change = priority - tree[node];
+        for (; node >= 1; node /= 2) tree[node] += change;
+    }
+
+    /**
+     * Draws a sample. The total priority is split into as many equal ranges
+     * as there are data to draw, and a datum is drawn from each range, so
+     * the sample spreads over the data.
+     *
+     * @param indices The indices of the data drawn are written here, one per
+     * entry.
+     * @param weights The weight of each datum drawn is written here.
+     */
+    public synchronized void draw(int[] indices, double[] weights) {
+        double total = total(), range = total / indices.length, largest = 0;
+        int n = costs.length;
+        for (int i = 0; i < indices.length; i++) {
+            double value = (i + random.nextDouble()) * range;
+            int index = value < tree[1] || unseenCount == 0
+                    ? Math.min(n - 1, find(Math.min(tree[1], value)))
+                    : unseen[Math.min(unseenCount - 1, (int) ((value - tree[1]) / maxPriority))];
+            indices[i] = index;
+            weights[i] = Math.pow(n * priority(index) / total, -beta);
+            largest = Math.max(largest, weights[i]);
+        }
+        for (int i = 0; i < weights.length; i++) weights[i] /= largest;
+    }
+
+    /**
+     * Updates the costs of data that were just run through the network.
+     *
+     * @param indices The indices of the data.
+     * @param costs The cost of each, in the same order.
+     */
+    public synchronized void update(int[] indices, double[] costs) {
+        for (int i = 0; i < indices.length; i++) {
+            int index = indices[i];
+            if (Double.isNaN(this.costs[index])) {
+                int last = unseen[--unseenCount];
+                unseen[unseenAt[index]] = last;
+                unseenAt[last] = unseenAt[index];
+            }
+            this.costs[index] = costs[i];
+            double priority = Math.pow(costs[i] + EPSILON, alpha);
+            maxPriority = Math.max(maxPriority, priority);
+            setPriority(index, priority);
+        }
+        if (Metrics.ENABLED) TOTAL.set(total());
+    }
+
+}
@@ -0,0 +1,192 @@
+package neuralnetwork;
+
+import java.util.Arrays;
+import optimization.DiffReal;
+import optimization.FuncAt;
+import optimization.GradDescentBackTrack;
+import org.jblas.DoubleMatrix;
+
+/**
+ * Prunes a network by setting its smallest weights to zero. Biases are never
+ * pruned. Once enough of a layer's weights are zero, the layer stores them in
+ * sparse format, see {@link Layer#SPARSE_THRESHOLD}.
+ *
+ * @author Dov Neimand
+ */
+public class Pruning {
+
+    /**
+     * Sets the smallest weights in each layer to zero. In a factored layer,
+     * the elements of the factors are pruned.
+     *
+     * @param arch The architecture of the network.
+     * @param x The weights and biases of the network. It is not changed.
+     * @param fraction The fraction of each layer's weights to be set to zero.
+     * @return A new vector of weights and biases with the smallest weights
+     * set to zero.
+     */
+    public static double[] byMagnitude(Architecture arch, double[] x, double fraction) {
+        double[] pruned = x.clone();
+        for (int i = 0; i < arch.numLayers(); i++) {
+            LayerArchitecture la = arch.get(i);
+            int numPruned = (int) (fraction * la.numWeights());
+            if (numPruned == 0) continue;
+
+            double[] magnitudes = new double[la.numWeights()];
+            for (int w = 0; w < magnitudes.length; w++)
+                magnitudes[w] = Math.abs(x[la.startIndex + w]);
+            Arrays.sort(magnitudes);
+            double threshold = magnitudes[numPruned - 1];
+
+            for (int w = la.startIndex, zeroed = 0; w < la.startIndex + la.numWeights() && zeroed < numPruned; w++)
+                if (Math.abs(x[w]) <= threshold) {
+                    pruned[w] = 0;
+                    zeroed++;
+                }
+        }
+        return pruned;
+    }
+
+    /**
+     * Keeps only the largest k weights of each node. Weights larger than the
+     * kth largest are always kept, and weights equal to it are kept in order
+     * until there are k. Factored layers are left as they are.
+     *
+     * @param arch The architecture of the network.
+     * @param x The weights and biases of the network. It is not changed.
+     * @param k The number of weights each node keeps, 0 to zero them all.
+     * @return A new vector of weights and biases where all but the largest k
+     * weights of each node are zero.
+     */
+    public static double[] topK(Architecture arch, double[] x, int k) {
+        if (k < 0) throw new IllegalArgumentException("k must be nonnegative, not " + k);
+        double[] pruned = x.clone();
+        for (int i = 0; i < arch.numLayers(); i++) {
+            LayerArchitecture la = arch.get(i);
+            if (k >= la.cols || la.isFactored()) continue;
+
+            double[] magnitudes = new double[la.cols];
+            for (int row = 0; row < la.rows; row++) {
+                for (int col = 0; col < la.cols; col++)
+                    magnitudes[col] = Math.abs(x[arch.getWeightIndex(i, row, col)]);
+                Arrays.sort(magnitudes);
+                double threshold = k == 0 ? Double.POSITIVE_INFINITY : magnitudes[la.cols - k];
+                int ties = k;
+                for (int col = 0; col < la.cols; col++)
+                    if (Math.abs(x[arch.getWeightIndex(i, row, col)]) > threshold) ties--;
+
+                for (int col = 0; col < la.cols; col++) {
+                    int w = arch.getWeightIndex(i, row, col);
+                    double magnitude = Math.abs(x[w]);
+                    if (magnitude < threshold || magnitude == threshold && ties-- <= 0) pruned[w] = 0;
+                }
+            }
+        }
+        return pruned;
+    }
+
+    /**
+     * The function f with the pruned weights held at zero. The gradient is
+     * zero at every weight that is zero in the pruned vector, so a descent
+     * that starts at the pruned vector leaves them at zero.
+     *
+     * @param f The cost of a network.
+     * @param arch The architecture of the network.
+     * @param pruned The pruned weights and biases.
+     * @return f with the pruned weights held at zero.
+     */
+    public static DiffReal masked(DiffReal f, Architecture arch, double[] pruned) {
+        boolean[] mask = new boolean[pruned.length];
+        for (int i = 0; i < arch.numLayers(); i++) {
+            LayerArchitecture la = arch.get(i);
+            for (int w = la.startIndex; w < la.startIndex + la.numWeights(); w++)
+                mask[w] = pruned[w] == 0;
+        }
+        return masked(f, mask);
+    }
+
+    private static DiffReal masked(DiffReal f, boolean[] mask) {
+        return new DiffReal() {
+            private DoubleMatrix mask(DoubleMatrix grad) {
+                for (int i = 0; i < mask.length; i++) if (mask[i]) grad.data[i] = 0;
+                return grad;
+            }
+
+            @Override
+            public DoubleMatrix grad(double[] x) {
+                return mask(f.grad(x));
+            }
+
+            @Override
+            public FuncAt funcAt(double[] x) {
+                FuncAt at = f.funcAt(x);
+                mask(at.grad);
+                return at;
+            }
+
+            @Override
+            public double applyAsDouble(double[] x) {
+                return f.applyAsDouble(x);
+            }
+
+            @Override
+            public int domainDim() {
+                return f.domainDim();
+            }
+
+            @Override
+            public DiffReal stochastic() {
+                return masked(f.stochastic(), mask);
+            }
+
+            @Override
+            public int samplerPosition() {
+                return f.samplerPosition();
+            }
+
+            @Override
+            public int sampleSize() {
+                return f.sampleSize();
+            }
+
+            @Override
+            public DiffReal atSamplerPosition(int position) {
+                return masked(f.atSamplerPosition(position), mask);
+            }
+
+            @Override
+            public DiffReal atSampleSize(int size) {
+                return masked(f.atSampleSize(size), mask);
+            }
+
+            @Override
+            public DiffReal reusingSamples(int inUse) {
+                return masked(f.reusingSamples(inUse), mask);
+            }
+        };
+    }
+
+    /**
+     * Prunes gradually, retraining between rounds so the remaining weights can
+     * compensate for the ones removed.
+     *
+     * @param f The cost of the network.
+     * @param arch The architecture of the network.
+     * @param x The trained weights and biases.
+     * @param fraction The fraction of each layer's weights to be pruned by the
+     * last round.
+     * @param rounds The number of prune and retrain rounds.
+     * @param tolerance The tolerance of each retraining.
+     * @return The pruned and retrained weights and biases.
+     */
+    public static double[] iterative(DiffReal f, Architecture arch, double[] x,
+            double fraction, int rounds, double tolerance) {
+        for (int round = 1; round <= rounds; round++) {
+            x = byMagnitude(arch, x, fraction * round / rounds);
+            x = new GradDescentBackTrack(masked(f, arch, x), tolerance,
+                    new DoubleMatrix(x)).invoke();
+        }
+        return x;
+    }
+
+}
@@ -0,0 +1,223 @@
+package neuralnetwork;
+
+import data.ClassifiedData;
+import data.Datum;
+import data.MNISTData;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.stream.Stream;
+import neuralnetwork.ActivationFunctions.ActivationFunction;
+import org.jblas.DoubleMatrix;
+
+/**
+ * A trained neural network with its weights stored as 8 bit integers. Each
+ * layer's input is quantized to 8 bits with a scale calibrated on sample
+ * data, the products are accumulated as integers, and the sum is scaled back
+ * before the bias and activation function are applied.
+ *
+ * @author Dov Neimand
+ */
+public class QuantizedNetwork {
+
+    /**
+     * How many weights share a scale.
+     */
+    public enum Granularity {
+        /**
+         * One scale for all the weights in a layer.
+         */
+        PER_LAYER,
+        /**
+         * One scale for the weights of each node.
+         */
+        PER_ROW
+    }
+
+    private static final int MAX = 127;
+
+    private static class QuantizedLayer {
+
+        final int rows, cols;
+        /**
+         * Row major, so each node's weights are contiguous.
+         */
+        final byte[] weights;
+        final double[] weightScale, bias;
+        final double inputScale;
+        final ActivationFunction actFunc;
+
+        QuantizedLayer(Layer layer, double maxInput, Granularity granularity) {
+            DoubleMatrix w = layer.getWeights();
+            rows = w.rows;
+            cols = w.columns;
+            weights = new byte[rows * cols];
+            weightScale = new double[rows];
+            bias = layer.getBias().data.clone();
+            actFunc = layer.actFunc;
+            inputScale = maxInput == 0 ? 1 : maxInput / MAX;
+
+            double layerMax = Math.max(w.max(), -w.min());
+            for (int row = 0; row < rows; row++) {
+                double max = layerMax;
+                if (granularity == Granularity.PER_ROW) {
+                    max = 0;
+                    for (int col = 0; col < cols; col++)
+                        max = Math.max(max, Math.abs(w.get(row, col)));
+                }
+                weightScale[row] = max == 0 ? 1 : max / MAX;
+                for (int col = 0; col < cols; col++)
+                    weights[row * cols + col] = quantize(w.get(row, col), weightScale[row]);
+            }
+        }
+
+        /**
+         * Applies this layer to x, writing the result into y.
+         *
+         * @param x The input.
+         * @param qx Scratch space for the quantized input.
+         * @param y Where the output is written.
+         */
+        void apply(double[] x, byte[] qx, double[] y) {
+            for (int col = 0; col < cols; col++) qx[col] = quantize(x[col], inputScale);
+
+            for (int row = 0, start = 0; row < rows; row++, start += cols) {
+                int acc = 0;
+                for (int col = 0; col < cols; col++)
+                    acc += weights[start + col] * qx[col];
+                y[row] = actFunc.applyAsDouble(acc * weightScale[row] * inputScale + bias[row]);
+            }
+        }
+    }
+
+    private static byte quantize(double val, double scale) {
+        long q = Math.round(val / scale);
+        return (byte) Math.max(-MAX, Math.min(MAX, q));
+    }
+
+    private final QuantizedLayer[] layers;
+    private final ThreadLocal<double[][]> activations;
+    private final ThreadLocal<byte[]> quantizedInput;
+
+    /**
+     * Quantizes a trained network.
+     *
+     * @param nn The trained network.
+     * @param calibration Data whose range of values at each layer is used to
+     * choose how each layer's input is quantized. A few hundred data
+     * representative of what the network will see is enough.
+     * @param granularity How many weights share a scale.
+     */
+    public QuantizedNetwork(NeuralNetwork nn, ClassifiedData calibration, Granularity granularity) {
+        Layer[] dense = nn.layers();
+
+        double[] maxInput = new double[dense.length];
+        calibration.stream().forEach(datum -> {
+            DoubleMatrix x = datum;
+            for (int i = 0; i < dense.length; i++) {
+                maxInput[i] = Math.max(maxInput[i], Math.max(x.max(), -x.min()));
+                x = dense[i].actFunc.applyi(dense[i].affineTransf(x));
+            }
+        });
+
+        layers = new QuantizedLayer[dense.length];
+        for (int i = 0; i < dense.length; i++)
+            layers[i] = new QuantizedLayer(dense[i], maxInput[i], granularity);
+
+        activations = ThreadLocal.withInitial(() -> Arrays.stream(layers)
+                .map(layer -> new double[layer.rows]).toArray(double[][]::new));
+        quantizedInput = ThreadLocal.withInitial(() -> new byte[Arrays.stream(layers)
+                .mapToInt(layer -> layer.cols).max().getAsInt()]);
+    }
+
+    /**
+     * Applies the network to a datum.
+     *
+     * @param in The datum.
+     * @param out The output of the network is written here.
+     * @return out.
+     */
+    public double[] predict(double[] in, double[] out) {
+        double[][] act = activations.get();
+        byte[] qx = quantizedInput.get();
+        double[] x = in;
+        for (int i = 0; i < layers.length - 1; i++) {
+            layers[i].apply(x, qx, act[i]);
+            x = act[i];
+        }
+        layers[layers.length - 1].apply(x, qx, out);
+        return out;
+    }
+
+    /**
+     * The classification the network gives a datum.
+     *
+     * @param in The datum.
+     * @return The index of the largest output.
+     */
+    public int argmax(double[] in) {
+        double[] out = predict(in, activations.get()[layers.length - 1]);
+        int argMax = 0;
+        for (int i = 1; i < out.length; i++)
+            if (out[i] > out[argMax]) argMax = i;
+        return argMax;
+    }
+
+    /**
+     * Does this network give the correct result for the datum.
+     *
+     * @param x The datum being checked.
+     * @return True if the network yields the correct result, false otherwise.
+     */
+    public boolean correctlyPredicts(Datum x) {
+        return argmax(x.data) == x.type;
+    }
+
+    /**
+     * The number of bytes used to store the weights, biases and scales.
+     *
+     * @return The number of bytes used to store the weights, biases and
+     * scales.
+     */
+    public long sizeInBytes() {
+        return Arrays.stream(layers).mapToLong(layer -> layer.weights.length
+                + (long) Double.BYTES * (layer.bias.length + layer.weightScale.length + 1))
+                .sum();
+    }
+
+    /**
+     * Quantizes a trained MNIST network and compares its accuracy and size to
+     * the original on the test set.
+     *
+     * @param args The file a trained network was saved to with
+     * {@link NeuralNetwork#saveToFile(java.lang.String)}.
+     * @throws IOException If the network can't be read.
+     */
+    public static void main(String[] args) throws IOException {
+        NeuralNetwork nn = NeuralNetwork.fromFile(args[0]);
+        MNISTData train = new MNISTData(true), test = new MNISTData(false);
+        ClassifiedData calibration = new ClassifiedData() {
+            @Override
+            public Stream<Datum> stream() {
+                return train.stream().limit(size());
+            }
+
+            @Override
+            public int size() {
+                return 1000;
+            }
+        };
+
+        double dense = (double) test.parallel().filter(nn::correctlyPredicts).count() / test.size();
+        System.out.println("double: accuracy " + dense + ", "
+                + (long) Double.BYTES * nn.architecture.numVariables() + " bytes");
+
+        for (Granularity g : Granularity.values()) {
+            QuantizedNetwork q = new QuantizedNetwork(nn, calibration, g);
+            double accuracy = (double) test.parallel().filter(q::correctlyPredicts).count() / test.size();
+            System.out.println("int8 " + g + ": accuracy " + accuracy
+                    + " (delta " + (accuracy - dense) + "), "
+                    + q.sizeInBytes() + " bytes");
+        }
+    }
+
+}
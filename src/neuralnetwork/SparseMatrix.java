@@ -0,0 +1,184 @@
+package neuralnetwork;
+
+import java.io.Serializable;
+import org.jblas.DoubleMatrix;
+
+/**
+ * A matrix in compressed sparse row format. Only the nonzero elements are
+ * stored, row after row, so multiplying costs time and memory in proportion
+ * to the number of nonzero elements.
+ *
+ * @author Dov Neimand
+ */
+public class SparseMatrix implements Serializable {
+
+    /**
+     * The dimensions of the matrix.
+     */
+    public final int rows, cols;
+    /**
+     * The nonzero elements of row i are at indices rowStart[i] to
+     * rowStart[i + 1] of vals and colInd.
+     */
+    private final int[] rowStart, colInd;
+    private final double[] vals;
+
+    /**
+     * Compresses a dense matrix.
+     *
+     * @param dense The matrix to be compressed.
+     */
+    public SparseMatrix(DoubleMatrix dense) {
+        rows = dense.rows;
+        cols = dense.columns;
+        int nnz = 0;
+        for (double d : dense.data) if (d != 0) nnz++;
+
+        rowStart = new int[rows + 1];
+        colInd = new int[nnz];
+        vals = new double[nnz];
+        for (int row = 0, k = 0; row < rows; row++) {
+            rowStart[row] = k;
+            for (int col = 0; col < cols; col++) {
+                double d = dense.data[row + col * rows];
+                if (d != 0) {
+                    colInd[k] = col;
+                    vals[k++] = d;
+                }
+            }
+        }
+        rowStart[rows] = nnz;
+    }
+
+    /**
+     * The fraction of the elements of a matrix that are 0.
+     *
+     * @param m A matrix.
+     * @return The fraction of the elements of m that are 0.
+     */
+    public static double sparsity(DoubleMatrix m) {
+        int zeros = 0;
+        for (double d : m.data) if (d == 0) zeros++;
+        return m.length == 0 ? 0 : (double) zeros / m.length;
+    }
+
+    /**
+     * The number of nonzero elements.
+     *
+     * @return The number of nonzero elements.
+     */
+    public int nonZeros() {
+        return vals.length;
+    }
+
+    /**
+     * The number of bytes used to store this matrix.
+     *
+     * @return The number of bytes used to store this matrix.
+     */
+    public long sizeInBytes() {
+        return (long) Integer.BYTES * (rowStart.length + colInd.length)
+                + (long) Double.BYTES * vals.length;
+    }
+
+    /**
+     * Multiplies this matrix by a vector.
+     *
+     * @param x The vector, of length cols.
+     * @param y The product is written here, of length rows.
+     * @return y.
+     */
+    public double[] mulVec(double[] x, double[] y) {
+        for (int row = 0; row < rows; row++) {
+            double sum = 0;
+            for (int k = rowStart[row]; k < rowStart[row + 1]; k++)
+                sum += vals[k] * x[colInd[k]];
+            y[row] = sum;
+        }
+        return y;
+    }
+
+    /**
+     * Adds the product of this matrix and b to the leading columns of c.
+     *
+     * @param b A cols x n matrix.
+     * @param c A rows x p matrix, p >= n. The product is added to its first n
+     * columns.
+     * @return c.
+     */
+    public DoubleMatrix addProduct(DoubleMatrix b, DoubleMatrix c) {
+        addProduct(b.data, 0, b.rows, b.columns, c.data, 0, c.rows);
+        return c;
+    }
+
+    /**
+     * Adds the product of this matrix and b to c, where b and c are column
+     * major matrices stored in arrays.
+     *
+     * @param b A cols x n matrix.
+     * @param bOff The index of the first element of b.
+     * @param ldb The distance between columns of b.
+     * @param n The number of columns of b.
+     * @param c A rows x n matrix.
+     * @param cOff The index of the first element of c.
+     * @param ldc The distance between columns of c.
+     */
+    public void addProduct(double[] b, int bOff, int ldb, int n, double[] c, int cOff, int ldc) {
+        for (int j = 0; j < n; j++) {
+            int bCol = bOff + j * ldb, cCol = cOff + j * ldc;
+            for (int row = 0; row < rows; row++) {
+                double sum = 0;
+                for (int k = rowStart[row]; k < rowStart[row + 1]; k++)
+                    sum += vals[k] * b[bCol + colInd[k]];
+                c[cCol + row] += sum;
+            }
+        }
+    }
+
+    /**
+     * Adds the product of the transpose of this matrix and b to c, where b
+     * and c are column major matrices stored in arrays.
+     *
+     * @param b A rows x n matrix.
+     * @param bOff The index of the first element of b.
+     * @param ldb The distance between columns of b.
+     * @param n The number of columns of b.
+     * @param c A cols x n matrix.
+     * @param cOff The index of the first element of c.
+     * @param ldc The distance between columns of c.
+     */
+    public void addTransposeProduct(double[] b, int bOff, int ldb, int n, double[] c, int cOff, int ldc) {
+        for (int j = 0; j < n; j++) {
+            int bCol = bOff + j * ldb, cCol = cOff + j * ldc;
+            for (int row = 0; row < rows; row++) {
+                double bij = b[bCol + row];
+                for (int k = rowStart[row]; k < rowStart[row + 1]; k++)
+                    c[cCol + colInd[k]] += vals[k] * bij;
+            }
+        }
+    }
+
+    /**
+     * The product of this matrix and b.
+     *
+     * @param b A cols x n matrix.
+     * @return A new rows x n matrix.
+     */
+    public DoubleMatrix mmul(DoubleMatrix b) {
+        return addProduct(b, new DoubleMatrix(rows, b.columns));
+    }
+
+    /**
+     * This matrix, decompressed.
+     *
+     * @return A new dense matrix with the same elements as this one.
+     */
+    public DoubleMatrix toDense() {
+        DoubleMatrix dense = new DoubleMatrix(rows, cols);
+        for (int row = 0; row < rows; row++)
+            for (int k = rowStart[row]; k < rowStart[row + 1]; k++)
+                dense.data[row + colInd[k] * rows] = vals[k];
+        return dense;
+    }
+
+}
@@ -0,0 +1,116 @@
+package optimization;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A snapshot of an optimization in progress, from which it can be resumed.
+ *
+ * @author Dov Neimand
+ */
+public class Checkpoint {
+
+    private static final int MAGIC = 0x434B5054;
+
+    /**
+     * The number of jumps the optimizer had taken.
+     */
+    public final long iteration;
+    /**
+     * The point the optimizer was at.
+     */
+    public final double[] x;
+    /**
+     * Any state particular to the optimizer.
+     */
+    public final double[] optimizerState;
+    /**
+     * Where the sample the optimizer was on was drawn from. See
+     * {@link DiffReal#samplerPosition()}.
+     */
+    public final int samplerPosition;
+    /**
+     * How many data that sample has, 0 if unknown. See
+     * {@link DiffReal#sampleSize()}.
+     */
+    public final int sampleSize;
+
+    /**
+     * The constructor. The arrays are held, not copied.
+     *
+     * @param iteration The number of jumps the optimizer had taken.
+     * @param x The point the optimizer was at.
+     * @param optimizerState Any state particular to the optimizer.
+     * @param samplerPosition Where the sample the optimizer was on was drawn
+     * from.
+     * @param sampleSize How many data that sample has.
+     */
+    public Checkpoint(long iteration, double[] x, double[] optimizerState, int samplerPosition, int sampleSize) {
+        this.iteration = iteration;
+        this.x = x;
+        this.optimizerState = optimizerState;
+        this.samplerPosition = samplerPosition;
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * Writes this checkpoint to a file.
+     *
+     * @param file The destination. Any existing file is overwritten.
+     * @throws IOException If the file can't be written.
+     */
+    public void write(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(iteration);
+            out.writeInt(samplerPosition);
+            out.writeInt(sampleSize);
+            write(out, x);
+            write(out, optimizerState);
+        }
+    }
+
+    private static void write(DataOutputStream out, double[] array) throws IOException {
+        out.writeInt(array.length);
+        for (double d : array) out.writeDouble(d);
+    }
+
+    private static double[] readArray(DataInputStream in) throws IOException {
+        double[] array = new double[in.readInt()];
+        for (int i = 0; i < array.length; i++) array[i] = in.readDouble();
+        return array;
+    }
+
+    /**
+     * Reads a checkpoint from a file.
+     *
+     * @param file The file the checkpoint was written to.
+     * @return The checkpoint in the file.
+     * @throws IOException If the file can't be read or is not a checkpoint.
+     */
+    public static Checkpoint read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            int magic = in.readInt();
+            if (magic != MAGIC)
+                throw new IOException(file + " is not a checkpoint.");
+            long iteration = in.readLong();
+            int samplerPosition = in.readInt();
+            int sampleSize = in.readInt();
+            double[] x = readArray(in);
+            return new Checkpoint(iteration, x, readArray(in), samplerPosition, sampleSize);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "checkpoint at iteration " + iteration;
+    }
+
+}
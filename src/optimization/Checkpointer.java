@@ -0,0 +1,140 @@
+package optimization;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Writes checkpoints on a background thread. The optimizer hands over a
+ * snapshot and carries on; if the writer is still busy with an earlier
+ * checkpoint, the older waiting snapshot is dropped in favor of the newer
+ * one. Each checkpoint is written to a temporary file and then renamed, so a
+ * crash mid-write never corrupts the latest complete checkpoint.
+ *
+ * @author Dov Neimand
+ */
+public class Checkpointer implements AutoCloseable {
+
+    private static final String PREFIX = "checkpoint-", SUFFIX = ".ckpt";
+
+    private final Path dir;
+    private final int every, keep;
+    private final ThreadPoolExecutor writer;
+
+    /**
+     * The constructor.
+     *
+     * @param dir The directory checkpoints are written to. It is created if
+     * it doesn't exist.
+     * @param every A checkpoint is taken every this many iterations.
+     * @param keep The number of most recent checkpoints kept on disk. Older
+     * ones are deleted.
+     * @throws IOException If the directory can't be created.
+     */
+    public Checkpointer(Path dir, int every, int keep) throws IOException {
+        if (every < 1 || keep < 1)
+            throw new IllegalArgumentException("Checkpoints must be taken "
+                    + "and kept at least once.");
+        this.dir = Files.createDirectories(dir);
+        this.every = every;
+        this.keep = keep;
+        writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1),
+                r -> {
+                    Thread t = new Thread(r, "checkpoint writer");
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+
+    /**
+     * Is a checkpoint due at this iteration?
+     *
+     * @param iteration The number of jumps the optimizer has taken.
+     * @return True if a checkpoint should be taken, false otherwise.
+     */
+    public boolean isDue(long iteration) {
+        return iteration % every == 0;
+    }
+
+    /**
+     * Queues a checkpoint to be written. This method does not wait for the
+     * write.
+     *
+     * @param cp The checkpoint. Its arrays must not be changed after they are
+     * passed here.
+     */
+    public void save(Checkpoint cp) {
+        writer.execute(() -> {
+            try {
+                write(cp);
+            } catch (IOException ex) {
+                Logger.getLogger(Checkpointer.class.getName()).log(Level.SEVERE, "Failed to write " + cp, ex);
+            }
+        });
+    }
+
+    private void write(Checkpoint cp) throws IOException {
+        Path file = dir.resolve(String.format("%s%019d%s", PREFIX, cp.iteration, SUFFIX));
+        Path tmp = dir.resolve(file.getFileName() + ".tmp");
+        cp.write(tmp);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        List<Path> all = checkpoints();
+        for (int i = 0; i < all.size() - keep; i++) Files.deleteIfExists(all.get(i));
+    }
+
+    /**
+     * The checkpoint files in the directory, oldest first.
+     *
+     * @return The checkpoint files in the directory, oldest first.
+     * @throws IOException If the directory can't be read.
+     */
+    private List<Path> checkpoints() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * The most recent checkpoint on disk.
+     *
+     * @return The most recent checkpoint, or empty if there are none.
+     * @throws IOException If the checkpoint can't be read.
+     */
+    public Optional<Checkpoint> latest() throws IOException {
+        List<Path> all = checkpoints();
+        return all.isEmpty()
+                ? Optional.empty()
+                : Optional.of(Checkpoint.read(all.get(all.size() - 1)));
+    }
+
+    /**
+     * Waits for any queued checkpoint to be written and stops the writer.
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
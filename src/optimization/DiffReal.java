@@ -46,6 +46,18 @@ public interface DiffReal extends ToDoubleFunction<double[]>{
         return new FuncAt(grad(x), at(x));
     }
     
+    /**
+     * Adds the gradient and value of the function at x to a sum of them.
+     * Functions that can add their gradient in place should override this
+     * so that summing gradients allocates nothing.
+     * @param x The point the gradient and value are taken from.
+     * @param sum The gradient and value are added to this.
+     * @return sum.
+     */
+    public default FuncAt addFuncAt(double[] x, FuncAt sum){
+        return sum.addi(funcAt(x));
+    }
+    
     /**
      * This is the same as the applyAsDouble function.
      * @param x A point in the domain at the function.
@@ -55,6 +67,17 @@ public interface DiffReal extends ToDoubleFunction<double[]>{
         return at(x.data);
     }
     
+    /**
+     * The coordinates of the domain an optimizer may change. The partial
+     * derivatives of the others are 0, and optimizers leave them as they
+     * are, without spending time on them.
+     * @return Pairs of the first coordinate of a range and the one after its
+     * last, in order, or null if every coordinate may change.
+     */
+    public default int[] variableRanges(){
+        return null;
+    }
+    
     /**
      * The dimension of the domain of this function.
      * @return The dimension of the domain of this function.
@@ -73,4 +96,56 @@ public interface DiffReal extends ToDoubleFunction<double[]>{
     public default DiffReal stochastic(){
         return this;
     }
+    
+    /**
+     * Where the stochastic variations of this function are drawing their
+     * samples from, so that sampling can be resumed from a checkpoint.
+     * @return The position of the sampler, 0 if there is no sampler.
+     */
+    public default int samplerPosition(){
+        return 0;
+    }
+    
+    /**
+     * This function, with its stochastic variations drawing samples from the
+     * given position.
+     * @param position A position returned by {@link #samplerPosition()}.
+     * @return This function, sampling from the given position.
+     */
+    public default DiffReal atSamplerPosition(int position){
+        return this;
+    }
+    
+    /**
+     * How many data the stochastic variations of this function sample, so
+     * that a schedule that grows it can be resumed from a checkpoint.
+     * @return The size of the samples, 0 if there is no sampler.
+     */
+    public default int sampleSize(){
+        return 0;
+    }
+    
+    /**
+     * This function, with its stochastic variations drawing samples of the
+     * given size.
+     * @param size A size returned by {@link #sampleSize()}, 0 to keep the
+     * size as it is.
+     * @return This function, sampling the given number of data.
+     */
+    public default DiffReal atSampleSize(int size){
+        return this;
+    }
+    
+    /**
+     * This function, with stochastic variations that reuse the memory of
+     * earlier ones, so that drawing them allocates nothing.  A new variation
+     * is drawn over the oldest one, so only the latest ones drawn may be in
+     * use at once.
+     * @param inUse How many of the latest variations are in use at once, 0
+     * for every variation to be new.
+     * @return This function, reusing its stochastic variations.
+     */
+    public default DiffReal reusingSamples(int inUse){
+        return this;
+    }
 }
@@ -1,5 +1,7 @@
 package optimization;
 
+import compute.Backends;
+import java.util.Arrays;
 import org.jblas.DoubleMatrix;
 
 /**
@@ -34,9 +36,20 @@ public class FuncAt {
      * @return This instance.
      */
     public FuncAt addi(FuncAt fAtX){
-        grad.addi(fAtX.grad);
+        Backends.get().axpy(1, fAtX.grad, grad);
         val += fAtX.val;
         return this;
     }
     
+    /**
+     * Sets the value and every entry of the gradient to 0, so that this can
+     * be reused to sum more values and gradients.
+     * @return This instance.
+     */
+    public FuncAt clear(){
+        Arrays.fill(grad.data, 0);
+        val = 0;
+        return this;
+    }
+    
 }
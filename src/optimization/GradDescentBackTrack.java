@@ -1,7 +1,14 @@
 package optimization;
 
+import compute.Backends;
 import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
 import org.jblas.DoubleMatrix;
+import metrics.Counter;
+import metrics.Gauge;
+import metrics.Histogram;
+import metrics.Metrics;
+import profiling.LineSearchTrialEvent;
 
 /**
  * Runs gradient descent back tracking.
@@ -26,9 +33,50 @@ public class GradDescentBackTrack extends RecursiveTask<double[]>{
      */
     protected DiffReal f;
     /**
-     * A fist guess for what the minimum might be.
+     * A fist guess for what the minimum might be, or the point a checkpoint
+     * was taken at.
      */
-    protected final DoubleMatrix start;
+    protected DoubleMatrix start;
+    /**
+     * The number of jumps taken so far.
+     */
+    protected long iteration = 0;
+    
+    private Checkpointer checkpointer;
+    
+    /**
+     * The number of stochastic variations of f whose gradients are summed
+     * for each jump, see {@link #accumulate(int)}.
+     */
+    private int microBatches = 1;
+    /**
+     * The variations of f summed for the current jump.
+     */
+    private DiffReal[] micro;
+    /**
+     * Where the gradients of the variations are summed, allocated once.
+     */
+    private FuncAt accumulated;
+    /**
+     * The coordinates the descent changes, see
+     * {@link DiffReal#variableRanges()}, or null for all of them.
+     */
+    private int[] ranges;
+    
+    private static final Counter ITERATIONS = Metrics.counter("optimizer_iterations_total",
+            "Jumps taken by gradient descent.");
+    private static final Histogram TRIALS = Metrics.histogram("optimizer_line_search_trials",
+            "Points the backtracking line search tried before accepting one.", Histogram.counts(64)),
+            STEP_TIME = Metrics.timer("optimizer_step_seconds",
+                    "Time for a jump and the gradient at the new point.");
+    private static final Gauge GRAD_NORM = Metrics.gauge("optimizer_gradient_norm",
+            "The norm of the latest gradient."),
+            COST = Metrics.gauge("optimizer_cost", "The latest value of the function."),
+            STEP_SIZE = Metrics.gauge("optimizer_step_size", "The latest step size.");
+    private static final Counter MICRO_BATCHES = Metrics.counter("optimizer_micro_batches_total",
+            "Stochastic variations whose gradients were summed into a jump.");
+    
+    private Predicate<DoubleMatrix> stop = x -> false;
 
         
     /**
@@ -39,13 +87,174 @@ public class GradDescentBackTrack extends RecursiveTask<double[]>{
      * 
      */
     public GradDescentBackTrack(DiffReal f, double tolerance) {
+        this(f, tolerance, DoubleMatrix.randn(f.domainDim()));
+    }
+    
+    /**
+     * Starts the descent from a given point, for example a previously 
+     * optimized vector.
+     * @param f The function to be minimized.  If this is stochastic, then the
+     * stochastic method should be implemented.
+     * @param tolerance The smaller this is, the more accurate the result will
+     * be.
+     * @param start The point the descent starts from.
+     */
+    public GradDescentBackTrack(DiffReal f, double tolerance, DoubleMatrix start) {
         this.gamma = .5;
         this.c = .5;
         this.tolerance = tolerance;
         this.f = f;
-        start = DoubleMatrix.randn(f.domainDim());
+        this.start = start;
+    }
+    
+    /**
+     * Resumes the descent from a checkpoint: its point, jumps, samples and
+     * the state particular to the optimizer.  The sample the descent was on
+     * is drawn again, so the resumed descent takes the same jumps as one
+     * that was never interrupted.  Call this once the descent is
+     * constructed, so that a subclass's fields are set before
+     * {@link #restoreState(double[])} restores them.
+     * @param from The checkpoint, taken while minimizing this descent's
+     * function.
+     * @return This instance.
+     */
+    public GradDescentBackTrack resumeFrom(Checkpoint from){
+        f = f.atSamplerPosition(from.samplerPosition).atSampleSize(from.sampleSize).stochastic();
+        start = new DoubleMatrix(from.x);
+        iteration = from.iteration;
+        restoreState(from.optimizerState);
+        return this;
+    }
+    
+    /**
+     * Periodically saves checkpoints while computing.
+     * @param checkpointer Writes the checkpoints.
+     * @return This instance.
+     */
+    public GradDescentBackTrack checkpointTo(Checkpointer checkpointer){
+        this.checkpointer = checkpointer;
+        return this;
+    }
+    
+    /**
+     * Stops the descent early, before the tolerance is met, once the given
+     * condition holds.  The condition is tested at the start point and after 
+     * every jump.
+     * @param stop Tests the current point.
+     * @return This instance.
+     */
+    public GradDescentBackTrack stopWhen(Predicate<DoubleMatrix> stop){
+        this.stop = stop;
+        return this;
+    }
+    
+    /**
+     * Sums the gradients of several successive stochastic variations of the
+     * function for each jump, so that a jump sees the data of all of them
+     * while only one variation's data is run through at a time. The line
+     * search measures the sum of the same variations. The gradients are
+     * summed in place, with {@link DiffReal#addFuncAt(double[], FuncAt)},
+     * into a buffer allocated once for the whole descent, and the variations
+     * are drawn over the ones summed for the last jump, see
+     * {@link DiffReal#reusingSamples(int)}.
+     * @param microBatches The number of variations summed for each jump, 1
+     * for a jump per variation.
+     * @return This instance.
+     */
+    public GradDescentBackTrack accumulate(int microBatches){
+        if (microBatches < 1)
+            throw new IllegalArgumentException("At least one gradient must be summed for a jump, not " + microBatches);
+        this.microBatches = microBatches;
+        micro = new DiffReal[microBatches];
+        return this;
+    }
+    
+    /**
+     * The value and gradient at x. With {@link #accumulate(int)}, they are
+     * summed over f and the variations that follow it, and f is left at the
+     * last of them.
+     * @param x The point.
+     * @return The value and gradient at x.
+     */
+    protected FuncAt funcAt(DoubleMatrix x){
+        if (microBatches == 1) return f.funcAt(x.data);
+        if (accumulated == null) accumulated = new FuncAt(new DoubleMatrix(1, x.length), 0);
+        accumulated.clear();
+        for (int i = 0; i < microBatches; i++) {
+            if (i > 0) f = f.stochastic();
+            micro[i] = f;
+            f.addFuncAt(x.data, accumulated);
+        }
+        if (Metrics.ENABLED) MICRO_BATCHES.add(microBatches);
+        return accumulated;
+    }
+    
+    /**
+     * The value at x of the function the latest gradient was taken of.
+     * @param x The point.
+     * @return The value at x.
+     */
+    protected double at(DoubleMatrix x){
+        if (microBatches == 1) return f.at(x);
+        double sum = 0;
+        for (DiffReal variation : micro) sum += variation.at(x);
+        return sum;
+    }
+    
+    /**
+     * The number of jumps taken so far.
+     * @return The number of jumps taken so far.
+     */
+    public long iterations(){
+        return iteration;
+    }
+    
+    /**
+     * State particular to this optimizer that a checkpoint should hold.
+     * Subclasses with such state should override this together with 
+     * {@link #restoreState(double[])}.
+     * @return State particular to this optimizer.
+     */
+    protected double[] state(){
+        return new double[0];
+    }
+    
+    /**
+     * Restores state returned by {@link #state()}.  It is called by
+     * {@link #resumeFrom(Checkpoint)}, never by a constructor.
+     * @param state State from a checkpoint.
+     */
+    protected void restoreState(double[] state){
     }
 
+    /**
+     * A step against the gradient, over the coordinates that may change.
+     * @param from The point stepped from.  It is not changed.
+     * @param grad The gradient at from.
+     * @param t The step size.
+     * @return from - t grad.
+     */
+    private DoubleMatrix step(DoubleMatrix from, DoubleMatrix grad, double t) {
+        if (ranges == null) return Backends.get().axpy(-t, grad, from.dup());
+        DoubleMatrix to = from.dup();
+        for (int r = 0; r < ranges.length; r += 2)
+            for (int i = ranges[r]; i < ranges[r + 1]; i++) to.data[i] -= t * grad.data[i];
+        return to;
+    }
+    
+    /**
+     * The squared norm of a gradient, over the coordinates that may change.
+     * @param grad The gradient.
+     * @return The dot product of the gradient with itself.
+     */
+    protected double normSquared(DoubleMatrix grad){
+        if (ranges == null) return Backends.get().dot(grad, grad);
+        double sum = 0;
+        for (int r = 0; r < ranges.length; r += 2)
+            for (int i = ranges[r]; i < ranges[r + 1]; i++) sum += grad.data[i] * grad.data[i];
+        return sum;
+    }
+    
     /**
      * The backtracking portion of backtracking gradient descent.  The method
      * picks a point at some distance, and then reduces that distance by a 
@@ -58,14 +267,32 @@ public class GradDescentBackTrack extends RecursiveTask<double[]>{
      */
     protected DoubleMatrix jump(DoubleMatrix from, FuncAt atX) {
         double t = gamma;
-        final double reducedSlope = c * atX.grad.dot(atX.grad);
+        final double reducedSlope = c * normSquared(atX.grad);
+        int trials = 0;
+        boolean accepted;
 
-        while (f.at(from.sub(atX.grad.mul(t))) > atX.val - t*reducedSlope)
-            t *= gamma;
+        do {
+            LineSearchTrialEvent event = new LineSearchTrialEvent();
+            event.begin();
+            accepted = at(step(from, atX.grad, t)) <= atX.val - t*reducedSlope;
+            trials++;
+            if (event.shouldCommit()) {
+                event.trial = trials;
+                event.stepSize = t;
+                event.accepted = accepted;
+                event.commit();
+            }
+            if (!accepted) t *= gamma;
+        } while (!accepted);
         
-        DoubleMatrix to = from.add(atX.grad.mul(-t));
+        if (Metrics.ENABLED) {
+            TRIALS.record(trials);
+            STEP_SIZE.set(t);
+        }
+        
+        DoubleMatrix to = step(from, atX.grad, t);
         
-        if(from.sub(to).norm2() <= 1e-14) //TODO:remove
+        if(t * Math.sqrt(normSquared(atX.grad)) <= 1e-14) //TODO:remove
             throw new RuntimeException("This jump did not move at all.  The gradient is: " + atX);
         
         return to; 
@@ -80,13 +307,27 @@ public class GradDescentBackTrack extends RecursiveTask<double[]>{
     public double[] compute() {
         
         DoubleMatrix x = start;
-        FuncAt atX = f.funcAt(x.data);
+        f = f.reusingSamples(microBatches);
+        ranges = f.variableRanges();
+        FuncAt atX = funcAt(x);
 
-        while (!atMin(atX.grad)) {
+        while (!atMin(atX.grad) && !stop.test(x)) {
+            long stepStart = Metrics.ENABLED ? System.nanoTime() : 0;
             
             x = jump(x, atX);
+            int position = f.samplerPosition(), size = f.sampleSize();
             f = f.stochastic();
-            atX = f.funcAt(x.data);
+            iteration++;
+            if (checkpointer != null && checkpointer.isDue(iteration))
+                checkpointer.save(new Checkpoint(iteration, x.data.clone(), state(), position, size));
+            atX = funcAt(x);
+            
+            if (Metrics.ENABLED) {
+                ITERATIONS.inc();
+                STEP_TIME.recordSince(stepStart);
+                GRAD_NORM.set(Math.sqrt(normSquared(atX.grad)));
+                COST.set(atX.val);
+            }
         }
 
         return x.data;
@@ -98,7 +339,7 @@ public class GradDescentBackTrack extends RecursiveTask<double[]>{
      * @return True if this is a local minimum, false otherwise.
      */
     protected boolean atMin(DoubleMatrix grad){
-        return grad.dot(grad) <= tolerance;
+        return normSquared(grad) <= tolerance;
     }
     
     /**
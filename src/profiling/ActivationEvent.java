@@ -0,0 +1,40 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * An activation function applied to the output of a layer.
+ *
+ * @author Dov Neimand
+ */
+@Name("neuralnetwork.Activation")
+@Label("Activation")
+@Category({"Neural Network", "Layers"})
+@Description("An activation function, and possibly its derivative, over a layer's output.")
+@Enabled(false)
+@StackTrace(false)
+public class ActivationEvent extends Event {
+
+    @Label("Function")
+    public String function;
+
+    @Label("Layer")
+    public int layer;
+
+    @Label("Rows")
+    public int rows;
+
+    @Label("Batch Size")
+    public int batch;
+
+    @Label("Derivative")
+    @Description("True if the derivative was computed too.")
+    public boolean derivative;
+
+}
@@ -0,0 +1,34 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Data copied into the columns of a batch matrix.
+ *
+ * @author Dov Neimand
+ */
+@Name("neuralnetwork.BatchAssembly")
+@Label("Batch Assembly")
+@Category({"Neural Network", "Data"})
+@Description("Data copied into a batch matrix.")
+@Enabled(false)
+@StackTrace(false)
+public class BatchAssemblyEvent extends Event {
+
+    @Label("Source")
+    @Description("What the batch is for.")
+    public String source;
+
+    @Label("Batch Size")
+    public int batch;
+
+    @Label("Dimension")
+    public int dim;
+
+}
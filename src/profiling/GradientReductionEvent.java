@@ -0,0 +1,31 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The gradients of the data in a sample summed into one.
+ *
+ * @author Dov Neimand
+ */
+@Name("neuralnetwork.GradientReduction")
+@Label("Gradient Reduction")
+@Category({"Neural Network", "Optimization"})
+@Description("The per datum gradients computed and summed.")
+@Enabled(false)
+@StackTrace(false)
+public class GradientReductionEvent extends Event {
+
+    @Label("Samples")
+    public int samples;
+
+    @Label("Variables")
+    @Description("The number of weights and biases.")
+    public int variables;
+
+}
@@ -0,0 +1,38 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The gradient over one layer of an {@link neuralnetwork.ExecutionPlan}. The
+ * plan emits one for each layer it backpropagates through.
+ *
+ * @author Dov Neimand
+ */
+@Name("neuralnetwork.LayerBackward")
+@Label("Layer Backward")
+@Category({"Neural Network", "Layers"})
+@Description("The partial derivatives of a layer's outputs over the weights and biases.")
+@Enabled(false)
+@StackTrace(false)
+public class LayerBackwardEvent extends Event {
+
+    @Label("Layer")
+    @Description("The index of the layer, 0 for the layer applied to the data.")
+    public int layer;
+
+    @Label("Rows")
+    public int rows;
+
+    @Label("Columns")
+    public int cols;
+
+    @Label("Batch Size")
+    public int batch;
+
+}
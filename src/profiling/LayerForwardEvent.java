@@ -0,0 +1,39 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One layer of an {@link neuralnetwork.ExecutionPlan} applied to a batch. The
+ * plan emits one for each layer it runs forward, whether it is predicting,
+ * computing the cost, or computing the gradient.
+ *
+ * @author Dov Neimand
+ */
+@Name("neuralnetwork.LayerForward")
+@Label("Layer Forward")
+@Category({"Neural Network", "Layers"})
+@Description("A layer's affine transformation and activation over a batch.")
+@Enabled(false)
+@StackTrace(false)
+public class LayerForwardEvent extends Event {
+
+    @Label("Layer")
+    @Description("The index of the layer, 0 for the layer applied to the data.")
+    public int layer;
+
+    @Label("Rows")
+    public int rows;
+
+    @Label("Columns")
+    public int cols;
+
+    @Label("Batch Size")
+    public int batch;
+
+}
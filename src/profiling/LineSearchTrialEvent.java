@@ -0,0 +1,34 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One point tried by the backtracking line search.
+ *
+ * @author Dov Neimand
+ */
+@Name("neuralnetwork.LineSearchTrial")
+@Label("Line Search Trial")
+@Category({"Neural Network", "Optimization"})
+@Description("The function evaluated at one step size of a line search.")
+@Enabled(false)
+@StackTrace(false)
+public class LineSearchTrialEvent extends Event {
+
+    @Label("Trial")
+    @Description("1 for the first point tried in a line search.")
+    public int trial;
+
+    @Label("Step Size")
+    public double stepSize;
+
+    @Label("Accepted")
+    public boolean accepted;
+
+}
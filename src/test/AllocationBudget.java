@@ -0,0 +1,180 @@
+package test;
+
+import com.sun.management.ThreadMXBean;
+import data.ClassifiedData;
+import data.Datum;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.Stream;
+import neuralnetwork.ActivationFunctions.Sigmoid;
+import neuralnetwork.Architecture;
+import neuralnetwork.InferenceSession;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.NeuralNetworkBuilder;
+import neuralnetwork.PrioritizedSampler;
+import optimization.DiffReal;
+import optimization.FuncAt;
+import optimization.GradDescentBackTrack;
+import org.jblas.DoubleMatrix;
+
+/**
+ * Checks that the hot paths of training and inference don't allocate more
+ * than they're allowed to. The bytes allocated by each path are measured with
+ * {@link ThreadMXBean#getThreadAllocatedBytes(long[])} over all threads, so
+ * work done on the fork join pool is counted, after a warm up so the JIT has
+ * settled. The budgets, in bytes per operation, are in
+ * allocation-budgets.properties beside this class.
+ *
+ * The program exits with status 1 if any path is over budget. Pass
+ * "calibrate" to print the measured values in the properties format instead.
+ *
+ * @author Dov Neimand
+ */
+public class AllocationBudget {
+
+    private static final ThreadMXBean THREADS
+            = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final int WARMUP = 20_000, MEASURED = 500;
+
+    /**
+     * The bytes allocated so far by all live threads.
+     */
+    private static long allocated() {
+        return Arrays.stream(THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())).filter(b -> b > 0).sum();
+    }
+
+    /**
+     * The bytes allocated per run of an operation. What allocated() itself
+     * allocates is subtracted.
+     *
+     * @param op The operation.
+     * @param warmup The number of runs before measuring.
+     * @param measured The number of runs measured.
+     * @return The mean bytes allocated per run.
+     */
+    private static long bytesPerOp(Runnable op, int warmup, int measured) {
+        for (int i = 0; i < warmup; i++) op.run();
+        allocated();
+        long before = allocated();
+        for (int i = 0; i < measured; i++) op.run();
+        long after = allocated(), measuring = allocated() - after;
+        return Math.max(0, after - before - measuring) / measured;
+    }
+
+    /**
+     * The bytes allocated per operation of each path.
+     */
+    private static Map<String, Long> measure() {
+        Random rand = new Random(1);
+        Architecture arch = new Architecture(new Sigmoid(), 64, 32, 10);
+        double[] x = rand.doubles(arch.numVariables(), -1, 1).toArray();
+        NeuralNetwork nn = new NeuralNetwork(x, arch);
+
+        Datum[] data = new Datum[64];
+        Arrays.setAll(data, i -> new Datum(rand.doubles(arch.inputDim()).toArray(), i % 10, 10));
+        DoubleMatrix batch = new DoubleMatrix(arch.inputDim(), data.length);
+        for (int i = 0; i < data.length; i++)
+            System.arraycopy(data[i].data, 0, batch.data, i * arch.inputDim(), arch.inputDim());
+
+        ClassifiedData set = new ClassifiedData() {
+            @Override
+            public Stream<Datum> stream() {
+                return Arrays.stream(data);
+            }
+
+            @Override
+            public int size() {
+                return data.length;
+            }
+        };
+        NeuralNetworkBuilder builder = new NeuralNetworkBuilder(set, arch),
+                prioritized = new NeuralNetworkBuilder(set, arch).setPrioritizedSampler(new PrioritizedSampler(1, 1, 1));
+
+        InferenceSession session = nn.session();
+        double[] out = new double[arch.outputDim()];
+        Sigmoid sigmoid = new Sigmoid();
+        DoubleMatrix pre = new DoubleMatrix(rand.doubles(100, -1, 1).toArray());
+
+        Map<String, Long> bytes = new LinkedHashMap<>();
+        bytes.put("inference.session.predict", bytesPerOp(() -> session.predict(data[0].data, out), WARMUP, MEASURED));
+        bytes.put("network.apply.datum", bytesPerOp(() -> nn.apply(data[0]), WARMUP, MEASURED));
+        bytes.put("network.apply.batch64", bytesPerOp(() -> nn.apply(batch), WARMUP / 10, MEASURED / 10));
+        bytes.put("activation.ati.100", bytesPerOp(() -> sigmoid.ati(pre), WARMUP, MEASURED));
+        bytes.put("network.gradCost", bytesPerOp(() -> nn.gradCost(data[0]), WARMUP / 10, MEASURED / 10));
+        bytes.put("builder.funcAt.64", bytesPerOp(() -> builder.funcAt(x), 20, 20));
+        FuncAt sum = new FuncAt(new DoubleMatrix(1, arch.numVariables()), 0);
+        bytes.put("builder.addFuncAt.64", bytesPerOp(() -> builder.addFuncAt(x, sum), WARMUP, MEASURED / 10));
+        DiffReal[] window = {builder.reusingSamples(1)}, drawn = {prioritized.reusingSamples(1)};
+        bytes.put("builder.window.addFuncAt.64", bytesPerOp(() -> {
+            window[0] = window[0].stochastic();
+            window[0].addFuncAt(x, sum);
+        }, WARMUP, MEASURED));
+        bytes.put("builder.prioritized.addFuncAt.64", bytesPerOp(() -> {
+            drawn[0] = drawn[0].stochastic();
+            drawn[0].addFuncAt(x, sum);
+        }, WARMUP, MEASURED));
+
+        int steps = 10;
+        bytes.put("optimizer.iteration.64", bytesPerOp(() -> {
+            GradDescentBackTrack descent = new GradDescentBackTrack(builder, 0, new DoubleMatrix(x));
+            descent.stopWhen(point -> descent.iterations() >= steps).invoke();
+        }, 2, 3) / steps);
+
+        return bytes;
+    }
+
+    /**
+     * The budgets.
+     */
+    private static Properties budgets() throws IOException {
+        Properties budgets = new Properties();
+        try (InputStream in = AllocationBudget.class.getResourceAsStream("allocation-budgets.properties")) {
+            if (in == null) throw new IOException("allocation-budgets.properties is missing.");
+            budgets.load(in);
+        }
+        return budgets;
+    }
+
+    /**
+     * Measures every path and compares it to its budget.
+     *
+     * @param args "calibrate" to print the measurements as properties
+     * instead of checking them.
+     * @throws IOException If the budgets can't be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (!THREADS.isThreadAllocatedMemorySupported())
+            throw new UnsupportedOperationException("This JVM does not measure allocations.");
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        Map<String, Long> bytes = measure();
+
+        if (args.length > 0 && args[0].equals("calibrate")) {
+            bytes.forEach((path, b) -> System.out.println(path + "=" + b));
+            return;
+        }
+
+        Properties budgets = budgets();
+        int over = 0;
+        for (Map.Entry<String, Long> e : bytes.entrySet()) {
+            String budget = budgets.getProperty(e.getKey());
+            boolean ok = budget != null && e.getValue() <= Long.parseLong(budget.trim());
+            if (!ok) over++;
+            System.out.println(String.format(Locale.ROOT, "%-28s %12d bytes/op  budget %12s  %s",
+                    e.getKey(), e.getValue(), budget == null ? "none" : budget.trim(), ok ? "ok" : "OVER"));
+        }
+        if (over > 0) {
+            System.out.println(over + " paths over budget.");
+            System.exit(1);
+        }
+    }
+
+}
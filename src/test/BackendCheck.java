@@ -0,0 +1,208 @@
+package test;
+
+import compute.Backend;
+import compute.Backends;
+import compute.JavaBackend;
+import compute.JblasBackend;
+import data.ClassifiedData;
+import data.Datum;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import neuralnetwork.ActivationFunctions.Sigmoid;
+import neuralnetwork.Architecture;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.NeuralNetworkBuilder;
+import neuralnetwork.Pruning;
+import optimization.FuncAt;
+import org.jblas.DoubleMatrix;
+
+/**
+ * Runs the same checks against every backend. The array operations are
+ * compared to a direct evaluation of their definitions, and a network's
+ * outputs and gradients computed with each backend are compared to those
+ * computed with the first. The jblas backend is skipped if its native library
+ * can't be loaded. The program exits with status 1 if any check fails.
+ *
+ * @author Dov Neimand
+ */
+public class BackendCheck {
+
+    private static final double TOLERANCE = 1e-9;
+
+    /**
+     * The m, n and k of the products checked: small enough for direct loops,
+     * blocked with partial edge blocks, and large enough to run in parallel.
+     */
+    private static final int[][] SHAPES = {{7, 5, 6}, {37, 29, 41}, {150, 70, 300}};
+
+    private final Random rand = new Random(1);
+    private final List<String> failures = new ArrayList<>();
+
+    private void check(String what, double expected, double actual) {
+        if (Math.abs(expected - actual) > TOLERANCE * Math.max(1, Math.abs(expected)))
+            failures.add(what + ": expected " + expected + " but got " + actual);
+    }
+
+    private void check(String what, double[] expected, double[] actual) {
+        if (expected.length != actual.length) {
+            failures.add(what + ": expected length " + expected.length + " but got " + actual.length);
+            return;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            check(what + "[" + i + "]", expected[i], actual[i]);
+            if (!failures.isEmpty() && failures.get(failures.size() - 1).startsWith(what)) return;
+        }
+    }
+
+    private double[] random(int n) {
+        return rand.doubles(n, -1, 1).toArray();
+    }
+
+    /**
+     * The element at row i, column j of a column major matrix, transposed if
+     * trans.
+     */
+    private static double at(double[] a, int off, int ld, boolean trans, int i, int j) {
+        return trans ? a[off + j + i * ld] : a[off + i + j * ld];
+    }
+
+    /**
+     * Checks the array operations of a backend against their definitions.
+     */
+    private void arrays(Backend blas) {
+        String name = blas.name();
+        for (boolean transA : new boolean[]{false, true})
+            for (boolean transB : new boolean[]{false, true})
+                for (double beta : new double[]{0, 1, 0.5})
+                    for (int[] shape : SHAPES) {
+                        int m = shape[0], n = shape[1], k = shape[2], off = 3;
+                        int lda = (transA ? k : m) + 2, ldb = (transB ? n : k) + 1, ldc = m + 4;
+                        double[] a = random(off + lda * (transA ? m : k)),
+                                b = random(off + ldb * (transB ? k : n)),
+                                c = random(off + ldc * n), expected = c.clone();
+                        for (int i = 0; i < m; i++)
+                            for (int j = 0; j < n; j++) {
+                                double sum = 0;
+                                for (int p = 0; p < k; p++)
+                                    sum += at(a, off, lda, transA, i, p) * at(b, off, ldb, transB, p, j);
+                                expected[off + i + j * ldc] = 1.5 * sum + beta * c[off + i + j * ldc];
+                            }
+                        blas.gemm(transA, transB, m, n, k, 1.5, a, off, lda, b, off, ldb, beta, c, off, ldc);
+                        check(name + " gemm " + Arrays.toString(shape) + " " + transA + " " + transB + " " + beta, expected, c);
+                    }
+
+        for (boolean trans : new boolean[]{false, true}) {
+            int m = 9, n = 7, off = 2, lda = m + 3;
+            int xLen = trans ? m : n, yLen = trans ? n : m;
+            double[] a = random(off + lda * n), x = random(off + xLen), y = random(off + yLen),
+                    expected = y.clone();
+            for (int i = 0; i < yLen; i++) {
+                double sum = 0;
+                for (int j = 0; j < xLen; j++)
+                    sum += at(a, off, lda, trans, i, j) * x[off + j];
+                expected[off + i] = 2 * sum + 0.5 * y[off + i];
+            }
+            blas.gemv(trans, m, n, 2, a, off, lda, x, off, 0.5, y, off);
+            check(name + " gemv " + trans, expected, y);
+        }
+
+        double[] x = random(20), y = random(20), expected = y.clone();
+        double dot = 0, sum = 0;
+        for (int i = 1; i < 20; i++) {
+            expected[i] += -0.3 * x[i];
+            dot += x[i] * y[i];
+            sum += x[i];
+        }
+        check(name + " dot", dot, blas.dot(19, x, 1, y, 1));
+        check(name + " sum", sum, blas.sum(19, x, 1));
+        blas.axpy(19, -0.3, x, 1, y, 1);
+        check(name + " axpy", expected, y);
+
+        double[] mapped = new double[20];
+        blas.map(20, Math::exp, x, 0, mapped, 0);
+        check(name + " map", Arrays.stream(x).map(Math::exp).toArray(), mapped);
+
+        DoubleMatrix a = new DoubleMatrix(4, 3, random(12)), b = new DoubleMatrix(3, 2, random(6)),
+                c = new DoubleMatrix(4, 5);
+        blas.addProduct(a, b, c);
+        blas.addProduct(a, b, c);
+        DoubleMatrix ab = blas.mmul(a, b);
+        check(name + " addProduct", Arrays.copyOf(ab.mul(2).data, c.length), c.data);
+    }
+
+    /**
+     * The outputs and gradients of a few networks, all concatenated. The
+     * factored network has random factors rather than a factorization of the
+     * dense one, which would need jblas' native library.
+     */
+    private double[] network() {
+        Random r = new Random(2);
+        Architecture arch = new Architecture(new Sigmoid(), 12, 8, 6, 3);
+        double[] x = r.doubles(arch.numVariables(), -1, 1).toArray();
+        Datum[] data = new Datum[20];
+        Arrays.setAll(data, i -> new Datum(r.doubles(12).toArray(), i % 3, 3));
+        DoubleMatrix batch = new DoubleMatrix(12, data.length);
+        for (int i = 0; i < data.length; i++) System.arraycopy(data[i].data, 0, batch.data, i * 12, 12);
+
+        ClassifiedData set = new ClassifiedData() {
+            @Override
+            public Stream<Datum> stream() {
+                return Arrays.stream(data);
+            }
+
+            @Override
+            public int size() {
+                return data.length;
+            }
+        };
+
+        Architecture lowRank = arch.withRank(0, 3);
+        NeuralNetwork dense = new NeuralNetwork(x, arch),
+                factored = new NeuralNetwork(r.doubles(lowRank.numVariables(), -1, 1).toArray(), lowRank),
+                sparse = new NeuralNetwork(Pruning.byMagnitude(arch, x, 0.8), arch);
+
+        List<double[]> results = new ArrayList<>();
+        for (NeuralNetwork nn : new NeuralNetwork[]{dense, factored, sparse}) {
+            results.add(nn.apply(batch).data);
+            results.add(nn.session().predict(data[0].data, new double[3]));
+            FuncAt at = nn.gradCost(data[1]);
+            results.add(at.grad.data);
+            results.add(new double[]{at.val});
+            FuncAt all = new NeuralNetworkBuilder(set, nn.architecture).funcAt(nn.weightsAndBiases());
+            results.add(all.grad.data);
+            results.add(new double[]{all.val});
+        }
+        return results.stream().flatMapToDouble(Arrays::stream).toArray();
+    }
+
+    /**
+     * Checks every available backend.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        BackendCheck check = new BackendCheck();
+        List<Backend> backends = new ArrayList<>(List.of(new JavaBackend()));
+        if (Backends.nativeAvailable()) backends.add(0, new JblasBackend());
+        else System.out.println("jblas native library not available, skipping it.");
+
+        Backend original = Backends.get();
+        double[] expected = null;
+        for (Backend blas : backends) {
+            check.arrays(blas);
+            Backends.use(blas);
+            double[] results = check.network();
+            if (expected == null) expected = results;
+            else check.check(blas.name() + " network", expected, results);
+            System.out.println(blas.name() + " checked");
+        }
+        Backends.use(original);
+
+        check.failures.forEach(System.out::println);
+        if (!check.failures.isEmpty()) System.exit(1);
+    }
+
+}
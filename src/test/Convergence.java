@@ -0,0 +1,306 @@
+package test;
+
+import data.ClassifiedData;
+import data.DiskSampleDataSet;
+import data.MNISTData;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import neuralnetwork.ActivationFunctions.Sigmoid;
+import neuralnetwork.Architecture;
+import neuralnetwork.Evaluation;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.NeuralNetworkBuilder;
+import optimization.DiffReal;
+import optimization.FuncAt;
+import optimization.GradDescentBackTrack;
+import org.jblas.DoubleMatrix;
+
+/**
+ * Measures how long training takes to reach given accuracies. Each run trains
+ * an architecture on a data set with an optimizer and a sampler, from a
+ * seeded start, and records the wall clock time, jumps, gradient evaluations
+ * and cost evaluations at which each target accuracy was first reached. The
+ * time spent measuring accuracy is not counted.
+ *
+ * Each result is written as one line of JSON.
+ *
+ * @author Dov Neimand
+ */
+public class Convergence {
+
+    /**
+     * Counts the evaluations of a function and all the stochastic functions
+     * it produces.
+     */
+    private static class Counted implements DiffReal {
+
+        private final DiffReal f;
+        private final AtomicLong grads, costs;
+        private final boolean stochastic;
+
+        /**
+         * @param f The function being counted.
+         * @param stochastic False to evaluate the whole function at every
+         * step, true to use its stochastic samples.
+         */
+        Counted(DiffReal f, boolean stochastic) {
+            this(f, stochastic, new AtomicLong(), new AtomicLong());
+        }
+
+        private Counted(DiffReal f, boolean stochastic, AtomicLong grads, AtomicLong costs) {
+            this.f = f;
+            this.stochastic = stochastic;
+            this.grads = grads;
+            this.costs = costs;
+        }
+
+        @Override
+        public DoubleMatrix grad(double[] x) {
+            grads.incrementAndGet();
+            return f.grad(x);
+        }
+
+        @Override
+        public FuncAt funcAt(double[] x) {
+            grads.incrementAndGet();
+            costs.incrementAndGet();
+            return f.funcAt(x);
+        }
+
+        @Override
+        public FuncAt addFuncAt(double[] x, FuncAt sum) {
+            grads.incrementAndGet();
+            costs.incrementAndGet();
+            return f.addFuncAt(x, sum);
+        }
+
+        @Override
+        public double applyAsDouble(double[] x) {
+            costs.incrementAndGet();
+            return f.applyAsDouble(x);
+        }
+
+        @Override
+        public int domainDim() {
+            return f.domainDim();
+        }
+
+        @Override
+        public int[] variableRanges() {
+            return f.variableRanges();
+        }
+
+        @Override
+        public DiffReal stochastic() {
+            return stochastic ? new Counted(f.stochastic(), true, grads, costs) : this;
+        }
+
+        @Override
+        public int samplerPosition() {
+            return f.samplerPosition();
+        }
+
+        @Override
+        public DiffReal atSamplerPosition(int position) {
+            return new Counted(f.atSamplerPosition(position), stochastic, grads, costs);
+        }
+
+        @Override
+        public int sampleSize() {
+            return f.sampleSize();
+        }
+
+        @Override
+        public DiffReal atSampleSize(int size) {
+            return new Counted(f.atSampleSize(size), stochastic, grads, costs);
+        }
+
+        @Override
+        public DiffReal reusingSamples(int inUse) {
+            return new Counted(f.reusingSamples(inUse), stochastic, grads, costs);
+        }
+    }
+
+    /**
+     * A named way to build an optimizer from the function to be minimized
+     * and the start point.
+     */
+    private static class Optimizer {
+
+        final String name;
+        /**
+         * True if the optimizer only differs from another with stochastic
+         * samples, as when it sums the gradients of several samples, which
+         * without sampling are the same gradient several times.
+         */
+        final boolean samplesOnly;
+        final BiFunction<DiffReal, DoubleMatrix, GradDescentBackTrack> make;
+
+        Optimizer(String name, boolean samplesOnly, BiFunction<DiffReal, DoubleMatrix, GradDescentBackTrack> make) {
+            this.name = name;
+            this.samplesOnly = samplesOnly;
+            this.make = make;
+        }
+    }
+
+    /**
+     * The optimizers that are compared.
+     */
+    private static final List<Optimizer> OPTIMIZERS = List.of(
+            new Optimizer("GradDescentBackTrack", false, (f, start) -> new GradDescentBackTrack(f, 1e-12, start)),
+            new Optimizer("GradDescentBackTrack x4", true, (f, start) -> new GradDescentBackTrack(f, 1e-12, start).accumulate(4))
+    );
+
+    private final PrintStream out;
+    /**
+     * How many jumps between measurements of the accuracy.
+     */
+    private final int evalEvery;
+    /**
+     * Runs are stopped after this many jumps whether or not they reached
+     * their targets.
+     */
+    private final long maxIterations;
+
+    /**
+     * @param out Where the results are written.
+     * @param evalEvery How many jumps between measurements of the accuracy.
+     * @param maxIterations The most jumps a run may take.
+     */
+    public Convergence(PrintStream out, int evalEvery, long maxIterations) {
+        this.out = out;
+        this.evalEvery = evalEvery;
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Trains with every optimizer and sampler and writes how long each took
+     * to reach each target. Optimizers that only differ with stochastic
+     * samples aren't run on the whole data.
+     *
+     * @param dataName The name of the data set, for the results.
+     * @param train The training data.
+     * @param test The data the accuracy is measured on.
+     * @param arch The architecture to be trained.
+     * @param seed Seeds the start point.
+     * @param targets The accuracies, in increasing order.
+     */
+    public void run(String dataName, ClassifiedData train, ClassifiedData test,
+            Architecture arch, long seed, double... targets) {
+        for (Optimizer opt : OPTIMIZERS)
+            for (boolean stochastic : new boolean[]{false, true})
+                if (stochastic || !opt.samplesOnly) run(dataName, train, test, arch, seed, opt, stochastic, targets);
+    }
+
+    private void run(String dataName, ClassifiedData train, ClassifiedData test,
+            Architecture arch, long seed, Optimizer opt, boolean stochastic, double[] targets) {
+
+        Counted f = new Counted(new NeuralNetworkBuilder(train, arch), stochastic);
+
+        Random rand = new Random(seed);
+        DoubleMatrix start = new DoubleMatrix(arch.numVariables());
+        for (int i = 0; i < start.length; i++) start.data[i] = rand.nextGaussian();
+
+        long[] millis = new long[targets.length], iterations = new long[targets.length],
+                grads = new long[targets.length], costs = new long[targets.length];
+        double[] accuracy = new double[targets.length];
+        Arrays.fill(millis, -1);
+
+        GradDescentBackTrack descent = opt.make.apply(f, start);
+        long begin = System.nanoTime();
+        long[] measuring = {0};
+        int[] reached = {0};
+
+        descent.stopWhen(x -> {
+            if (descent.iterations() % evalEvery != 0 && descent.iterations() < maxIterations)
+                return false;
+            long now = System.nanoTime();
+            double acc = Evaluation.of(new NeuralNetwork(x.data, arch), test).accuracy();
+            for (; reached[0] < targets.length && acc >= targets[reached[0]]; reached[0]++) {
+                millis[reached[0]] = (now - begin - measuring[0]) / 1_000_000;
+                iterations[reached[0]] = descent.iterations();
+                grads[reached[0]] = f.grads.get();
+                costs[reached[0]] = f.costs.get();
+                accuracy[reached[0]] = acc;
+            }
+            measuring[0] += System.nanoTime() - now;
+            return reached[0] == targets.length || descent.iterations() >= maxIterations;
+        });
+        descent.invoke();
+
+        for (int i = 0; i < targets.length; i++)
+            out.println(String.format(Locale.ROOT,
+                    "{\"data\":\"%s\",\"architecture\":\"%s\",\"optimizer\":\"%s\","
+                    + "\"sampler\":\"%s\",\"seed\":%d,\"target\":%.4f,\"reached\":%b,"
+                    + "\"accuracy\":%.4f,\"millis\":%d,\"iterations\":%d,"
+                    + "\"gradEvals\":%d,\"costEvals\":%d}",
+                    dataName, name(arch), opt.name, stochastic ? "window" : "full",
+                    seed, targets[i], millis[i] >= 0, accuracy[i], millis[i],
+                    iterations[i], grads[i], costs[i]));
+        out.flush();
+    }
+
+    /**
+     * The architecture as the number of nodes in each layer, starting with
+     * the input dimension, separated by dashes.
+     */
+    private static String name(Architecture arch) {
+        StringBuilder sb = new StringBuilder().append(arch.inputDim());
+        for (int i = 0; i < arch.numLayers(); i++) sb.append('-').append(arch.get(i).rows);
+        return sb.toString();
+    }
+
+    /**
+     * Three disks of points, as in {@link Test#data()}, but seeded.
+     */
+    private static DiskSampleDataSet disks(long seed) {
+        return new DiskSampleDataSet(new DiskSampleDataSet.Disk[]{
+            new DiskSampleDataSet.Disk(1000, new DoubleMatrix(new double[]{0, 0}), 1),
+            new DiskSampleDataSet.Disk(1000, new DoubleMatrix(new double[]{0, 2}), 1),
+            new DiskSampleDataSet.Disk(1000, new DoubleMatrix(new double[]{2, 0}), 1)
+        }, seed);
+    }
+
+    /**
+     * Runs the suite.
+     *
+     * @param args An optional file the results are written to, standard out
+     * otherwise, followed optionally by "mnist" to include the MNIST runs,
+     * which take much longer.
+     * @throws IOException If the results file can't be written.
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> flags = new ArrayList<>(List.of(args));
+        boolean mnist = flags.remove("mnist");
+        PrintStream out = flags.isEmpty() ? System.out
+                : new PrintStream(Files.newOutputStream(Paths.get(flags.get(0))), true);
+
+        Convergence disks = new Convergence(out, 10, 5_000);
+        for (long seed = 1; seed <= 3; seed++) {
+            DiskSampleDataSet data = disks(seed);
+            disks.run("disks", data, data, new Architecture(new Sigmoid(), 2, 3, 3),
+                    seed, 0.9, 0.95, 0.99);
+            disks.run("disks", data, data, new Architecture(new Sigmoid(), 2, 8, 3),
+                    seed, 0.9, 0.95, 0.99);
+        }
+
+        if (mnist) {
+            MNISTData train = new MNISTData(true, true), test = new MNISTData(false, true);
+            new Convergence(out, 50, 20_000).run("mnist", train, test,
+                    new Architecture(new Sigmoid(), train.dim(), 100, 50, 10),
+                    1, 0.5, 0.8, 0.9);
+        }
+
+        if (out != System.out) out.close();
+    }
+
+}
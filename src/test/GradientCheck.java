@@ -0,0 +1,113 @@
+package test;
+
+import data.Datum;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import neuralnetwork.ActivationFunctions.Sigmoid;
+import neuralnetwork.Architecture;
+import neuralnetwork.ExecutionPlan;
+import neuralnetwork.Layer;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.Pruning;
+
+/**
+ * Compares the gradients the execution plan computes to central finite
+ * differences of the cost, for networks with dense, sparse and factored
+ * layers. The plan's gradient is half the gradient of the cost, see
+ * {@link ExecutionPlan#addGradCost(Datum, ExecutionPlan.Workspace, double[])}.
+ * The Jacobian of the top layer, {@link Layer#grad(Datum)}, is checked to
+ * give the same gradient by the chain rule. The program exits with status 1 if any partial derivative is off by more
+ * than the tolerance.
+ *
+ * @author Dov Neimand
+ */
+public class GradientCheck {
+
+    private static final double STEP = 1e-6, TOLERANCE = 1e-7;
+
+    private final Random rand = new Random(1);
+    private final List<String> failures = new ArrayList<>();
+
+    /**
+     * The cost of a network at a datum.
+     */
+    private static double cost(double[] x, Architecture arch, Datum datum) {
+        return new NeuralNetwork(x, arch).gradCost(datum).val;
+    }
+
+    /**
+     * Checks every partial derivative of a network's cost at a few data.
+     *
+     * @param name What the network is called in the report.
+     * @param arch The architecture.
+     * @param x The weights and biases.
+     * @param stored True if the network's second layer is stored as the
+     * name says.
+     */
+    private void check(String name, Architecture arch, double[] x, boolean stored) {
+        if (!stored) {
+            failures.add(name + ": the layer isn't stored as it should be.");
+            return;
+        }
+        NeuralNetwork nn = new NeuralNetwork(x, arch);
+        ExecutionPlan.Workspace ws = nn.plan().workspace();
+        double worst = 0;
+        for (int d = 0; d < 3; d++) {
+            Datum datum = new Datum(rand.doubles(arch.inputDim()).toArray(), d % arch.outputDim(), arch.outputDim());
+            double[] grad = new double[arch.numVariables()];
+            nn.plan().addGradCost(datum, ws, grad);
+            Layer.BackTrackResult top = nn.layers()[arch.numLayers() - 1].grad(datum);
+            for (int i = 0; i < x.length; i++) {
+                double chained = 0;
+                for (int r = 0; r < arch.outputDim(); r++)
+                    chained += (top.val.get(r) - (r == datum.type ? 1 : 0)) * top.grad.get(r, i);
+                if (Math.abs(chained - grad[i]) > TOLERANCE) {
+                    failures.add(name + " variable " + i + ": the plan gives " + grad[i]
+                            + " but the top layer's Jacobian gives " + chained);
+                    return;
+                }
+            }
+            for (int i = 0; i < x.length; i++) {
+                double xi = x[i];
+                x[i] = xi + STEP;
+                double up = cost(x, arch, datum);
+                x[i] = xi - STEP;
+                double down = cost(x, arch, datum);
+                x[i] = xi;
+                double diff = Math.abs(2 * grad[i] - (up - down) / (2 * STEP));
+                worst = Math.max(worst, diff);
+                if (diff > TOLERANCE) {
+                    failures.add(name + " variable " + i + ": the plan gives " + 2 * grad[i]
+                            + " but finite differences give " + (up - down) / (2 * STEP));
+                    return;
+                }
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "%-10s largest difference %.2e", name, worst));
+    }
+
+    /**
+     * Runs the checks.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        GradientCheck check = new GradientCheck();
+        Architecture arch = new Architecture(new Sigmoid(), 8, 6, 5, 3);
+        double[] x = check.rand.doubles(arch.numVariables(), -1, 1).toArray();
+        check.check("dense", arch, x.clone(), !new NeuralNetwork(x, arch).layers()[1].isSparse());
+
+        double[] pruned = Pruning.byMagnitude(arch, x, 0.8);
+        check.check("sparse", arch, pruned, new NeuralNetwork(pruned, arch).layers()[1].isSparse());
+
+        Architecture factored = arch.withRank(0, 2).withRank(1, 2);
+        double[] y = check.rand.doubles(factored.numVariables(), -1, 1).toArray();
+        check.check("factored", factored, y, new NeuralNetwork(y, factored).layers()[1].isFactored());
+
+        check.failures.forEach(System.out::println);
+        if (!check.failures.isEmpty()) System.exit(1);
+    }
+
+}
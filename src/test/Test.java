@@ -4,6 +4,7 @@ import data.ClassifiedData;
 import data.DiskSampleDataSet;
 import data.MNISTData;
 import neuralnetwork.Architecture;
+import neuralnetwork.Evaluation;
 import neuralnetwork.NeuralNetwork;
 import neuralnetwork.NeuralNetworkBuilder;
 import neuralnetwork.ActivationFunctions.Sigmoid;
@@ -59,9 +60,7 @@ public class Test {
 
         MNISTData testSet = new MNISTData(false);
 
-        long correct = testSet.parallel().filter(datum -> nn.correctlyPredicts(datum)).count();
-
-        System.out.println((double) correct / testSet.size());
+        System.out.println(Evaluation.of(nn, testSet));
     }
 
     
@@ -0,0 +1,425 @@
+package test;
+
+import compute.Backend;
+import compute.Backends;
+import data.ClassifiedData;
+import data.Datum;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import javax.tools.ToolProvider;
+import neuralnetwork.ActivationFunctions.Sigmoid;
+import neuralnetwork.Architecture;
+import neuralnetwork.AutoTuner;
+import neuralnetwork.BatchSchedule;
+import neuralnetwork.CompiledNetwork;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.NeuralNetworkBuilder;
+import neuralnetwork.PrioritizedSampler;
+import neuralnetwork.Pruning;
+import optimization.Checkpoint;
+import optimization.Checkpointer;
+import optimization.DiffReal;
+import optimization.FuncAt;
+import optimization.GradDescentBackTrack;
+import org.jblas.DoubleMatrix;
+
+/**
+ * Checks the ways training can be changed without changing what it computes,
+ * or changing it only as intended: gradient checkpoints, frozen layers, batch
+ * schedules and prioritized sampling. The program exits with status 1 if any
+ * check fails.
+ *
+ * @author Dov Neimand
+ */
+public class TrainingCheck {
+
+    private static final double TOLERANCE = 1e-12;
+
+    private final Random rand = new Random(1);
+    private final List<String> failures = new ArrayList<>();
+
+    private void check(String what, boolean ok) {
+        if (!ok) failures.add(what);
+    }
+
+    private void check(String what, double expected, double actual) {
+        if (Math.abs(expected - actual) > TOLERANCE * Math.max(1, Math.abs(expected)))
+            failures.add(what + ": expected " + expected + " but got " + actual);
+    }
+
+    private void check(String what, double[] expected, double[] actual) {
+        for (int i = 0; i < expected.length; i++)
+            if (Math.abs(expected[i] - actual[i]) > TOLERANCE * Math.max(1, Math.abs(expected[i]))) {
+                failures.add(what + "[" + i + "]: expected " + expected[i] + " but got " + actual[i]);
+                return;
+            }
+    }
+
+    private void throwsIllegalArgument(String what, Runnable r) {
+        try {
+            r.run();
+            failures.add(what + " was accepted.");
+        } catch (IllegalArgumentException ex) {
+            //expected
+        }
+    }
+
+    /**
+     * Random data with a classification that depends on it.
+     */
+    private Datum[] data(int n, int dim, int types) {
+        Datum[] data = new Datum[n];
+        for (int i = 0; i < n; i++) {
+            double[] x = rand.doubles(dim).toArray();
+            data[i] = new Datum(x, (int) (x[0] * types), types);
+        }
+        return data;
+    }
+
+    private static ClassifiedData set(Datum[] data) {
+        return new ClassifiedData() {
+            @Override
+            public Stream<Datum> stream() {
+                return Arrays.stream(data);
+            }
+
+            @Override
+            public int size() {
+                return data.length;
+            }
+        };
+    }
+
+    /**
+     * The gradient over some data, with checkpoints every k layers.
+     */
+    private static double[] gradient(NeuralNetwork nn, Datum[] data, int k) {
+        return nn.addGradCost(data, 0, data.length, k,
+                new FuncAt(new DoubleMatrix(1, nn.architecture.numVariables()), 0)).grad.data;
+    }
+
+    /**
+     * Gradients with checkpoints, and with frozen layers, are the full
+     * gradient, with the variables of the frozen layers left at 0. The
+     * compiled network agrees with the plan, and a descent doesn't move the
+     * frozen variables.
+     */
+    private void frozenAndCheckpointed() {
+        Architecture arch = new Architecture(new Sigmoid(), 4, 6, 5, 5, 3);
+        Datum[] data = data(50, 4, 3);
+        double[] x = rand.doubles(arch.numVariables(), -1, 1).toArray(),
+                full = gradient(new NeuralNetwork(x, arch), data, 0);
+        boolean compiler = ToolProvider.getSystemJavaCompiler() != null;
+        if (!compiler) System.out.println("No Java compiler, skipping the compiled networks.");
+
+        Architecture[] frozen = {arch, arch.freezeBelow(2), arch.freezeBelow(3),
+            arch.withTrainable(1, false), arch.freezeBelow(4)};
+        for (Architecture a : frozen) {
+            double[] expected = new double[full.length];
+            int[] ranges = a.trainableRanges();
+            for (int r = 0; r < ranges.length; r += 2)
+                System.arraycopy(full, ranges[r], expected, ranges[r], ranges[r + 1] - ranges[r]);
+            NeuralNetwork nn = new NeuralNetwork(x, a);
+            for (int k = 0; k <= a.numLayers(); k++)
+                check(Arrays.toString(ranges) + " with checkpoints every " + k, expected, gradient(nn, data, k));
+            check("tuning key of " + Arrays.toString(ranges),
+                    a == arch || !AutoTuner.key(a).equals(AutoTuner.key(arch)));
+
+            if (compiler) {
+                CompiledNetwork compiled = CompiledNetwork.compile(nn);
+                double[] grad = new double[full.length];
+                for (Datum d : data) compiled.addGradCost(d.data, d.type, grad);
+                check("compiled " + Arrays.toString(ranges), expected, grad);
+            }
+        }
+
+        Architecture a = arch.freezeBelow(2);
+        GradDescentBackTrack descent = new GradDescentBackTrack(new NeuralNetworkBuilder(set(data), a),
+                0, new DoubleMatrix(x));
+        descent.stopWhen(p -> descent.iterations() >= 10);
+        double[] trained = descent.invoke();
+        int firstTrainable = a.trainableRanges()[0];
+        check("frozen variables after a descent",
+                Arrays.equals(Arrays.copyOf(x, firstTrainable), Arrays.copyOf(trained, firstTrainable)));
+        check("trainable variables after a descent", !Arrays.equals(x, trained));
+    }
+
+    /**
+     * The schedules reject bad parameters, grow when they should, and are
+     * resumed at the size they reached.
+     */
+    private void schedules() {
+        throwsIllegalArgument("A growth of 1", () -> new BatchSchedule.Fixed(4, 1, 3));
+        throwsIllegalArgument("Growing every 0 samples", () -> new BatchSchedule.Fixed(4, 2, 0));
+        throwsIllegalArgument("A theta of 0", () -> new BatchSchedule.Variance(4, 2, 0));
+        throwsIllegalArgument("A patience of 0", () -> new BatchSchedule.Plateau(4, 2, 0, 0.01));
+
+        Architecture arch = new Architecture(new Sigmoid(), 4, 6, 3);
+        double[] x = rand.doubles(arch.numVariables(), -1, 1).toArray();
+        BatchSchedule fixed = new BatchSchedule.Fixed(4, 2, 3);
+        NeuralNetworkBuilder builder = new NeuralNetworkBuilder(set(data(100, 4, 3)), arch)
+                .setBatchSchedule(fixed);
+        check("the first size", 4, fixed.size());
+        for (int i = 0; i < 3; i++) builder.stochastic().funcAt(x);
+        check("the size after 3 samples", 8, fixed.size());
+        for (int i = 0; i < 12; i++) builder.stochastic().funcAt(x);
+        check("the size after 15 samples", 100, fixed.size());
+        check("a full schedule samples everything", builder.stochastic() == builder);
+
+        BatchSchedule resumed = new BatchSchedule.Fixed(4, 2, 3);
+        NeuralNetworkBuilder again = new NeuralNetworkBuilder(set(data(100, 4, 3)), arch)
+                .setBatchSchedule(resumed);
+        again.atSampleSize(32);
+        check("the resumed size", 32, again.sampleSize());
+
+        Datum[] data = data(100, 4, 3), wrapped = new Datum[30];
+        for (int i = 0; i < wrapped.length; i++) wrapped[i] = data[(90 + i) % data.length];
+        DiffReal window = new NeuralNetworkBuilder(set(data), arch)
+                .setBatchSchedule(new BatchSchedule.Constant(30)).atSamplerPosition(90).stochastic();
+        check("a sample that wraps around", gradient(new NeuralNetwork(x, arch), wrapped, 0), window.funcAt(x).grad.data);
+    }
+
+    /**
+     * The points a descent visits, from its start up to the given
+     * number of jumps.
+     */
+    private static List<double[]> descend(GradDescentBackTrack descent, long jumps) {
+        List<double[]> points = new ArrayList<>();
+        descent.stopWhen(p -> {
+            points.add(p.data.clone());
+            return descent.iterations() >= jumps;
+        }).invoke();
+        return points;
+    }
+
+    /**
+     * A descent stopped at a checkpoint and resumed from it visits the same
+     * points as one that was never stopped.
+     */
+    private void resume() throws IOException {
+        Architecture arch = new Architecture(new Sigmoid(), 4, 6, 3);
+        Datum[] data = data(100, 4, 3);
+        DoubleMatrix x = new DoubleMatrix(rand.doubles(arch.numVariables(), -1, 1).toArray());
+        List<double[]> uninterrupted = descend(new GradDescentBackTrack(
+                new NeuralNetworkBuilder(set(data), arch), 0, x.dup()), 8);
+
+        Path dir = Files.createTempDirectory("checkpoints");
+        Checkpoint checkpoint;
+        try (Checkpointer checkpointer = new Checkpointer(dir, 4, 1)) {
+            descend(new GradDescentBackTrack(new NeuralNetworkBuilder(set(data), arch), 0, x.dup())
+                    .checkpointTo(checkpointer), 4);
+            checkpointer.close();
+            checkpoint = checkpointer.latest().get();
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+        List<double[]> resumed = descend(new GradDescentBackTrack(
+                new NeuralNetworkBuilder(set(data), arch), 0).resumeFrom(checkpoint), 8);
+
+        check("the jumps after resuming", uninterrupted.size() - 4, resumed.size());
+        for (int i = 0; i < resumed.size() && 4 + i < uninterrupted.size(); i++)
+            check("the point " + (4 + i) + " jumps in, resumed", uninterrupted.get(4 + i), resumed.get(i));
+    }
+
+    /**
+     * A function that draws a new builder for every stochastic variation,
+     * where a descent would have the builder reuse them.
+     */
+    private static DiffReal fresh(DiffReal f) {
+        return new DiffReal() {
+            @Override
+            public DoubleMatrix grad(double[] x) {
+                return f.grad(x);
+            }
+
+            @Override
+            public FuncAt funcAt(double[] x) {
+                return f.funcAt(x);
+            }
+
+            @Override
+            public FuncAt addFuncAt(double[] x, FuncAt sum) {
+                return f.addFuncAt(x, sum);
+            }
+
+            @Override
+            public double applyAsDouble(double[] x) {
+                return f.applyAsDouble(x);
+            }
+
+            @Override
+            public int domainDim() {
+                return f.domainDim();
+            }
+
+            @Override
+            public DiffReal stochastic() {
+                return fresh(f.stochastic());
+            }
+        };
+    }
+
+    /**
+     * A descent that sums micro-batches over samples it reuses visits the
+     * same points as one over new samples, with samples in order and
+     * prioritized.
+     */
+    private void reuse() {
+        Architecture arch = new Architecture(new Sigmoid(), 4, 6, 3);
+        Datum[] data = data(100, 4, 3);
+        DoubleMatrix x = new DoubleMatrix(rand.doubles(arch.numVariables(), -1, 1).toArray());
+        for (boolean prioritized : new boolean[]{false, true}) {
+            NeuralNetworkBuilder reused = new NeuralNetworkBuilder(set(data), arch),
+                    fresh = new NeuralNetworkBuilder(set(data), arch);
+            if (prioritized) {
+                reused.setPrioritizedSampler(new PrioritizedSampler(1, 1, 3));
+                fresh.setPrioritizedSampler(new PrioritizedSampler(1, 1, 3));
+            }
+            List<double[]> expected = descend(new GradDescentBackTrack(fresh(fresh), 0, x.dup()).accumulate(3), 6),
+                    actual = descend(new GradDescentBackTrack(reused, 0, x.dup()).accumulate(3), 6);
+            for (int i = 0; i < expected.size(); i++)
+                check((prioritized ? "prioritized" : "window") + " point " + i + " with reused samples",
+                        expected.get(i), actual.get(i));
+        }
+    }
+
+    /**
+     * Samples of the same data, at different points, give the same gradients
+     * when they're computed in two threads at once as one after the other.
+     */
+    private void concurrent() throws InterruptedException {
+        Architecture arch = new Architecture(new Sigmoid(), 4, 6, 3);
+        NeuralNetworkBuilder builder = new NeuralNetworkBuilder(set(data(400, 4, 3)), arch)
+                .setBatchSchedule(new BatchSchedule.Constant(100));
+        DiffReal[] samples = {builder.stochastic(), builder.stochastic()};
+        double[][] x = new double[2][], expected = new double[2][];
+        for (int i = 0; i < 2; i++) {
+            x[i] = rand.doubles(arch.numVariables(), -1, 1).toArray();
+            expected[i] = samples[i].funcAt(x[i]).grad.data.clone();
+        }
+        boolean[] same = {true, true};
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < 2; t++) {
+            int i = t;
+            threads[t] = new Thread(() -> {
+                for (int n = 0; n < 200 && same[i]; n++)
+                    same[i] = Arrays.equals(expected[i], samples[i].funcAt(x[i]).grad.data);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        check("gradients computed in two threads at once", same[0] && same[1]);
+    }
+
+    /**
+     * Data not sampled yet are drawn first, then data by their costs, and the
+     * weights are at most 1.
+     */
+    private void sampler() {
+        int n = 100;
+        Architecture arch = new Architecture(new Sigmoid(), 4, 6, 3);
+        PrioritizedSampler sampler = new PrioritizedSampler(1, 1, 2);
+        new NeuralNetworkBuilder(set(data(n, 4, 3)), arch).setPrioritizedSampler(sampler);
+
+        int[] indices = new int[10];
+        double[] weights = new double[10], costs = new double[10];
+        int[] counts = new int[n];
+        for (int i = 0; i < n / 2; i++)
+            sampler.update(new int[]{i}, new double[]{i == 0 ? 9 : 0});
+        for (int draw = 0; draw < 2000; draw++) {
+            sampler.draw(indices, weights);
+            for (int i = 0; i < indices.length; i++) {
+                counts[indices[i]]++;
+                check("weight " + weights[i], weights[i] > 0 && weights[i] <= 1);
+            }
+        }
+        int unseen = 0, cheap = 0;
+        for (int i = 1; i < n / 2; i++) cheap += counts[i];
+        for (int i = n / 2; i < n; i++) unseen += counts[i];
+        check("unsampled data drawn more than cheap data, " + unseen + " and " + cheap, unseen > 10 * cheap);
+        check("costly data drawn more than cheap data, " + counts[0] + " and " + cheap, counts[0] > 10 * cheap);
+
+        Arrays.setAll(indices, i -> n / 2 + i);
+        Arrays.fill(costs, 1);
+        sampler.update(indices, costs);
+        check("the cost of an updated datum", 1, sampler.cost(n / 2));
+        check("the cost of a datum not sampled yet", Double.isNaN(sampler.cost(n - 1)));
+    }
+
+    /**
+     * Pruning to the largest k weights of each node keeps the largest ones
+     * when some are equal, and k 0 zeroes them all.
+     */
+    private void topK() {
+        Architecture arch = new Architecture(new Sigmoid(), 5, 2, 3);
+        double[] x = rand.doubles(arch.numVariables(), -1, 1).toArray(), row = {0, 0, 0, 3, 5};
+        for (int col = 0; col < row.length; col++) x[arch.getWeightIndex(0, 0, col)] = row[col];
+        for (int k = 0; k <= row.length; k++) {
+            double[] pruned = Pruning.topK(arch, x, k);
+            check("the largest weight of " + Arrays.toString(row) + " with k " + k, k == 0 ? 0 : 5, pruned[arch.getWeightIndex(0, 0, 4)]);
+            check("the second largest weight with k " + k, k < 2 ? 0 : 3, pruned[arch.getWeightIndex(0, 0, 3)]);
+        }
+        throwsIllegalArgument("k -1", () -> Pruning.topK(arch, x, -1));
+    }
+
+    /**
+     * Saved tuning profiles are ignored unless asked for, and applying one
+     * sets the builder's batch size but not the backend.
+     */
+    private void tuning() throws IOException {
+        String mode = System.getProperty(AutoTuner.PROPERTY), file = System.getProperty(AutoTuner.FILE_PROPERTY);
+        Path dir = Files.createTempDirectory("tuning");
+        Architecture arch = new Architecture(new Sigmoid(), 4, 5, 3);
+        ClassifiedData data = set(data(20, 4, 3));
+        Backend backend = Backends.get();
+        try {
+            System.setProperty(AutoTuner.FILE_PROPERTY, dir.resolve("autotune.properties").toString());
+            AutoTuner.save(arch, new AutoTuner.Profile(backend.name().equals("java") ? "jblas" : "java", 7, 1, 0));
+
+            System.clearProperty(AutoTuner.PROPERTY);
+            check("the saved batch size applied by default", new NeuralNetworkBuilder(data, arch).getBatchSize() != 7);
+
+            System.setProperty(AutoTuner.PROPERTY, "saved");
+            check("the saved batch size", 7, new NeuralNetworkBuilder(data, arch).getBatchSize());
+            check("the backend changed by a saved profile", Backends.get() == backend);
+        } finally {
+            if (mode == null) System.clearProperty(AutoTuner.PROPERTY);
+            else System.setProperty(AutoTuner.PROPERTY, mode);
+            if (file == null) System.clearProperty(AutoTuner.FILE_PROPERTY);
+            else System.setProperty(AutoTuner.FILE_PROPERTY, file);
+        }
+    }
+
+    /**
+     * Runs the checks.
+     *
+     * @param args Not used.
+     * @throws IOException If the checkpoints can't be written.
+     * @throws InterruptedException If the checks in other threads are
+     * interrupted.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        TrainingCheck check = new TrainingCheck();
+        check.frozenAndCheckpointed();
+        check.schedules();
+        check.resume();
+        check.concurrent();
+        check.reuse();
+        check.sampler();
+        check.topK();
+        check.tuning();
+        check.failures.forEach(System.out::println);
+        if (!check.failures.isEmpty()) System.exit(1);
+        System.out.println("training checked");
+    }
+
+}